@@ -26,7 +26,6 @@ package net.fabricmc.loom;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.ArrayList;
@@ -135,8 +134,6 @@ public class ProjectHandler {
     public static Map<String, String> latestYarnBuilds = new HashMap<>();
     public static Project currentProject = null;
 
-    private static HttpClient httpClient = null;
-
     public final Project project;
     public final Project rootProject;
     public final PluginContainer plugins;
@@ -188,14 +185,10 @@ public class ProjectHandler {
     }
 
     private static String sendGET(String uri) {
-        if (httpClient == null) {
-            httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
-        }
-
         HttpRequest request = HttpRequest.newBuilder().GET().uri(URI.create(uri)).build();
 
         try {
-            return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+            return DownloadUtil.getHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).body();
         } catch (Throwable throwable) {
             throw Unsafe.throwException(throwable);
         }
@@ -631,7 +624,7 @@ public class ProjectHandler {
             if (this.extension.shareCaches) {
                 if (this.extension.isRootProject()) {
                     SourceRemapper sourceRemapper = new SourceRemapper(this.rootProject, false);
-                    JarRemapper jarRemapper = new JarRemapper();
+                    JarRemapper jarRemapper = new JarRemapper(this.extension.getArtifactStore());
 
                     remapJarTask.jarRemapper = jarRemapper;
 
@@ -31,10 +31,19 @@ public class DecompilationMetadata {
 	public final int numberOfThreads;
 	public final Path javaDocs;
 	public final Collection<Path> libraries;
+	/**
+	 * Where to record how long each class took to decompile, or <code>null</code> if no report is wanted.
+	 */
+	public final DecompilationReport report;
 
 	public DecompilationMetadata(int numberOfThreads, Path javaDocs, Collection<Path> libraries) {
+		this(numberOfThreads, javaDocs, libraries, null);
+	}
+
+	public DecompilationMetadata(int numberOfThreads, Path javaDocs, Collection<Path> libraries, DecompilationReport report) {
 		this.numberOfThreads = numberOfThreads;
 		this.javaDocs = javaDocs;
 		this.libraries = libraries;
+		this.report = report;
 	}
 }
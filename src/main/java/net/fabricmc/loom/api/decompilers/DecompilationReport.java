@@ -0,0 +1,207 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.api.decompilers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Collects how long a decompiler spent on each class and what it failed to decompile, so the classes which take the longest can be found.
+ * Decompilers record into it from any thread, then it is written out as either CSV or JSON depending on the file it is written to.
+ */
+public class DecompilationReport {
+	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+	private final Queue<Record> records = new ConcurrentLinkedQueue<>();
+	private final Map<Integer, Long> peakHeaps = new TreeMap<>();
+	private volatile boolean complete = true;
+
+	/**
+	 * @param stage What was being done to the class, such as decompiling or writing it
+	 * @param worker Which process the class was decompiled in, for decompilers which run more than one at once
+	 * @param thread Which thread in that process the class was decompiled on
+	 */
+	public void classFinished(String className, String stage, int worker, int thread, long nanos) {
+		records.add(new Record(className, stage, worker, thread, nanos, null));
+	}
+
+	/**
+	 * Record that the decompiler failed or fell back on something for the given class, which might be just one of its methods.
+	 */
+	public void classFailed(String className, String stage, int worker, int thread, String message) {
+		records.add(new Record(className, stage, worker, thread, -1, message));
+	}
+
+	/**
+	 * Get the name of every class which the decompiler has recorded failing or falling back on something for so far.
+	 */
+	public Set<String> getFailedClasses() {
+		Set<String> failed = new HashSet<>();
+
+		for (Record record : records) {
+			if (record.failure != null) {
+				failed.add(record.className);
+			}
+		}
+
+		return failed;
+	}
+
+	/**
+	 * Record that some of what the decompiler did might be missing, such as when a forked decompiler couldn't send all of its progress.
+	 */
+	public void markIncomplete() {
+		complete = false;
+	}
+
+	/**
+	 * Check whether everything the decompiler did was recorded, so {@link #getFailedClasses()} can be trusted to have every failure.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Record the most heap the given worker process used, in bytes.
+	 */
+	public synchronized void peakHeap(int worker, long bytes) {
+		peakHeaps.merge(worker, bytes, Math::max);
+	}
+
+	/**
+	 * Write the report to the given file, as JSON if its name ends with <code>.json</code> and CSV otherwise.
+	 * Classes are written slowest first, followed by all the failures.
+	 */
+	public void write(Path path) throws IOException {
+		List<Record> sorted = new ArrayList<>(records);
+		sorted.sort(Comparator.comparingLong((Record record) -> record.nanos).reversed().thenComparing(record -> record.className));
+
+		Map<Integer, Long> peakHeaps;
+
+		synchronized (this) {
+			peakHeaps = new TreeMap<>(this.peakHeaps);
+		}
+
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+
+		try (Writer writer = Files.newBufferedWriter(path)) {
+			if (path.getFileName().toString().endsWith(".json")) {
+				writeJson(writer, sorted, peakHeaps);
+			} else {
+				writeCsv(writer, sorted, peakHeaps);
+			}
+		}
+	}
+
+	private static void writeJson(Writer writer, List<Record> records, Map<Integer, Long> peakHeaps) {
+		JsonArray classes = new JsonArray();
+
+		for (Record record : records) {
+			JsonObject json = new JsonObject();
+			json.addProperty("class", record.className);
+			json.addProperty("stage", record.stage);
+			json.addProperty("worker", record.worker);
+			json.addProperty("thread", record.thread);
+
+			if (record.failure != null) {
+				json.addProperty("failure", record.failure);
+			} else {
+				json.addProperty("millis", record.nanos / 1_000_000D);
+			}
+
+			classes.add(json);
+		}
+
+		JsonObject heaps = new JsonObject();
+		peakHeaps.forEach((worker, bytes) -> heaps.addProperty(worker.toString(), bytes));
+
+		JsonObject json = new JsonObject();
+		json.add("classes", classes);
+		json.add("peakHeap", heaps);
+		GSON.toJson(json, writer);
+	}
+
+	private static void writeCsv(Writer writer, List<Record> records, Map<Integer, Long> peakHeaps) throws IOException {
+		writer.write("class,stage,worker,thread,millis,bytes,failure\n");
+
+		for (Record record : records) {
+			writer.write(escape(record.className) + ',' + escape(record.stage) + ',' + record.worker + ',' + record.thread + ',');
+
+			if (record.failure != null) {
+				writer.write(",," + escape(record.failure) + '\n');
+			} else {
+				writer.write(record.nanos / 1_000_000D + ",,\n");
+			}
+		}
+
+		for (Map.Entry<Integer, Long> entry : peakHeaps.entrySet()) {
+			writer.write(",peak heap," + entry.getKey() + ",,," + entry.getValue() + ",\n");
+		}
+	}
+
+	private static String escape(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return value;
+		}
+
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	private static final class Record {
+		private final String className;
+		private final String stage;
+		private final int worker;
+		private final int thread;
+		private final long nanos;
+		private final String failure;
+
+		private Record(String className, String stage, int worker, int thread, long nanos, String failure) {
+			this.className = className;
+			this.stage = stage;
+			this.worker = worker;
+			this.thread = thread;
+			this.nanos = nanos;
+			this.failure = failure;
+		}
+	}
+}
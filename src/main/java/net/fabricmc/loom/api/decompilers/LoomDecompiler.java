@@ -37,4 +37,12 @@ public interface LoomDecompiler {
 	 * @param metaData Additional information that may or may not be needed while decompiling
 	 */
 	void decompile(Path compiledJar, Path sourcesDestination, Path linemapDestination, DecompilationMetadata metaData);
+
+	/**
+	 * @return Something which changes whenever the decompiler might decompile the same class differently, such as its version and options,
+	 *         so classes decompiled before can be reused. <code>null</code> if nothing the decompiler produces should be reused.
+	 */
+	default String getCacheKey() {
+		return null;
+	}
 }
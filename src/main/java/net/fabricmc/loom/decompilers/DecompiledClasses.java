@@ -0,0 +1,141 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.fabricmc.loom.util.zip.RawZipEntry;
+import net.fabricmc.loom.util.zip.RawZipFile;
+import net.fabricmc.loom.util.zip.RawZipOutput;
+
+/**
+ * Helpers for decompiling part of a jar at a time, then putting what was decompiled for each part back together.
+ *
+ * <p>Inner classes are decompiled as part of their outermost class, so classes are always split up together with all of their inner classes.
+ */
+public final class DecompiledClasses {
+	private DecompiledClasses() {
+	}
+
+	/**
+	 * Get the class the given class is decompiled as part of, which follows {@link net.fabricmc.loom.util.LineNumberRemapper} in assuming
+	 * any class with a <code>$</code> in its name is an inner class.
+	 */
+	public static String getOutermostClass(String name) {
+		int split = name.indexOf('$');
+		return split >= 0 ? name.substring(0, split) : name;
+	}
+
+	/**
+	 * Group the classes in the given jar by their outermost class, in the order they are in the jar.
+	 */
+	public static Map<String, List<RawZipEntry>> groupClasses(RawZipFile jar) {
+		return groupEntries(jar, ".class");
+	}
+
+	/**
+	 * Group the sources in the given decompiled jar by the outermost class they are for.
+	 */
+	public static Map<String, List<RawZipEntry>> groupSources(RawZipFile jar) {
+		return groupEntries(jar, ".java");
+	}
+
+	private static Map<String, List<RawZipEntry>> groupEntries(RawZipFile jar, String extension) {
+		Map<String, List<RawZipEntry>> groups = new LinkedHashMap<>();
+
+		for (RawZipEntry entry : jar.getEntries()) {
+			String name = entry.getName();
+
+			if (!entry.isDirectory() && name.endsWith(extension)) {
+				groups.computeIfAbsent(getOutermostClass(name.substring(0, name.length() - extension.length())), k -> new ArrayList<>()).add(entry);
+			}
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Split the given jar in two, the given outermost classes (and their inner classes) to decompile and everything else
+	 * which needs to be on the classpath for them to decompile as they would do with the whole jar.
+	 */
+	public static void split(RawZipFile jar, Set<String> classes, Path selected, Path rest) throws IOException {
+		try (RawZipOutput selectedOutput = new RawZipOutput(selected); RawZipOutput restOutput = new RawZipOutput(rest)) {
+			for (RawZipEntry entry : jar.getEntries()) {
+				String name = entry.getName();
+
+				if (entry.isDirectory()) {
+					continue;
+				}
+
+				if (name.endsWith(".class") && classes.contains(getOutermostClass(name.substring(0, name.length() - ".class".length())))) {
+					selectedOutput.copy(jar, entry);
+				} else {
+					restOutput.copy(jar, entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Split the given line map up by the outermost class each part of it is for.
+	 */
+	public static Map<String, String> readLinemap(Path linemap) throws IOException {
+		Map<String, StringBuilder> parts = new HashMap<>();
+
+		try (BufferedReader reader = Files.newBufferedReader(linemap)) {
+			StringBuilder part = null;
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				if (line.charAt(0) != '\t') {
+					int end = line.indexOf('\t');
+					String className = end >= 0 ? line.substring(0, end) : line;
+					part = parts.computeIfAbsent(getOutermostClass(className), k -> new StringBuilder());
+				} else if (part == null) {
+					throw new IOException("Line mapping before any class in " + linemap);
+				}
+
+				part.append(line).append('\n');
+			}
+		}
+
+		Map<String, String> linemaps = new HashMap<>();
+		parts.forEach((className, part) -> linemaps.put(className, part.toString()));
+		return linemaps;
+	}
+}
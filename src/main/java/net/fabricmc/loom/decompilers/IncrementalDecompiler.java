@@ -0,0 +1,418 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.gradle.api.logging.Logger;
+
+import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
+import net.fabricmc.loom.api.decompilers.DecompilationReport;
+import net.fabricmc.loom.api.decompilers.LoomDecompiler;
+import net.fabricmc.loom.providers.MappingsCache;
+import net.fabricmc.loom.util.DeletingFileVisitor;
+import net.fabricmc.loom.util.zip.RawZipEntry;
+import net.fabricmc.loom.util.zip.RawZipFile;
+import net.fabricmc.loom.util.zip.RawZipOutput;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.ParameterDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * Decompiles a jar with another decompiler, but only the classes whose bytecode or javadoc has changed since they were last decompiled.
+ * Everything else is taken from a cache of what the decompiler produced before, then spliced back together in the order of the jar.
+ *
+ * <p>Inner classes are decompiled as part of their outermost class, so classes are cached together with all of their inner classes.
+ * Classes which the decompiler fails on aren't cached, and anything in the cache which hasn't been used for a month is pruned.
+ */
+public class IncrementalDecompiler implements LoomDecompiler {
+	private static final int VERSION = 1;
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+	private static final String LINEMAP = "linemap";
+	private static final String NAMESPACE = "named";
+	private static final String LAST_PRUNED = ".last-pruned";
+	// Cached classes only need to be touched often enough to tell they are still in use, not every time
+	private static final long TOUCH_INTERVAL = TimeUnit.DAYS.toMillis(1);
+	private static final long PRUNE_INTERVAL = TimeUnit.DAYS.toMillis(1);
+	private static final long PRUNE_UNUSED = TimeUnit.DAYS.toMillis(30);
+
+	private final LoomDecompiler decompiler;
+	private final String decompilerKey;
+	private final Path cacheDir;
+	private final Logger logger;
+
+	public IncrementalDecompiler(LoomDecompiler decompiler, Path cacheDir, Logger logger) {
+		this.decompiler = decompiler;
+		this.decompilerKey = Objects.requireNonNull(decompiler.getCacheKey(), () -> decompiler.name() + " can't be cached");
+		this.cacheDir = cacheDir;
+		this.logger = logger;
+	}
+
+	@Override
+	public String name() {
+		return decompiler.name();
+	}
+
+	@Override
+	public String getCacheKey() {
+		return decompilerKey;
+	}
+
+	@Override
+	public void decompile(Path compiledJar, Path sourcesDestination, Path linemapDestination, DecompilationMetadata metaData) {
+		try (RawZipFile input = new RawZipFile(compiledJar)) {
+			Map<String, List<RawZipEntry>> classes = DecompiledClasses.groupClasses(input);
+
+			Map<String, List<String>> javadocs = readJavadocs(metaData.javaDocs);
+			Map<String, String> keys = new HashMap<>();
+			Map<String, List<RawZipEntry>> changed = new LinkedHashMap<>();
+
+			for (Map.Entry<String, List<RawZipEntry>> entry : classes.entrySet()) {
+				String key = getKey(input, entry.getValue(), javadocs.getOrDefault(entry.getKey(), Collections.emptyList()));
+				keys.put(entry.getKey(), key);
+
+				if (!isCached(key)) {
+					changed.put(entry.getKey(), entry.getValue());
+				}
+			}
+
+			logger.lifecycle(":decompiling " + changed.size() + " of " + classes.size() + " classes, the rest are unchanged since they were last decompiled");
+			Path tempDir = Files.createTempDirectory("fabric-loom-decompile");
+
+			try {
+				Map<String, Path> uncached = Collections.emptyMap();
+
+				if (!changed.isEmpty()) {
+					uncached = decompileChanged(input, changed.size() == classes.size() ? null : changed, keys, metaData, tempDir);
+				}
+
+				writeSources(input, classes.keySet(), keys, uncached, sourcesDestination, linemapDestination);
+			} finally {
+				Files.walkFileTree(tempDir, new DeletingFileVisitor());
+			}
+
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to decompile " + compiledJar, e);
+		}
+
+		try {
+			pruneCache();
+		} catch (IOException e) {
+			// Only housekeeping, the sources are already written
+			logger.info("Failed to prune the decompiled class cache", e);
+		}
+	}
+
+	/**
+	 * Check whether there's a cached copy of what the decompiler produced with the given key, marking it as used if there is.
+	 */
+	private boolean isCached(String key) throws IOException {
+		Path cachePath = getCachePath(key);
+		long now = System.currentTimeMillis();
+
+		try {
+			if (now - Files.getLastModifiedTime(cachePath).toMillis() > TOUCH_INTERVAL) {
+				Files.setLastModifiedTime(cachePath, FileTime.fromMillis(now));
+			}
+		} catch (NoSuchFileException e) {
+			return false;
+		} catch (IOException e) {
+			// Not fatal, it might just be pruned sooner than it should be
+		}
+
+		return true;
+	}
+
+	/**
+	 * Delete everything in the cache which hasn't been used for a while, unless that has already been done recently.
+	 */
+	private void pruneCache() throws IOException {
+		Path marker = cacheDir.resolve(LAST_PRUNED);
+		long now = System.currentTimeMillis();
+
+		if (Files.exists(marker) && now - Files.getLastModifiedTime(marker).toMillis() < PRUNE_INTERVAL) {
+			return;
+		}
+
+		Files.createDirectories(cacheDir);
+		Files.write(marker, new byte[0]);
+		Files.setLastModifiedTime(marker, FileTime.fromMillis(now));
+		int pruned = 0;
+
+		try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(cacheDir, Files::isDirectory)) {
+			for (Path prefix : prefixes) {
+				try (DirectoryStream<Path> cached = Files.newDirectoryStream(prefix)) {
+					for (Path path : cached) {
+						try {
+							// Left over temporary files are given the same time as everything else, nothing should still be writing them by then
+							if (now - Files.getLastModifiedTime(path).toMillis() > PRUNE_UNUSED) {
+								Files.delete(path);
+								pruned++;
+							}
+						} catch (NoSuchFileException e) {
+							// Pruned by another build at the same time, or a temporary file which has since been moved into place
+						} catch (IOException e) {
+							// Most likely in use, it can go next time
+						}
+					}
+				}
+			}
+		}
+
+		if (pruned > 0) {
+			logger.info(":pruned " + pruned + " unused classes from the decompiled class cache");
+		}
+	}
+
+	/**
+	 * Collect all the javadoc for each outermost class and its inner classes, as that's all the mappings add to what is decompiled.
+	 */
+	private static Map<String, List<String>> readJavadocs(Path mappings) throws IOException {
+		Map<String, List<String>> javadocs = new HashMap<>();
+		TinyTree tree = MappingsCache.INSTANCE.get(mappings);
+
+		for (ClassDef classDef : tree.getClasses()) {
+			String className = classDef.getName(NAMESPACE);
+			List<String> lines = new ArrayList<>();
+
+			if (classDef.getComment() != null) {
+				lines.add("c\t" + className + "\t" + classDef.getComment());
+			}
+
+			for (FieldDef field : classDef.getFields()) {
+				if (field.getComment() != null) {
+					lines.add("f\t" + className + "\t" + field.getName(NAMESPACE) + "\t" + field.getDescriptor(NAMESPACE) + "\t" + field.getComment());
+				}
+			}
+
+			for (MethodDef method : classDef.getMethods()) {
+				String methodName = className + "\t" + method.getName(NAMESPACE) + "\t" + method.getDescriptor(NAMESPACE);
+
+				if (method.getComment() != null) {
+					lines.add("m\t" + methodName + "\t" + method.getComment());
+				}
+
+				for (ParameterDef parameter : method.getParameters()) {
+					if (parameter.getComment() != null) {
+						lines.add("p\t" + methodName + "\t" + parameter.getName(NAMESPACE) + "\t" + parameter.getComment());
+					}
+				}
+			}
+
+			if (!lines.isEmpty()) {
+				javadocs.computeIfAbsent(DecompiledClasses.getOutermostClass(className), k -> new ArrayList<>()).addAll(lines);
+			}
+		}
+
+		for (List<String> lines : javadocs.values()) {
+			Collections.sort(lines);
+		}
+
+		return javadocs;
+	}
+
+	private String getKey(RawZipFile input, List<RawZipEntry> classes, List<String> javadocs) throws IOException {
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putInt(VERSION).putString(decompilerKey, StandardCharsets.UTF_8).putByte((byte) 0);
+
+		List<RawZipEntry> sorted = new ArrayList<>(classes);
+		sorted.sort(Comparator.comparing(RawZipEntry::getName));
+
+		for (RawZipEntry entry : sorted) {
+			byte[] bytecode = input.read(entry);
+			hasher.putString(entry.getName(), StandardCharsets.UTF_8).putByte((byte) 0).putInt(bytecode.length).putBytes(bytecode);
+		}
+
+		for (String line : javadocs) {
+			hasher.putString(line, StandardCharsets.UTF_8).putByte((byte) 0);
+		}
+
+		return hasher.hash().toString();
+	}
+
+	private Path getCachePath(String key) {
+		return cacheDir.resolve(key.substring(0, 2)).resolve(key + ".zip");
+	}
+
+	/**
+	 * Decompile the given classes and cache what the decompiler produces for each of them. Classes which the decompiler didn't
+	 * produce any source for or reported failing on are kept in the given directory for this run instead, so they are tried again next time.
+	 * If the decompiler couldn't report everything it failed on, none of the classes are cached.
+	 *
+	 * @param changed The classes to decompile, or <code>null</code> to decompile the whole jar
+	 * @return Where what was produced for each class which wasn't cached is
+	 */
+	private Map<String, Path> decompileChanged(RawZipFile input, Map<String, List<RawZipEntry>> changed, Map<String, String> keys,
+			DecompilationMetadata metaData, Path tempDir) throws IOException {
+		Path decompileInput = input.getPath();
+		Collection<Path> libraries = metaData.libraries;
+
+		if (changed != null) {
+			// Everything else still needs to be visible so the changed classes decompile the same as they would with the whole jar
+			decompileInput = tempDir.resolve("changed.jar");
+			Path contextJar = tempDir.resolve("context.jar");
+			DecompiledClasses.split(input, changed.keySet(), decompileInput, contextJar);
+
+			libraries = new ArrayList<>(metaData.libraries);
+			libraries.add(contextJar);
+		}
+
+		// A report is needed to tell what failed even if nothing wants it written out
+		DecompilationReport report = metaData.report != null ? metaData.report : new DecompilationReport();
+		Path sources = tempDir.resolve("sources.jar");
+		Path linemap = tempDir.resolve("sources.lmap");
+		decompiler.decompile(decompileInput, sources, linemap, new DecompilationMetadata(metaData.numberOfThreads, metaData.javaDocs, libraries, report));
+
+		Map<String, String> linemaps = Files.exists(linemap) ? DecompiledClasses.readLinemap(linemap) : Collections.emptyMap();
+		// Without every failure recorded there's no telling which classes are safe to keep
+		boolean cacheable = report.isComplete();
+		Set<String> failed = new HashSet<>();
+
+		for (String className : report.getFailedClasses()) {
+			failed.add(DecompiledClasses.getOutermostClass(className));
+		}
+
+		Map<String, Path> uncached = new HashMap<>();
+
+		try (RawZipFile sourcesJar = new RawZipFile(sources)) {
+			Map<String, List<RawZipEntry>> decompiled = DecompiledClasses.groupSources(sourcesJar);
+
+			for (String className : changed != null ? changed.keySet() : keys.keySet()) {
+				String key = keys.get(className);
+				List<RawZipEntry> entries = decompiled.getOrDefault(className, Collections.emptyList());
+				Path path = getCachePath(key);
+
+				if (!cacheable || entries.isEmpty() || failed.contains(className)) {
+					path = tempDir.resolve("uncached").resolve(key + ".zip");
+					uncached.put(className, path);
+				}
+
+				writeCache(path, key, sourcesJar, entries, linemaps.get(className));
+			}
+		}
+
+		if (!cacheable) {
+			logger.lifecycle(":not caching any decompiled classes as it isn't known which failed, they will be decompiled again next time");
+		} else if (!uncached.isEmpty()) {
+			logger.lifecycle(":not caching " + uncached.size() + " classes which failed to decompile, they will be decompiled again next time");
+		}
+
+		return uncached;
+	}
+
+	private void writeCache(Path cachePath, String key, RawZipFile sources, List<RawZipEntry> entries, String linemap) throws IOException {
+		Files.createDirectories(cachePath.getParent());
+		Path temp = Files.createTempFile(cachePath.getParent(), key, ".tmp");
+
+		try {
+			try (RawZipOutput output = new RawZipOutput(temp)) {
+				for (RawZipEntry entry : entries) {
+					output.copy(sources, entry);
+				}
+
+				if (linemap != null) {
+					output.write(LINEMAP, RawZipEntry.toDosTime(System.currentTimeMillis()), linemap.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+
+			try {
+				Files.move(temp, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, cachePath, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Put the sources jar and line map together from the cache, with the classes in the same order as they are in the compiled jar.
+	 *
+	 * @param uncached Where what was produced for each class which wasn't cached is instead
+	 */
+	private void writeSources(RawZipFile input, Collection<String> classes, Map<String, String> keys, Map<String, Path> uncached,
+			Path sourcesDestination, Path linemapDestination) throws IOException {
+		boolean hasLinemap = false;
+		Files.deleteIfExists(sourcesDestination);
+
+		try (RawZipOutput output = new RawZipOutput(sourcesDestination); Writer linemap = Files.newBufferedWriter(linemapDestination)) {
+			RawZipEntry manifest = input.getEntry(MANIFEST);
+
+			if (manifest != null) {
+				output.copy(input, manifest);
+			}
+
+			for (String className : classes) {
+				Path cachePath = uncached.containsKey(className) ? uncached.get(className) : getCachePath(keys.get(className));
+
+				try (RawZipFile cached = new RawZipFile(cachePath)) {
+					for (RawZipEntry entry : cached.getEntries()) {
+						if (LINEMAP.equals(entry.getName())) {
+							linemap.write(new String(cached.read(entry), StandardCharsets.UTF_8));
+							hasLinemap = true;
+						} else {
+							output.copy(cached, entry);
+						}
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(sourcesDestination);
+			Files.deleteIfExists(linemapDestination);
+			throw e;
+		}
+
+		if (!hasLinemap) {
+			// Not every decompiler produces one
+			Files.delete(linemapDestination);
+		}
+	}
+}
@@ -48,6 +48,7 @@ import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -67,9 +68,14 @@ import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.internal.service.ServiceRegistry;
 
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
+import net.fabricmc.loom.api.decompilers.DecompilationReport;
 import net.fabricmc.loom.api.decompilers.LoomDecompiler;
 
 public class FabricCFRDecompiler implements LoomDecompiler {
+	private static final String REPORT_STAGE = "decompiling";
+	// The comment CFR writes in place of a method it couldn't decompile, matched as a whole line so string literals don't count
+	private static final Pattern FAILED_METHOD = Pattern.compile("^\\s*\\* Exception decompiling$", Pattern.MULTILINE);
+
 	private final Project project;
 
 	public FabricCFRDecompiler(Project project) {
@@ -100,6 +106,9 @@ public class FabricCFRDecompiler implements LoomDecompiler {
 
 		progressGroup.started();
 
+		DecompilationReport report = metaData.report;
+		ThreadLocal<String> currentClass = new ThreadLocal<>();
+
 		Manifest manifest = new Manifest();
 		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
 		Set<String> addedDirectories = new HashSet<>();
@@ -146,6 +155,8 @@ public class FabricCFRDecompiler implements LoomDecompiler {
 									return Collections.singletonList(SinkClass.STRING);
 								case JAVA:
 									return Collections.singletonList(SinkClass.DECOMPILED);
+								case EXCEPTION:
+									return Collections.singletonList(SinkClass.STRING);
 								default:
 									return Collections.emptyList();
 							}
@@ -158,9 +169,15 @@ public class FabricCFRDecompiler implements LoomDecompiler {
 								case PROGRESS:
 									return (p) -> project.getLogger().debug((String) p);
 								case JAVA:
-									return (Sink<T>) decompiledSink(jos, addedDirectories);
+									return (Sink<T>) decompiledSink(jos, addedDirectories, report);
 								case EXCEPTION:
-									return (e) -> project.getLogger().error((String) e);
+									return (e) -> {
+										project.getLogger().error((String) e);
+
+										if (report != null && currentClass.get() != null) {
+											report.classFailed(currentClass.get(), REPORT_STAGE, 0, getThreadId(), (String) e);
+										}
+									};
 							}
 
 							return null;
@@ -179,7 +196,25 @@ public class FabricCFRDecompiler implements LoomDecompiler {
 			for (String clazz : classes) {
 				futures.add(executorService.submit(() -> {
 					loggerMap.computeIfAbsent(Thread.currentThread().getId(), createLogger).progress(clazz);
-					driver.analyse(Collections.singletonList(clazz));
+					String className = clazz.substring(0, clazz.length() - ".class".length());
+					currentClass.set(className);
+					long start = System.nanoTime();
+
+					try {
+						driver.analyse(Collections.singletonList(clazz));
+					} catch (RuntimeException | Error e) {
+						if (report != null) {
+							report.classFailed(className, REPORT_STAGE, 0, getThreadId(), e.toString());
+						}
+
+						throw e;
+					} finally {
+						currentClass.remove();
+					}
+
+					if (report != null) {
+						report.classFinished(className, REPORT_STAGE, 0, getThreadId(), System.nanoTime() - start);
+					}
 				}));
 			}
 
@@ -193,11 +228,21 @@ public class FabricCFRDecompiler implements LoomDecompiler {
 		}
 	}
 
-	private static OutputSinkFactory.Sink<SinkReturns.Decompiled> decompiledSink(JarOutputStream jos, Set<String> addedDirectories) {
+	private static int getThreadId() {
+		return (int) Thread.currentThread().getId();
+	}
+
+	private static OutputSinkFactory.Sink<SinkReturns.Decompiled> decompiledSink(JarOutputStream jos, Set<String> addedDirectories, DecompilationReport report) {
 		return decompiled -> {
 			String filename = decompiled.getPackageName().replace('.', '/');
 			if (!filename.isEmpty()) filename += "/";
-			filename += decompiled.getClassName() + ".java";
+			filename += decompiled.getClassName();
+
+			if (report != null && FAILED_METHOD.matcher(decompiled.getJava()).find()) {
+				report.classFailed(filename, REPORT_STAGE, 0, getThreadId(), "Fell back to bytecode for at least one method");
+			}
+
+			filename += ".java";
 
 			byte[] data = decompiled.getJava().getBytes(Charsets.UTF_8);
 
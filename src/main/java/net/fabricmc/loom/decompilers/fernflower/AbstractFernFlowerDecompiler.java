@@ -26,14 +26,33 @@ package net.fabricmc.loom.decompilers.fernflower;
 
 import static java.text.MessageFormat.format;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.CodeSource;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
+import com.google.common.base.Throwables;
 import org.gradle.api.Project;
 import org.gradle.api.internal.project.ProjectInternal;
 import org.gradle.api.logging.LogLevel;
@@ -41,14 +60,25 @@ import org.gradle.internal.logging.progress.ProgressLogger;
 import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.internal.service.ServiceRegistry;
 import org.gradle.process.ExecResult;
+import org.gradle.process.internal.ExecActionFactory;
+import org.jetbrains.java.decompiler.main.Fernflower;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
 
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
+import net.fabricmc.loom.api.decompilers.DecompilationReport;
 import net.fabricmc.loom.api.decompilers.LoomDecompiler;
-import net.fabricmc.loom.util.ConsumingOutputStream;
+import net.fabricmc.loom.decompilers.DecompiledClasses;
+import net.fabricmc.loom.extension.LoomExtension;
+import net.fabricmc.loom.util.ArtifactStore;
+import net.fabricmc.loom.util.DeletingFileVisitor;
 import net.fabricmc.loom.util.OperatingSystem;
+import net.fabricmc.loom.util.zip.RawZipEntry;
+import net.fabricmc.loom.util.zip.RawZipFile;
+import net.fabricmc.loom.util.zip.RawZipOutput;
 
 public abstract class AbstractFernFlowerDecompiler implements LoomDecompiler {
+	private static final Map<Class<?>, String> CODE_SOURCES = new ConcurrentHashMap<>();
+
 	private final Project project;
 
 	protected AbstractFernFlowerDecompiler(Project project) {
@@ -65,89 +95,387 @@ public abstract class AbstractFernFlowerDecompiler implements LoomDecompiler {
 
 		project.getLogging().captureStandardOutput(LogLevel.LIFECYCLE);
 
-		Map<String, Object> options = new HashMap<String, Object>() {{
-				put(IFernflowerPreferences.DECOMPILE_GENERIC_SIGNATURES, "1");
-				put(IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, "1");
-				put(IFernflowerPreferences.REMOVE_SYNTHETIC, "1");
-				put(IFernflowerPreferences.LOG_LEVEL, "trace");
-				put(IFernflowerPreferences.THREADS, metaData.numberOfThreads);
-			}};
+		LoomExtension extension = project.getExtensions().getByType(LoomExtension.class);
+		int workers = Math.max(1, extension.decompileWorkers);
+		int threads = extension.decompileWorkerThreads > 0 ? extension.decompileWorkerThreads : Math.max(1, metaData.numberOfThreads / workers);
+
+		ServiceRegistry registry = ((ProjectInternal) project).getServices();
+		// Everything the forks need from Gradle is got here, as they are started from threads Gradle doesn't know about
+		ForkSetup setup = new ForkSetup(registry.get(ExecActionFactory.class), ForkingJavaExec.resolveClasspath(project.getRootProject()), threads, extension.decompileWorkerMemory);
+		ProgressLoggerFactory factory = registry.get(ProgressLoggerFactory.class);
+		ProgressLogger progressGroup = factory.newOperation(getClass()).setDescription("Decompile");
+		progressGroup.started();
+		Progress progress = new Progress(factory, progressGroup, metaData.report);
+
+		try {
+			if (workers == 1) {
+				fork(compiledJar, sourcesDestination, linemapDestination, metaData.libraries, metaData.javaDocs, 0, setup, progress);
+			} else {
+				decompilePartitioned(compiledJar, sourcesDestination, linemapDestination, metaData, workers, setup, progress);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to decompile " + compiledJar, e);
+		} finally {
+			progressGroup.completed();
+		}
+	}
+
+	/**
+	 * Split the jar up between several forked JVMs, each decompiling its own part with the rest of the jar as a library,
+	 * then put what they all produce back together in the order of the jar.
+	 */
+	private void decompilePartitioned(Path compiledJar, Path sourcesDestination, Path linemapDestination, DecompilationMetadata metaData,
+					int workers, ForkSetup setup, Progress progress) throws IOException {
+		Path tempDir = Files.createTempDirectory("fabric-loom-decompile");
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+
+		try (RawZipFile input = new RawZipFile(compiledJar)) {
+			Map<String, List<RawZipEntry>> classes = DecompiledClasses.groupClasses(input);
+			List<Set<String>> partitions = partition(classes, workers);
+			List<CompletableFuture<Void>> forks = new ArrayList<>();
+
+			project.getLogger().lifecycle(":decompiling " + classes.size() + " classes across " + partitions.size() + " workers");
+
+			for (int i = 0; i < partitions.size(); i++) {
+				Path partition = tempDir.resolve("partition-" + i + ".jar");
+				Path context = tempDir.resolve("context-" + i + ".jar");
+				Path sources = tempDir.resolve("sources-" + i + ".jar");
+				Path linemap = tempDir.resolve("sources-" + i + ".lmap");
+				DecompiledClasses.split(input, partitions.get(i), partition, context);
+
+				List<Path> libraries = new ArrayList<>(metaData.libraries);
+				libraries.add(context);
+				int worker = i;
+				forks.add(CompletableFuture.runAsync(() -> fork(partition, sources, linemap, libraries, metaData.javaDocs, worker, setup, progress), executor));
+			}
+
+			try {
+				CompletableFuture.allOf(forks.toArray(new CompletableFuture[0])).join();
+			} catch (CompletionException e) {
+				Throwables.throwIfUnchecked(e.getCause());
+				throw e;
+			}
+
+			List<RawZipFile> outputs = new ArrayList<>();
+
+			try {
+				Map<String, RawZipFile> sourceJars = new HashMap<>();
+				Map<String, List<RawZipEntry>> sources = new HashMap<>();
+				Map<String, String> linemaps = new HashMap<>();
+
+				for (int i = 0; i < partitions.size(); i++) {
+					RawZipFile output = new RawZipFile(tempDir.resolve("sources-" + i + ".jar"));
+					outputs.add(output);
+
+					DecompiledClasses.groupSources(output).forEach((className, entries) -> {
+						sourceJars.put(className, output);
+						sources.put(className, entries);
+					});
+
+					Path linemap = tempDir.resolve("sources-" + i + ".lmap");
+
+					if (Files.exists(linemap)) {
+						linemaps.putAll(DecompiledClasses.readLinemap(linemap));
+					}
+				}
+
+				Files.deleteIfExists(sourcesDestination);
+
+				try (RawZipOutput output = new RawZipOutput(sourcesDestination); Writer linemap = Files.newBufferedWriter(linemapDestination)) {
+					RawZipEntry manifest = input.getEntry("META-INF/MANIFEST.MF");
+
+					if (manifest != null) {
+						output.copy(input, manifest);
+					}
+
+					for (String className : classes.keySet()) {
+						for (RawZipEntry entry : sources.getOrDefault(className, Collections.emptyList())) {
+							output.copy(sourceJars.get(className), entry);
+						}
+
+						String lines = linemaps.get(className);
+
+						if (lines != null) {
+							linemap.write(lines);
+						}
+					}
+				}
+			} finally {
+				for (RawZipFile output : outputs) {
+					output.close();
+				}
+			}
+		} finally {
+			executor.shutdown();
+			Files.walkFileTree(tempDir, new DeletingFileVisitor());
+		}
+	}
+
+	/**
+	 * Split the outermost classes into the given number of roughly equally sized parts, keeping each package together where it can.
+	 */
+	private static List<Set<String>> partition(Map<String, List<RawZipEntry>> classes, int parts) {
+		Map<String, Long> sizes = new TreeMap<>();
+		Map<String, Long> packageSizes = new HashMap<>();
+		long total = 0;
+
+		for (Map.Entry<String, List<RawZipEntry>> entry : classes.entrySet()) {
+			long size = 0;
+
+			for (RawZipEntry classEntry : entry.getValue()) {
+				size += classEntry.getSize();
+			}
+
+			sizes.put(entry.getKey(), size);
+			packageSizes.merge(getPackage(entry.getKey()), size, Long::sum);
+			total += size;
+		}
+
+		List<Set<String>> partitions = new ArrayList<>();
+		long remaining = total;
+		long target = Math.max(1, total / parts);
+		Set<String> current = new HashSet<>();
+		String currentPackage = null;
+		long currentSize = 0;
+
+		// Classes in the same package tend to use each other the most, so small packages are kept together even if a part goes a little past its share
+		for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+			String className = entry.getKey();
+			String classPackage = getPackage(className);
+			boolean keepTogether = classPackage.equals(currentPackage) && packageSizes.get(classPackage) <= target && currentSize < target + target / 4;
+			boolean full = currentSize >= target && !keepTogether;
+
+			if (full && partitions.size() < parts - 1) {
+				partitions.add(current);
+				current = new HashSet<>();
+				remaining -= currentSize;
+				currentSize = 0;
+				// Share out what is left, so the parts which went over their share don't leave the last one short
+				target = Math.max(1, remaining / (parts - partitions.size()));
+			}
+
+			current.add(className);
+			currentPackage = classPackage;
+			currentSize += entry.getValue();
+		}
+
+		if (!current.isEmpty()) {
+			partitions.add(current);
+		}
+
+		return partitions;
+	}
+
+	private static String getPackage(String className) {
+		int end = className.lastIndexOf('/');
+		return end >= 0 ? className.substring(0, end) : "";
+	}
+
+	private void fork(Path input, Path sourcesDestination, Path linemapDestination, Collection<Path> libraries, Path javaDocs,
+					int worker, ForkSetup setup, Progress progress) {
+		Map<String, Object> options = getOptions();
+		options.put(IFernflowerPreferences.THREADS, setup.threads);
 
 		List<String> args = new ArrayList<>();
 
 		options.forEach((k, v) -> args.add(format("-{0}={1}", k, v)));
-		args.add(absolutePathOf(compiledJar));
+		args.add(absolutePathOf(input));
 		args.add("-o=" + absolutePathOf(sourcesDestination));
 		args.add("-l=" + absolutePathOf(linemapDestination));
-		args.add("-m=" + absolutePathOf(metaData.javaDocs));
+		args.add("-m=" + absolutePathOf(javaDocs));
 
 		// TODO, Decompiler breaks on jemalloc, J9 module-info.class?
-		for (Path library : metaData.libraries) {
+		for (Path library : libraries) {
 			args.add("-e=" + absolutePathOf(library));
 		}
 
-		ServiceRegistry registry = ((ProjectInternal) project).getServices();
-		ProgressLoggerFactory factory = registry.get(ProgressLoggerFactory.class);
-		ProgressLogger progressGroup = factory.newOperation(getClass()).setDescription("Decompile");
 		Supplier<ProgressLogger> loggerFactory = () -> {
-			ProgressLogger pl = factory.newOperation(getClass(), progressGroup);
+			ProgressLogger pl = progress.factory.newOperation(getClass(), progress.group);
 			pl.setDescription("decompile worker");
 			pl.started();
 			return pl;
 		};
 		Stack<ProgressLogger> freeLoggers = new Stack<>();
-		Map<String, ProgressLogger> inUseLoggers = new HashMap<>();
+		Map<Integer, ProgressLogger> inUseLoggers = new HashMap<>();
 
-		progressGroup.started();
-		ExecResult result = ForkingJavaExec.javaexec(project.getRootProject(), spec -> {
-			spec.setMain(fernFlowerExecutor().getName());
-			spec.jvmArgs("-Xms200m", "-Xmx3G");
-			spec.setArgs(args);
-			spec.setErrorOutput(System.err);
-			spec.setStandardOutput(new ConsumingOutputStream(line -> {
-				if (line.startsWith("Listening for transport") || !line.contains("::")) {
-					System.out.println(line);
-					return;
+		ForkedFFProgressReader reader;
+
+		try {
+			reader = new ForkedFFProgressReader(new ForkedFFProgressReader.Listener() {
+				@Override
+				public void working(int thread, ForkedFFProgressReader.Stage stage, String className) {
+					ProgressLogger logger = inUseLoggers.get(thread);
+
+					if (logger == null) {
+						logger = !freeLoggers.isEmpty() ? freeLoggers.pop() : loggerFactory.get();
+						inUseLoggers.put(thread, logger);
+					}
+
+					logger.progress(stage.getDescription() + ' ' + className);
 				}
 
-				int sepIdx = line.indexOf("::");
-				String id = line.substring(0, sepIdx).trim();
-				String data = line.substring(sepIdx + 2).trim();
+				@Override
+				public void finished(int thread, ForkedFFProgressReader.Stage stage, String className, long nanos) {
+					if (stage == ForkedFFProgressReader.Stage.WRITING) {
+						// Only outermost classes are written, inner classes go in with them
+						int count = progress.decompiled.incrementAndGet();
+
+						synchronized (progress.group) {
+							progress.group.progress(count + " classes decompiled");
+						}
+					}
 
-				ProgressLogger logger = inUseLoggers.get(id);
+					if (progress.report != null) {
+						progress.report.classFinished(className, stage.getReportName(), worker, thread, nanos);
+					}
+				}
 
-				String[] segs = data.split(" ");
+				@Override
+				public void idle(int thread) {
+					ProgressLogger logger = inUseLoggers.remove(thread);
 
-				if (segs[0].equals("waiting")) {
 					if (logger != null) {
 						logger.progress("Idle..");
-						inUseLoggers.remove(id);
 						freeLoggers.push(logger);
 					}
-				} else {
-					if (logger == null) {
-						if (!freeLoggers.isEmpty()) {
-							logger = freeLoggers.pop();
-						} else {
-							logger = loggerFactory.get();
-						}
+				}
 
-						inUseLoggers.put(id, logger);
+				@Override
+				public void failed(int thread, ForkedFFProgressReader.Stage stage, String className, String message) {
+					if (progress.report != null) {
+						progress.report.classFailed(className, stage.getReportName(), worker, thread, message);
 					}
+				}
 
-					logger.progress(data);
+				@Override
+				public void peakHeap(long bytes) {
+					if (progress.report != null) {
+						progress.report.peakHeap(worker, bytes);
+					}
 				}
-			}));
-		});
-		inUseLoggers.values().forEach(ProgressLogger::completed);
-		freeLoggers.forEach(ProgressLogger::completed);
-		progressGroup.completed();
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to listen for decompile progress", e);
+		}
+
+		args.add("-p=" + reader.getPort());
+		ExecResult result;
+		IOException progressFailure = null;
+
+		try {
+			result = ForkingJavaExec.javaexec(setup.execFactory, setup.classpath, spec -> {
+				spec.setMain(fernFlowerExecutor().getName());
+				spec.jvmArgs("-Xms200m", "-Xmx" + setup.memory);
+				spec.setArgs(args);
+				spec.setErrorOutput(System.err);
+			});
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				progressFailure = e;
+			}
+
+			inUseLoggers.values().forEach(ProgressLogger::completed);
+			freeLoggers.forEach(ProgressLogger::completed);
+		}
 
+		// A fork which failed is more interesting than the progress it didn't finish sending
 		result.rethrowFailure();
 		result.assertNormalExitValue();
+
+		if (progressFailure != null) {
+			throw new UncheckedIOException(progressFailure);
+		}
+
+		if (!reader.isComplete() && progress.report != null) {
+			project.getLogger().warn("Decompile worker " + worker + " couldn't send all of its progress, the decompilation report is missing some of what it did");
+			progress.report.markIncomplete();
+		}
+	}
+
+	/**
+	 * Get the options passed to FernFlower which affect what it produces.
+	 */
+	protected Map<String, Object> getOptions() {
+		Map<String, Object> options = new HashMap<>();
+		options.put(IFernflowerPreferences.DECOMPILE_GENERIC_SIGNATURES, "1");
+		options.put(IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, "1");
+		options.put(IFernflowerPreferences.REMOVE_SYNTHETIC, "1");
+		options.put(IFernflowerPreferences.LOG_LEVEL, "trace");
+		return options;
+	}
+
+	@Override
+	public String getCacheKey() {
+		// FernFlower's code is the decompiler, Loom's is the executor and javadoc provider
+		String fernFlower = getCodeSource(Fernflower.class);
+		String loom = getCodeSource(fernFlowerExecutor());
+
+		if (fernFlower == null || loom == null) {
+			// Without knowing what the code is there's no telling when it changes
+			return null;
+		}
+
+		return name() + '|' + fernFlowerExecutor().getName() + '|' + new TreeMap<>(getOptions()) + '|' + fernFlower + '|' + loom;
+	}
+
+	/**
+	 * Get a hash of the jar or directory the given class was loaded from, as names such as snapshot jars' stay the same when what's in them changes.
+	 *
+	 * @return The hash, or <code>null</code> if where the class came from isn't known
+	 */
+	private static String getCodeSource(Class<?> type) {
+		// What was loaded can't change, so each is only hashed once
+		return CODE_SOURCES.computeIfAbsent(type, k -> {
+			CodeSource source = type.getProtectionDomain().getCodeSource();
+
+			if (source == null || source.getLocation() == null) {
+				return null;
+			}
+
+			try {
+				return ArtifactStore.key("code-source").put(new File(source.getLocation().toURI())).build();
+			} catch (URISyntaxException | IllegalArgumentException e) {
+				return null;
+			}
+		});
 	}
 
 	private static String absolutePathOf(Path path) {
 		return path.toAbsolutePath().toString();
 	}
+
+	/**
+	 * How every fork is started, shared between them when there is more than one.
+	 */
+	private static final class ForkSetup {
+		private final ExecActionFactory execFactory;
+		private final Set<File> classpath;
+		private final int threads;
+		private final String memory;
+
+		private ForkSetup(ExecActionFactory execFactory, Set<File> classpath, int threads, String memory) {
+			this.execFactory = execFactory;
+			this.classpath = classpath;
+			this.threads = threads;
+			this.memory = memory;
+		}
+	}
+
+	/**
+	 * Where every fork reports its progress to, shared between them when there is more than one.
+	 */
+	private static final class Progress {
+		private final ProgressLoggerFactory factory;
+		private final ProgressLogger group;
+		private final DecompilationReport report;
+		private final AtomicInteger decompiled = new AtomicInteger();
+
+		private Progress(ProgressLoggerFactory factory, ProgressLogger group, DecompilationReport report) {
+			this.factory = factory;
+			this.group = group;
+			this.report = report;
+		}
+	}
 }
@@ -25,6 +25,8 @@
 package net.fabricmc.loom.decompilers.fernflower;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -36,12 +38,15 @@ import java.util.Objects;
  * Takes one parameter, a single file, each line is treated as command line input.
  * Forces one input file.
  * Forces one output file using '-o=/path/to/output'
+ * Optionally sends progress to the local port given by '-p=port'
  * Created by covers1624 on 11/02/19.
  * <p>Extending classes MUST have a standard "public static void main(args)".
  * They may then call AbstractForkedFFExecutor#decompile for it to use the overridden AbstractForkedFFExecutor#runFF
  * </p>
  */
 public abstract class AbstractForkedFFExecutor {
+	private ForkedFFProgressWriter progress;
+
 	public static void decompile(String[] args, AbstractForkedFFExecutor ffExecutor) {
 		Map<String, Object> options = new HashMap<>();
 		File input = null;
@@ -49,6 +54,7 @@ public abstract class AbstractForkedFFExecutor {
 		File lineMap = null;
 		File mappings = null;
 		List<File> libraries = new ArrayList<>();
+		int progressPort = -1;
 
 		boolean isOption = true;
 
@@ -86,6 +92,8 @@ public abstract class AbstractForkedFFExecutor {
 					}
 
 					mappings = new File(arg.substring(3));
+				} else if (arg.startsWith("-p=")) {
+					progressPort = Integer.parseInt(arg.substring(3));
 				} else {
 					if (input != null) {
 						throw new RuntimeException("Unable to set more than one input.");
@@ -100,7 +108,28 @@ public abstract class AbstractForkedFFExecutor {
 		Objects.requireNonNull(output, "Output not set.");
 		Objects.requireNonNull(mappings, "Mappings not set.");
 
-		ffExecutor.runFF(options, libraries, input, output, lineMap, mappings);
+		try {
+			if (progressPort >= 0) {
+				ffExecutor.progress = new ForkedFFProgressWriter(progressPort);
+			}
+
+			try {
+				ffExecutor.runFF(options, libraries, input, output, lineMap, mappings);
+			} finally {
+				if (ffExecutor.progress != null) {
+					ffExecutor.progress.close();
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to send progress", e);
+		}
+	}
+
+	/**
+	 * Get where to send the progress FernFlower makes, or <code>null</code> if it isn't wanted.
+	 */
+	protected ForkedFFProgressWriter getProgress() {
+		return progress;
 	}
 
 	public abstract void runFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap, File mappings);
@@ -44,7 +44,7 @@ public class FabricForkedFFExecutor extends AbstractForkedFFExecutor {
 		options.put(IFabricJavadocProvider.PROPERTY_NAME, new TinyJavadocProvider(mappings));
 
 		IResultSaver saver = new ThreadSafeResultSaver(() -> output, () -> lineMap);
-		IFernflowerLogger logger = new ThreadIDFFLogger();
+		IFernflowerLogger logger = new ThreadIDFFLogger(getProgress());
 		Fernflower ff = new Fernflower(FernFlowerUtils::getBytecode, saver, options, logger);
 
 		for (File library : libraries) {
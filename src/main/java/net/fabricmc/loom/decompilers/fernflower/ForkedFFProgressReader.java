@@ -0,0 +1,220 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.fernflower;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Listens on a local socket for the progress a forked FernFlower sends with {@link ForkedFFProgressWriter},
+ * passing on what each of its threads is doing to a {@link Listener} from a thread of its own.
+ */
+public class ForkedFFProgressReader implements Closeable {
+	private final ServerSocket server;
+	private final Listener listener;
+	private final Thread thread;
+	private volatile Throwable failure;
+	private volatile boolean complete;
+
+	public ForkedFFProgressReader(Listener listener) throws IOException {
+		this.server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		this.listener = listener;
+		this.thread = new Thread(this::run, "FernFlower progress reader");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Get the port to pass to the forked JVM for it to connect to.
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	private void run() {
+		try (Socket socket = server.accept(); DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+			Map<Integer, Deque<Work>> threads = new HashMap<>();
+			int type;
+
+			while ((type = input.read()) >= 0) {
+				if (type == ForkedFFProgressWriter.PEAK_HEAP) {
+					listener.peakHeap(input.readLong());
+					continue;
+				} else if (type == ForkedFFProgressWriter.COMPLETE) {
+					complete = true;
+					continue;
+				}
+
+				int thread = input.readInt();
+				Deque<Work> stack = threads.computeIfAbsent(thread, k -> new ArrayDeque<>());
+
+				switch (type) {
+				case ForkedFFProgressWriter.STARTED: {
+					Work work = new Work(Stage.values()[input.readUnsignedByte()], input.readUTF());
+					stack.push(work);
+					listener.working(thread, work.stage, work.className);
+					break;
+				}
+				case ForkedFFProgressWriter.FINISHED: {
+					long nanos = input.readLong();
+					Work work = stack.pop();
+					listener.finished(thread, work.stage, work.className, nanos);
+
+					if (!stack.isEmpty()) {
+						listener.working(thread, stack.peek().stage, stack.peek().className);
+					}
+
+					break;
+				}
+				case ForkedFFProgressWriter.IDLE:
+					listener.idle(thread);
+					break;
+				case ForkedFFProgressWriter.FAILED: {
+					String message = input.readUTF();
+					Work work = stack.peek();
+
+					if (work == null) {
+						throw new IOException("Failure reported with nothing started: " + message);
+					}
+
+					listener.failed(thread, work.stage, work.className, message);
+					break;
+				}
+				default:
+					throw new IOException("Unknown progress event " + type);
+				}
+			}
+		} catch (SocketException e) {
+			// The server socket was closed without the fork ever connecting, which it will have said why if it needs to
+			if (!server.isClosed()) {
+				failure = e;
+			}
+		} catch (EOFException e) {
+			failure = new IOException("Progress ended partway through an event", e);
+		} catch (Throwable t) {
+			failure = t;
+		}
+	}
+
+	/**
+	 * Check whether the fork said it sent all of its progress, which can only be relied on once {@link #close closed}.
+	 * Without that some of what it reported, such as which classes it failed on, might be missing.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Wait for the rest of the progress to be read once the fork has exited.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			// Accepting blocks until a connection comes or the socket is closed, but reading an accepted connection is unaffected
+			server.close();
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for progress", e);
+		}
+
+		if (failure != null) {
+			throw new IOException("Failed to read decompile progress", failure);
+		}
+	}
+
+	public enum Stage {
+		READING("Reading", "reading"),
+		DECOMPILING("Decompiling", "decompiling"),
+		WRITING("Writing", "writing");
+
+		private final String description;
+		private final String reportName;
+
+		Stage(String description, String reportName) {
+			this.description = description;
+			this.reportName = reportName;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		/**
+		 * Get the name the stage is given in a {@link net.fabricmc.loom.api.decompilers.DecompilationReport}.
+		 */
+		public String getReportName() {
+			return reportName;
+		}
+	}
+
+	public interface Listener {
+		/**
+		 * Called whenever what the given thread is working on changes, either by starting something new or going back to what it was doing before.
+		 */
+		void working(int thread, Stage stage, String className);
+
+		/**
+		 * Called when the given thread has finished a stage, with how long it spent on it including anything it started in the meantime.
+		 */
+		void finished(int thread, Stage stage, String className, long nanos);
+
+		/**
+		 * Called when the given thread has nothing left to work on for now.
+		 */
+		void idle(int thread);
+
+		/**
+		 * Called when FernFlower warns about or gives up on part of what the given thread is working on, which it carries on from.
+		 */
+		void failed(int thread, Stage stage, String className, String message);
+
+		/**
+		 * Called once the fork is done with the most heap it could have used.
+		 */
+		void peakHeap(long bytes);
+	}
+
+	private static final class Work {
+		private final Stage stage;
+		private final String className;
+
+		private Work(Stage stage, String className) {
+			this.stage = stage;
+			this.className = className;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.fernflower;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends what each of FernFlower's threads is doing back to Gradle over a local socket, read by {@link ForkedFFProgressReader}.
+ *
+ * <p>Every event is a single byte type, followed by the thread it is for for all but {@link #PEAK_HEAP}, then:
+ * <ul>
+ *     <li>{@link #STARTED}: the {@link ForkedFFProgressReader.Stage} ordinal as a byte and the class name
+ *     <li>{@link #FINISHED}: how long the last started stage took in nanoseconds
+ *     <li>{@link #IDLE}: nothing
+ *     <li>{@link #FAILED}: what went wrong with the last started stage
+ *     <li>{@link #PEAK_HEAP}: the most heap the JVM has used in bytes, sent once when closing
+ *     <li>{@link #COMPLETE}: nothing, sent last when closing if every event before it was sent
+ * </ul>
+ *
+ * <p>FernFlower's threads only queue their events, which are sent in batches from a thread of its own every so often or whenever
+ * a thread goes idle. Progress is only nice to have, so if sending it fails no more is sent rather than failing the decompile.
+ * Failures are the exception, which is why the reader is only told everything arrived by {@link #COMPLETE}.
+ */
+public class ForkedFFProgressWriter implements Closeable {
+	static final byte STARTED = 0;
+	static final byte FINISHED = 1;
+	static final byte IDLE = 2;
+	static final byte FAILED = 3;
+	static final byte PEAK_HEAP = 4;
+	static final byte COMPLETE = 5;
+	private static final int MAX_MESSAGE_LENGTH = 4096;
+	private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Socket socket;
+	private final DataOutputStream output;
+	private final Queue<byte[]> events = new ConcurrentLinkedQueue<>();
+	private final Thread sender;
+	private volatile boolean closed;
+	private volatile boolean disabled;
+
+	public ForkedFFProgressWriter(int port) throws IOException {
+		this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		this.socket.setTcpNoDelay(true);
+		this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this.sender = new Thread(this::sendPeriodically, "FernFlower progress writer");
+		this.sender.setDaemon(true);
+		this.sender.start();
+	}
+
+	public void started(int thread, ForkedFFProgressReader.Stage stage, String className) {
+		queue(output -> {
+			output.writeByte(STARTED);
+			output.writeInt(thread);
+			output.writeByte(stage.ordinal());
+			output.writeUTF(className);
+		});
+	}
+
+	public void finished(int thread, long nanos) {
+		queue(output -> {
+			output.writeByte(FINISHED);
+			output.writeInt(thread);
+			output.writeLong(nanos);
+		});
+	}
+
+	public void idle(int thread) {
+		queue(output -> {
+			output.writeByte(IDLE);
+			output.writeInt(thread);
+		});
+
+		// Nothing more is coming from this thread for now, so there's no point waiting to send what it has done
+		LockSupport.unpark(sender);
+	}
+
+	public void failed(int thread, String message) {
+		queue(output -> {
+			output.writeByte(FAILED);
+			output.writeInt(thread);
+			// Encoded strings can only be so long, which a stack trace could go past
+			output.writeUTF(message.length() > MAX_MESSAGE_LENGTH ? message.substring(0, MAX_MESSAGE_LENGTH) : message);
+		});
+	}
+
+	private void queue(Event event) {
+		if (disabled) {
+			return;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+
+		try {
+			event.write(new DataOutputStream(bytes));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to encode progress", e);
+		}
+
+		events.add(bytes.toByteArray());
+	}
+
+	private void sendPeriodically() {
+		while (!closed && !disabled) {
+			LockSupport.parkNanos(FLUSH_INTERVAL);
+			send();
+		}
+	}
+
+	/**
+	 * Send everything which has been queued so far, giving up on sending any more progress if it fails.
+	 */
+	private synchronized void send() {
+		if (disabled) {
+			events.clear();
+			return;
+		}
+
+		try {
+			byte[] event;
+			boolean sent = false;
+
+			while ((event = events.poll()) != null) {
+				output.write(event);
+				sent = true;
+			}
+
+			if (sent) {
+				output.flush();
+			}
+		} catch (IOException e) {
+			disabled = true;
+			events.clear();
+			System.err.println("Failed to send decompile progress, no more will be sent: " + e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(sender);
+
+		try {
+			sender.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			long peakHeap = 0;
+
+			// Each pool peaks at a different time, so this is the most the heap could have reached rather than exactly what it did
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+					peakHeap += pool.getPeakUsage().getUsed();
+				}
+			}
+
+			long heap = peakHeap;
+			queue(output -> {
+				output.writeByte(PEAK_HEAP);
+				output.writeLong(heap);
+			});
+			// Nothing is queued once sending has failed, so this only arrives if everything before it did
+			queue(output -> output.writeByte(COMPLETE));
+			send();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private interface Event {
+		void write(DataOutputStream output) throws IOException;
+	}
+}
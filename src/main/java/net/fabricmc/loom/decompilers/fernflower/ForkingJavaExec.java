@@ -24,6 +24,9 @@
 
 package net.fabricmc.loom.decompilers.fernflower;
 
+import java.io.File;
+import java.util.Set;
+
 import org.gradle.api.Action;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.ConfigurationContainer;
@@ -31,6 +34,8 @@ import org.gradle.api.artifacts.dsl.DependencyHandler;
 import org.gradle.api.file.FileCollection;
 import org.gradle.process.ExecResult;
 import org.gradle.process.JavaExecSpec;
+import org.gradle.process.internal.ExecActionFactory;
+import org.gradle.process.internal.JavaExecAction;
 
 /**
  * Simple utility class for a Task that wishes to execute a java process
@@ -40,14 +45,36 @@ import org.gradle.process.JavaExecSpec;
  */
 public class ForkingJavaExec {
 	public static ExecResult javaexec(Project project, Action<? super JavaExecSpec> action) {
-		ConfigurationContainer configurations = project.getBuildscript().getConfigurations();
-		DependencyHandler handler = project.getDependencies();
-		FileCollection classpath = configurations.getByName("classpath")//
-						.plus(configurations.detachedConfiguration(handler.localGroovy()));
+		FileCollection classpath = getClasspath(project);
 
 		return project.javaexec(spec -> {
 			spec.classpath(classpath);
 			action.execute(spec);
 		});
 	}
+
+	/**
+	 * Execute a java process with the given classpath from {@link #resolveClasspath}, which unlike {@link #javaexec(Project, Action)}
+	 * is safe to do from threads which Gradle isn't managing.
+	 */
+	public static ExecResult javaexec(ExecActionFactory factory, Set<File> classpath, Action<? super JavaExecSpec> action) {
+		JavaExecAction exec = factory.newJavaExecAction();
+		exec.classpath(classpath);
+		action.execute(exec);
+		return exec.execute();
+	}
+
+	/**
+	 * Resolve the classpath of the gradle plugin plus groovy, which has to be done from a thread Gradle is managing, such as a task's.
+	 */
+	public static Set<File> resolveClasspath(Project project) {
+		return getClasspath(project).getFiles();
+	}
+
+	private static FileCollection getClasspath(Project project) {
+		ConfigurationContainer configurations = project.getBuildscript().getConfigurations();
+		DependencyHandler handler = project.getDependencies();
+		return configurations.getByName("classpath")//
+						.plus(configurations.detachedConfiguration(handler.localGroovy()));
+	}
 }
@@ -24,75 +24,95 @@
 
 package net.fabricmc.loom.decompilers.fernflower;
 
-import java.io.PrintStream;
-import java.text.MessageFormat;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
 
 /**
- * This logger simply prints what each thread is doing
- * to the console in a machine parsable way.
+ * This logger sends what each thread is doing back to Gradle
+ * through a {@link ForkedFFProgressWriter}, rather than printing it.
  *
  * <p>Created by covers1624 on 11/02/19.
  */
 public class ThreadIDFFLogger extends IFernflowerLogger {
-	public final PrintStream stdOut;
-	public final PrintStream stdErr;
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
 
-	private final ThreadLocal<Stack<String>> workingClass = ThreadLocal.withInitial(Stack::new);
-	private final ThreadLocal<Stack<String>> line = ThreadLocal.withInitial(Stack::new);
+	private final ForkedFFProgressWriter progress;
+	private final ThreadLocal<Integer> id = ThreadLocal.withInitial(NEXT_ID::getAndIncrement);
+	private final ThreadLocal<Stack<Long>> started = ThreadLocal.withInitial(Stack::new);
 
 	public ThreadIDFFLogger() {
-		this(System.err, System.out);
+		this(null);
 	}
 
-	public ThreadIDFFLogger(PrintStream stdOut, PrintStream stdErr) {
-		this.stdOut = stdOut;
-		this.stdErr = stdErr;
+	/**
+	 * @param progress Where to send progress, or <code>null</code> to not send it anywhere
+	 */
+	public ThreadIDFFLogger(ForkedFFProgressWriter progress) {
+		this.progress = progress;
 	}
 
 	@Override
 	public void writeMessage(String message, Severity severity) {
-		System.err.println(message);
+		if (accepts(severity)) {
+			System.err.println(message);
+		}
+
+		fail(message, severity);
 	}
 
 	@Override
 	public void writeMessage(String message, Severity severity, Throwable t) {
-		System.err.println(message);
-		t.printStackTrace(System.err);
+		if (accepts(severity)) {
+			System.err.println(message);
+			t.printStackTrace(System.err);
+		}
+
+		fail(message + ": " + t, severity);
 	}
 
-	private void print() {
-		Thread thread = Thread.currentThread();
-		long id = thread.getId();
+	private void fail(String message, Severity severity) {
+		// Warnings are when FernFlower gives up on part of a class, such as a method which couldn't be decompiled or took too long
+		if (progress != null && severity.ordinal() >= Severity.WARN.ordinal() && !started.get().isEmpty()) {
+			progress.failed(id.get(), message);
+		}
+	}
 
-		if (line.get().isEmpty()) {
-			System.out.println(MessageFormat.format("{0} :: waiting", id));
-			return;
+	private void start(ForkedFFProgressReader.Stage stage, String className) {
+		started.get().push(System.nanoTime());
+
+		if (progress != null) {
+			progress.started(id.get(), stage, className);
 		}
+	}
+
+	private void end() {
+		Stack<Long> started = this.started.get();
+		long nanos = System.nanoTime() - started.pop();
 
-		String line = this.line.get().peek();
-		System.out.println(MessageFormat.format("{0} :: {1}", id, line).trim());
+		if (progress != null) {
+			progress.finished(id.get(), nanos);
+
+			if (started.isEmpty()) {
+				progress.idle(id.get());
+			}
+		}
 	}
 
 	@Override
 	public void startReadingClass(String className) {
-		workingClass.get().push(className);
-		line.get().push("Decompiling " + className);
-		print();
+		start(ForkedFFProgressReader.Stage.READING, className);
 	}
 
 	@Override
 	public void startClass(String className) {
-		workingClass.get().push(className);
-		line.get().push("Decompiling " + className);
-		print();
+		start(ForkedFFProgressReader.Stage.DECOMPILING, className);
 	}
 
 	@Override
 	public void startMethod(String methodName) {
-		// No need to print out methods
+		// No need to send methods
 	}
 
 	@Override
@@ -101,27 +121,21 @@ public class ThreadIDFFLogger extends IFernflowerLogger {
 
 	@Override
 	public void endClass() {
-		line.get().pop();
-		workingClass.get().pop();
-		print();
+		end();
 	}
 
 	@Override
 	public void startWriteClass(String className) {
-		line.get().push("Writing " + className);
-		print();
+		start(ForkedFFProgressReader.Stage.WRITING, className);
 	}
 
 	@Override
 	public void endWriteClass() {
-		line.get().pop();
-		print();
+		end();
 	}
 
 	@Override
 	public void endReadingClass() {
-		line.get().pop();
-		workingClass.get().pop();
-		print();
+		end();
 	}
 }
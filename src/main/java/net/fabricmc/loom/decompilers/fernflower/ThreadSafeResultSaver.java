@@ -24,39 +24,39 @@
 
 package net.fabricmc.loom.decompilers.fernflower;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.nio.file.Files;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
-import java.util.jar.JarOutputStream;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.jetbrains.java.decompiler.main.DecompilerContext;
 import org.jetbrains.java.decompiler.main.extern.IResultSaver;
 
 import net.fabricmc.fernflower.api.IFabricResultSaver;
+import net.fabricmc.loom.util.zip.RawZipEntry;
+import net.fabricmc.loom.util.zip.RawZipOutput;
 
 /**
- * Created by covers1624 on 18/02/19.
+ * Saves FernFlower's output with each class encoded and compressed, along with its line mappings, on whichever thread decompiled it.
+ * Whichever thread finds nothing else being written then writes everything which is waiting, so there is no thread which only writes.
+ *
+ * <p>Created by covers1624 on 18/02/19.
  */
 public class ThreadSafeResultSaver implements IResultSaver, IFabricResultSaver {
 	private final Supplier<File> output;
 	private final Supplier<File> lineMapFile;
-
-	public Map<String, ZipOutputStream> outputStreams = new HashMap<>();
-	public Map<String, ExecutorService> saveExecutors = new HashMap<>();
-	public PrintWriter lineMapWriter;
+	private final Map<String, Archive> archives = new ConcurrentHashMap<>();
 
 	public ThreadSafeResultSaver(Supplier<File> output, Supplier<File> lineMapFile) {
 		this.output = output;
@@ -67,19 +67,29 @@ public class ThreadSafeResultSaver implements IResultSaver, IFabricResultSaver {
 	public void createArchive(String path, String archiveName, Manifest manifest) {
 		String key = path + "/" + archiveName;
 		File file = output.get();
+		Archive archive;
 
 		try {
-			FileOutputStream fos = new FileOutputStream(file);
-			ZipOutputStream zos = manifest == null ? new ZipOutputStream(fos) : new JarOutputStream(fos, manifest);
-			outputStreams.put(key, zos);
-			saveExecutors.put(key, Executors.newSingleThreadExecutor());
+			archive = new Archive(new RawZipOutput(file.toPath()));
 		} catch (IOException e) {
 			throw new RuntimeException("Unable to create archive: " + file, e);
 		}
 
+		archives.put(key, archive);
+
+		if (manifest != null) {
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				manifest.write(bytes);
+				archive.output.write(JarFile.MANIFEST_NAME, archive.dosTime, bytes.toByteArray());
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to write manifest: " + file, e);
+			}
+		}
+
 		if (lineMapFile.get() != null) {
 			try {
-				lineMapWriter = new PrintWriter(new FileWriter(lineMapFile.get()));
+				archive.lineMap = new BufferedOutputStream(Files.newOutputStream(lineMapFile.get().toPath()));
 			} catch (IOException e) {
 				throw new RuntimeException("Unable to create line mapping file: " + lineMapFile.get(), e);
 			}
@@ -93,65 +103,55 @@ public class ThreadSafeResultSaver implements IResultSaver, IFabricResultSaver {
 
 	@Override
 	public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName, String content, int[] mapping) {
-		String key = path + "/" + archiveName;
-		ExecutorService executor = saveExecutors.get(key);
-		executor.submit(() -> {
-			ZipOutputStream zos = outputStreams.get(key);
-
-			try {
-				zos.putNextEntry(new ZipEntry(entryName));
-
-				if (content != null) {
-					zos.write(content.getBytes(StandardCharsets.UTF_8));
-				}
-			} catch (IOException e) {
-				DecompilerContext.getLogger().writeMessage("Cannot write entry " + entryName, e);
+		Archive archive = archives.get(path + "/" + archiveName);
+		byte[] contents = content != null ? content.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		RawZipOutput.Compressed entry = RawZipOutput.compress(entryName, archive.dosTime, contents);
+		byte[] lineMap = null;
+
+		if (mapping != null && archive.lineMap != null) {
+			int maxLine = 0;
+			int maxLineDest = 0;
+			StringBuilder builder = new StringBuilder();
+
+			for (int i = 0; i < mapping.length; i += 2) {
+				maxLine = Math.max(maxLine, mapping[i]);
+				maxLineDest = Math.max(maxLineDest, mapping[i + 1]);
+				builder.append("\t").append(mapping[i]).append("\t").append(mapping[i + 1]).append("\n");
 			}
 
-			if (mapping != null && lineMapWriter != null) {
-				int maxLine = 0;
-				int maxLineDest = 0;
-				StringBuilder builder = new StringBuilder();
-
-				for (int i = 0; i < mapping.length; i += 2) {
-					maxLine = Math.max(maxLine, mapping[i]);
-					maxLineDest = Math.max(maxLineDest, mapping[i + 1]);
-					builder.append("\t").append(mapping[i]).append("\t").append(mapping[i + 1]).append("\n");
-				}
+			lineMap = (qualifiedName + "\t" + maxLine + "\t" + maxLineDest + "\n" + builder + "\n").getBytes(StandardCharsets.UTF_8);
+		}
 
-				lineMapWriter.println(qualifiedName + "\t" + maxLine + "\t" + maxLineDest);
-				lineMapWriter.println(builder.toString());
-			}
-		});
+		archive.append(new Saved(entry, lineMap));
 	}
 
 	@Override
 	public void closeArchive(String path, String archiveName) {
 		String key = path + "/" + archiveName;
-		ExecutorService executor = saveExecutors.get(key);
-		Future<?> closeFuture = executor.submit(() -> {
-			ZipOutputStream zos = outputStreams.get(key);
-
-			try {
-				zos.close();
-			} catch (IOException e) {
-				throw new RuntimeException("Unable to close zip. " + key, e);
-			}
-		});
-		executor.shutdown();
+		Archive archive = archives.remove(key);
 
+		// Every class has been saved by now, but the last one might still be being written by another thread
 		try {
-			closeFuture.get();
-		} catch (InterruptedException | ExecutionException e) {
-			throw new RuntimeException(e);
+			archive.awaitWritten();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for zip to be written. " + key, e);
 		}
 
-		outputStreams.remove(key);
-		saveExecutors.remove(key);
+		if (archive.failure != null) {
+			throw new RuntimeException("Unable to write zip. " + key, archive.failure);
+		}
 
-		if (lineMapWriter != null) {
-			lineMapWriter.flush();
-			lineMapWriter.close();
+		try {
+			try {
+				archive.output.close();
+			} finally {
+				if (archive.lineMap != null) {
+					archive.lineMap.close();
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to close zip. " + key, e);
 		}
 	}
 
@@ -174,4 +174,77 @@ public class ThreadSafeResultSaver implements IResultSaver, IFabricResultSaver {
 	@Override
 	public void copyEntry(String source, String path, String archiveName, String entry) {
 	}
+
+	private static final class Archive {
+		private final RawZipOutput output;
+		private final int dosTime = RawZipEntry.toDosTime(System.currentTimeMillis());
+		private final Queue<Saved> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger waiting = new AtomicInteger();
+		private OutputStream lineMap;
+		private volatile RuntimeException failure;
+
+		private Archive(RawZipOutput output) {
+			this.output = output;
+		}
+
+		/**
+		 * Queue the given class to be written, writing it and anything else which is queued if nothing else is being written.
+		 */
+		private void append(Saved saved) {
+			queue.add(saved);
+
+			// Only the thread which finds nothing waiting writes, until everything queued in the meantime has been written too
+			if (waiting.getAndIncrement() == 0) {
+				do {
+					try {
+						write(queue.poll());
+					} catch (RuntimeException e) {
+						// Kept for closing to throw, as the threads which queued classes for this one to write must not be left waiting
+						if (failure == null) {
+							failure = e;
+						}
+					}
+				} while (waiting.decrementAndGet() > 0);
+
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Wait for everything which has been queued to be written.
+		 */
+		private synchronized void awaitWritten() throws InterruptedException {
+			while (waiting.get() > 0) {
+				wait();
+			}
+		}
+
+		private void write(Saved saved) {
+			try {
+				output.write(saved.entry);
+			} catch (IOException e) {
+				DecompilerContext.getLogger().writeMessage("Cannot write entry " + saved.entry.getEntry().getName(), e);
+			}
+
+			if (saved.lineMap != null) {
+				try {
+					lineMap.write(saved.lineMap);
+				} catch (IOException e) {
+					DecompilerContext.getLogger().writeMessage("Cannot write line mapping for " + saved.entry.getEntry().getName(), e);
+				}
+			}
+		}
+	}
+
+	private static final class Saved {
+		private final RawZipOutput.Compressed entry;
+		private final byte[] lineMap;
+
+		private Saved(RawZipOutput.Compressed entry, byte[] lineMap) {
+			this.entry = entry;
+			this.lineMap = lineMap;
+		}
+	}
 }
@@ -59,6 +59,7 @@ import net.fabricmc.loom.processors.JarProcessorManager;
 import net.fabricmc.loom.providers.MappingsProvider;
 import net.fabricmc.loom.providers.MinecraftMappedProvider;
 import net.fabricmc.loom.providers.MinecraftProvider;
+import net.fabricmc.loom.util.ArtifactStore;
 import net.fabricmc.loom.util.LoomDependencyManager;
 import net.fabricmc.loom.util.mappings.MojangMappingsDependency;
 
@@ -84,6 +85,13 @@ public class LoomExtension {
     public boolean remapMod = true;
     public boolean noSpam = true;
     public boolean shareCaches = true;
+    public boolean incrementalRemap = true;
+    public boolean keepMergedJar = true;
+    public boolean incrementalDecompile = true;
+    public int decompileWorkers = 1;
+    // Decompile threads for each worker, 0 shares the machine's processors between them
+    public int decompileWorkerThreads = 0;
+    public String decompileWorkerMemory = "3G";
 
     public String refmapName;
     public String loaderLaunchMethod;
@@ -332,6 +340,10 @@ public class LoomExtension {
         return remappedModCache;
     }
 
+    public ArtifactStore getArtifactStore() {
+        return new ArtifactStore(new File(getUserCache(), "artifacts"));
+    }
+
     public File getNestedModCache() {
         File nestedModCache = new File(getRootProjectPersistentCache(), "nested_mods");
 
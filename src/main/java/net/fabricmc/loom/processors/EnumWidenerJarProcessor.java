@@ -24,27 +24,26 @@
 
 package net.fabricmc.loom.processors;
 
-import java.io.File;
-import java.nio.ByteBuffer;
-import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.gradle.api.Project;
-import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
+import org.objectweb.asm.ClassVisitor;
 
 import net.fabricmc.loom.extension.LoomExtension;
-import net.fabricmc.loom.util.enumwidener.EnumWidenerTransformerEntry;
+import net.fabricmc.loom.util.ArtifactStore;
+import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.enumwidener.EnumWidenerClassVisitor;
 
 public class EnumWidenerJarProcessor implements JarProcessor {
-	private static final String HASH_FILE_NAME = "ew.hash";
-
-	private final Project project;
 	private final LoomExtension loom;
 
-	private List<String> classes;
+	// Internal names of the classes to widen, the config allows either dots or slashes
+	private Set<String> classes;
 
 	public EnumWidenerJarProcessor(Project project) {
-		this.project = project;
 		this.loom = project.getExtensions().getByType(LoomExtension.class);
 	}
 
@@ -55,29 +54,37 @@ public class EnumWidenerJarProcessor implements JarProcessor {
 
 	@Override
 	public void setup() {
-		this.classes = this.loom.enumWidener;
+		this.classes = new HashSet<>();
+
+		for (String klass : this.loom.enumWidener) {
+			this.classes.add(klass.replace('.', '/'));
+		}
 	}
 
 	@Override
-	public void process(File file) {
-		if (!this.classes.isEmpty()) {
-			ZipUtil.transformEntries(file, this.classes.stream()
-					.map(klass -> new ZipEntryTransformerEntry(klass.replace('.', '/') + ".class", new EnumWidenerTransformerEntry(this.project, klass)))
-					.toArray(ZipEntryTransformerEntry[]::new)
-			);
-
-			ZipUtil.addEntry(file, HASH_FILE_NAME, ByteBuffer.allocate(4).putInt(this.classes.hashCode()).array());
-		}
+	public boolean processesClass(String className) {
+		return this.classes.contains(className);
+	}
+
+	@Override
+	public ClassVisitor createClassVisitor(String className, ClassVisitor next) {
+		return new EnumWidenerClassVisitor(Constants.ASM_VERSION, next);
+	}
+
+	@Override
+	public void addToKey(ArtifactStore.Key key) {
+		// Which classes are widened is covered class by class
+		key.put("enum-widener-2");
 	}
 
 	@Override
-	public boolean isInvalid(File file) {
-		byte[] hash = ZipUtil.unpackEntry(file, HASH_FILE_NAME);
+	public Map<String, String> getClassKeys() {
+		Map<String, String> classKeys = new HashMap<>();
 
-		if (hash == null) {
-			return !this.classes.isEmpty();
+		for (String klass : this.classes) {
+			classKeys.put(klass, "widened");
 		}
 
-		return ByteBuffer.wrap(hash).getInt() != this.classes.hashCode();
+		return classKeys;
 	}
 }
@@ -24,20 +24,49 @@
 
 package net.fabricmc.loom.processors;
 
-import java.io.File;
+import java.util.Map;
 
+import org.objectweb.asm.ClassVisitor;
+
+import net.fabricmc.loom.util.ArtifactStore;
+
+/**
+ * Transforms classes in the mapped Minecraft jar. All processors are run together in a single pass over the jar by the
+ * {@link JarProcessorManager}, each one adding a {@link ClassVisitor} in front of the next for the classes it wants to change.
+ * Classes are processed in parallel, so everything other than {@link #setup()} may be called from several threads at once.
+ */
 public interface JarProcessor {
 	Environment getEnvironment();
 
 	void setup();
 
 	/**
-	 * Currently this is a destructive process that replaces the existing jar.
+	 * Return true if the given class needs to be passed through {@link #createClassVisitor(String, ClassVisitor)}.
+	 *
+	 * @param className The internal name of the class
+	 */
+	boolean processesClass(String className);
+
+	/**
+	 * Create a visitor which makes this processor's changes to the given class before passing it on to the next visitor.
+	 *
+	 * @param className The internal name of the class
+	 * @param next The visitor to pass the (changed) class on to
+	 */
+	ClassVisitor createClassVisitor(String className, ClassVisitor next);
+
+	/**
+	 * Add everything which changes what this processor does to the given key, processed jars are made again whenever the key changes.
+	 * This should include a version to be bumped whenever the processor starts producing different output for the same configuration.
 	 */
-	void process(File file);
+	void addToKey(ArtifactStore.Key key);
 
 	/**
-	 * Return true to make all jar processors run again, return false to use the existing results of jar processing.
+	 * Return a key for what this processor does to each class it processes, by internal name, or null if it can't say.
+	 * When only these keys change just the classes whose keys differ are processed again, so a processor which returns
+	 * them should leave anything they cover out of {@link #addToKey(ArtifactStore.Key)}.
 	 */
-	boolean isInvalid(File file);
+	default Map<String, String> getClassKeys() {
+		return null;
+	}
 }
@@ -25,10 +25,43 @@
 package net.fabricmc.loom.processors;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Throwables;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import net.fabricmc.loom.util.ArtifactStore;
+import net.fabricmc.loom.util.zip.RawZipEntry;
+import net.fabricmc.loom.util.zip.RawZipFile;
+import net.fabricmc.loom.util.zip.RawZipOutput;
 
 public class JarProcessorManager {
+	private static final Logger LOGGER = Logging.getLogger(JarProcessorManager.class);
+	private static final int VERSION = 1;
+
 	private final List<JarProcessor> jarProcessors;
 
 	public JarProcessorManager(List<JarProcessor> jarProcessors) {
@@ -59,22 +92,356 @@ public class JarProcessorManager {
 		return !this.filter(environment).isEmpty();
 	}
 
-	public boolean isInvalid(Environment environment, File file) {
-		if (!file.exists()) {
-			return true;
+	/**
+	 * Check whether the given outputs need processing again, by comparing the key to the one recorded in the manifest when they were last processed.
+	 */
+	public boolean isInvalid(File manifest, File input, File... outputs) {
+		for (File output : outputs) {
+			if (!output.exists()) {
+				return true;
+			}
+		}
+
+		Manifest previous = Manifest.read(manifest);
+		return previous == null || !previous.key.equals(createManifest(input).key);
+	}
+
+	/**
+	 * Get the key for everything which goes into processing the given jar, which is the same for any project with the same processors set up the same way.
+	 */
+	public String getKey(File input) {
+		return createManifest(input).key;
+	}
+
+	/**
+	 * Record that the outputs are up to date for the given jar without processing them, for when they have been got from elsewhere.
+	 */
+	public void writeManifest(File manifest, File input) throws IOException {
+		createManifest(input).write(manifest);
+	}
+
+	/**
+	 * Run the {@link Environment#BOTH} processors over the input jar, writing the result to the output jar.
+	 */
+	public void process(File manifest, File input, File output) throws IOException {
+		process(manifest, input, Collections.singletonMap(output, filter(Environment.BOTH)));
+	}
+
+	/**
+	 * Run the processors over the input jar, writing the compile and runtime jars in the same pass over it.
+	 */
+	public void process(File manifest, File input, File compileOutput, File runtimeOutput) throws IOException {
+		Map<File, List<JarProcessor>> outputs = new LinkedHashMap<>();
+		outputs.put(compileOutput, getChain(Environment.COMPILE));
+		outputs.put(runtimeOutput, getChain(Environment.RUNTIME));
+		process(manifest, input, outputs);
+	}
+
+	private List<JarProcessor> getChain(Environment environment) {
+		List<JarProcessor> processors = filter(Environment.BOTH);
+		processors.addAll(filter(environment));
+		return processors;
+	}
+
+	/**
+	 * Work out what the outputs would be processed with. The input jar is identified by where it is and when it was last written
+	 * rather than its contents, to avoid hashing the whole thing every build.
+	 */
+	private Manifest createManifest(File input) {
+		ArtifactStore.Key base = ArtifactStore.key("processed-jar-" + VERSION)
+				.put(input.getAbsolutePath())
+				.put(Long.toString(input.length()))
+				.put(Long.toString(input.lastModified()));
+		Map<String, String> classKeys = new TreeMap<>();
+
+		for (int i = 0; i < jarProcessors.size(); i++) {
+			JarProcessor processor = jarProcessors.get(i);
+			base.put(processor.getClass().getName()).put(processor.getEnvironment().name());
+			processor.addToKey(base);
+
+			Map<String, String> processorKeys = processor.getClassKeys();
+
+			if (processorKeys != null) {
+				String prefix = i + "/";
+				base.put("incremental");
+				processorKeys.forEach((className, key) -> classKeys.put(prefix + className, key));
+			}
+		}
+
+		return new Manifest(base.build(), classKeys);
+	}
+
+	private void process(File manifestFile, File input, Map<File, List<JarProcessor>> outputs) throws IOException {
+		Manifest manifest = createManifest(input);
+		Manifest previous = outputs.keySet().stream().allMatch(File::exists) ? Manifest.read(manifestFile) : null;
+
+		// Forget the old manifest first, so a build killed part way through doesn't leave jars which look processed
+		Files.deleteIfExists(manifestFile.toPath());
+
+		if (previous != null && previous.base.equals(manifest.base)) {
+			// Only the classes some processor now does something different to need processing again
+			Set<String> changedClasses = manifest.getChangedClasses(previous);
+			LOGGER.lifecycle(":reprocessing " + changedClasses.size() + " changed classes");
+
+			try {
+				processIncrementally(input, outputs, changedClasses);
+			} catch (IOException | RuntimeException e) {
+				LOGGER.warn("Failed to reprocess changed classes, processing the whole jar again", e);
+				process(input, outputs, Collections.emptyMap(), Collections.emptySet());
+			}
+		} else {
+			process(input, outputs, Collections.emptyMap(), Collections.emptySet());
 		}
 
-		return this.filter(environment).stream().anyMatch(jarProcessor -> jarProcessor.isInvalid(file));
+		manifest.write(manifestFile);
 	}
 
-	public void process(Environment environment, File file) {
-		for (JarProcessor jarProcessor : this.filter(environment)) {
-			jarProcessor.process(file);
+	private static void processIncrementally(File input, Map<File, List<JarProcessor>> outputs, Set<String> changedClasses) throws IOException {
+		Map<File, File> previousFiles = new HashMap<>();
+		Map<File, RawZipFile> previousJars = new HashMap<>();
+
+		try {
+			for (File output : outputs.keySet()) {
+				File previous = new File(output.getParentFile(), output.getName() + ".previous");
+				Files.move(output.toPath(), previous.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				previousFiles.put(output, previous);
+				previousJars.put(output, new RawZipFile(previous.toPath()));
+			}
+
+			process(input, outputs, previousJars, changedClasses);
+		} finally {
+			for (RawZipFile previous : previousJars.values()) {
+				previous.close();
+			}
+
+			for (File previous : previousFiles.values()) {
+				Files.deleteIfExists(previous.toPath());
+			}
 		}
 	}
 
-	public <T extends JarProcessor> T getByType(Class<T> tClass) {
-		//noinspection unchecked
-		return (T) jarProcessors.stream().filter(jarProcessor -> jarProcessor.getClass().equals(tClass)).findFirst().orElse(null);
+	/**
+	 * Process the input jar into the outputs. Classes which haven't changed are carried over from any previous jar given for an output,
+	 * everything else is taken from the input.
+	 */
+	private static void process(File input, Map<File, List<JarProcessor>> outputs, Map<File, RawZipFile> previousJars, Set<String> changedClasses) throws IOException {
+		List<ProcessedJar> jars = new ArrayList<>();
+		Map<JarProcessor, Set<String>> processedClasses = new ConcurrentHashMap<>();
+		// Outputs which run the same processors over a class share the result
+		Map<String, Map<List<JarProcessor>, CompletableFuture<RawZipOutput.Compressed>>> transformed = new HashMap<>();
+
+		try (RawZipFile zip = new RawZipFile(input.toPath())) {
+			try {
+				for (Map.Entry<File, List<JarProcessor>> output : outputs.entrySet()) {
+					jars.add(new ProcessedJar(output.getKey(), output.getValue(), previousJars.get(output.getKey()), changedClasses));
+				}
+
+				List<RawZipEntry> entries = zip.getEntries();
+
+				// Every class which needs processing is transformed up front across the common pool, then the jars are written in order
+				for (RawZipEntry entry : entries) {
+					String className = getClassName(entry);
+
+					if (className == null) {
+						continue;
+					}
+
+					for (ProcessedJar jar : jars) {
+						List<JarProcessor> chain = jar.isCarriedOver(entry, className) ? Collections.emptyList() : getChain(jar.processors, className);
+
+						if (!chain.isEmpty()) {
+							transformed.computeIfAbsent(entry.getName(), name -> new HashMap<>()).computeIfAbsent(chain, c -> CompletableFuture.supplyAsync(() -> {
+								try {
+									// Compressed here too, so only the writing is left for the thread writing the jars
+									return RawZipOutput.compress(entry.getName(), entry.getDosTime(), transform(className, zip.read(entry), c, processedClasses));
+								} catch (IOException e) {
+									throw new UncheckedIOException("Failed to read " + entry.getName(), e);
+								}
+							}));
+						}
+					}
+				}
+
+				for (RawZipEntry entry : entries) {
+					String className = getClassName(entry);
+					Map<List<JarProcessor>, CompletableFuture<RawZipOutput.Compressed>> results = transformed.getOrDefault(entry.getName(), Collections.emptyMap());
+
+					for (ProcessedJar jar : jars) {
+						if (jar.isCarriedOver(entry, className)) {
+							jar.output.copy(jar.previous, jar.previous.getEntry(entry.getName()));
+							continue;
+						}
+
+						CompletableFuture<RawZipOutput.Compressed> result = results.isEmpty() ? null : results.get(getChain(jar.processors, className));
+
+						if (result == null) {
+							jar.output.copy(zip, entry);
+						} else {
+							jar.output.write(join(result));
+						}
+					}
+				}
+			} finally {
+				// Don't carry on transforming classes which won't be written if something went wrong
+				transformed.values().forEach(results -> results.values().forEach(result -> result.cancel(false)));
+
+				for (ProcessedJar jar : jars) {
+					jar.output.close();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// Don't leave half written jars around to be mistaken for processed ones
+			for (File output : outputs.keySet()) {
+				Files.deleteIfExists(output.toPath());
+			}
+
+			throw e;
+		}
+
+		processedClasses.forEach((processor, classes) -> LOGGER.lifecycle(":applied " + processor.getClass().getSimpleName() + " to " + classes.size() + " classes"));
+	}
+
+	private static String getClassName(RawZipEntry entry) {
+		String name = entry.getName();
+		return !entry.isDirectory() && name.endsWith(".class") ? name.substring(0, name.length() - ".class".length()) : null;
+	}
+
+	private static List<JarProcessor> getChain(List<JarProcessor> processors, String className) {
+		List<JarProcessor> chain = new ArrayList<>();
+
+		for (JarProcessor processor : processors) {
+			if (processor.processesClass(className)) {
+				chain.add(processor);
+			}
+		}
+
+		return chain;
+	}
+
+	private static <T> T join(CompletableFuture<T> result) throws IOException {
+		try {
+			return result.join();
+		} catch (CompletionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+
+			throw e;
+		}
+	}
+
+	private static byte[] transform(String className, byte[] input, List<JarProcessor> chain, Map<JarProcessor, Set<String>> processedClasses) {
+		ClassWriter writer = new ClassWriter(0);
+		ClassVisitor visitor = writer;
+
+		// Built back to front so the first processor sees the class first
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			visitor = chain.get(i).createClassVisitor(className, visitor);
+			processedClasses.computeIfAbsent(chain.get(i), processor -> ConcurrentHashMap.newKeySet()).add(className);
+		}
+
+		new ClassReader(input).accept(visitor, 0);
+		return writer.toByteArray();
+	}
+
+	private static final class ProcessedJar {
+		private final List<JarProcessor> processors;
+		private final RawZipFile previous;
+		private final Set<String> changedClasses;
+		private final RawZipOutput output;
+
+		private ProcessedJar(File file, List<JarProcessor> processors, RawZipFile previous, Set<String> changedClasses) throws IOException {
+			this.processors = processors;
+			this.previous = previous;
+			this.changedClasses = changedClasses;
+
+			Files.createDirectories(file.getParentFile().toPath());
+			// The output might be linked to a shared copy, which must be replaced rather than written over
+			Files.deleteIfExists(file.toPath());
+			this.output = new RawZipOutput(file.toPath());
+		}
+
+		private boolean isCarriedOver(RawZipEntry entry, String className) {
+			return previous != null && className != null && !changedClasses.contains(className) && previous.getEntry(entry.getName()) != null;
+		}
+	}
+
+	private static final class Manifest {
+		private final String base;
+		private final Map<String, String> classKeys;
+		private final String key;
+
+		private Manifest(String base, Map<String, String> classKeys) {
+			this.base = base;
+			this.classKeys = classKeys;
+
+			ArtifactStore.Key key = ArtifactStore.key("processed-jar-manifest").put(base);
+			new TreeMap<>(classKeys).forEach((className, classKey) -> key.put(className).put(classKey));
+			this.key = key.build();
+		}
+
+		private static Manifest read(File file) {
+			if (!file.exists()) {
+				return null;
+			}
+
+			Properties properties = new Properties();
+
+			try (Reader reader = Files.newBufferedReader(file.toPath())) {
+				properties.load(reader);
+			} catch (IOException e) {
+				return null;
+			}
+
+			String base = properties.getProperty("base");
+			String key = properties.getProperty("key");
+
+			if (base == null || key == null) {
+				return null;
+			}
+
+			Map<String, String> classKeys = new TreeMap<>();
+
+			for (String name : properties.stringPropertyNames()) {
+				if (name.startsWith("class.")) {
+					classKeys.put(name.substring("class.".length()), properties.getProperty(name));
+				}
+			}
+
+			Manifest manifest = new Manifest(base, classKeys);
+			// A manifest which doesn't add up can't be trusted to say what changed
+			return manifest.key.equals(key) ? manifest : null;
+		}
+
+		private void write(File file) throws IOException {
+			Properties properties = new Properties();
+			properties.setProperty("key", key);
+			properties.setProperty("base", base);
+			classKeys.forEach((className, classKey) -> properties.setProperty("class." + className, classKey));
+
+			try (Writer writer = Files.newBufferedWriter(file.toPath())) {
+				properties.store(writer, "What the processed jars were last processed with");
+			}
+		}
+
+		/**
+		 * Find the names of the classes the processors do something different to compared to the given manifest.
+		 */
+		private Set<String> getChangedClasses(Manifest previous) {
+			Set<String> names = new HashSet<>(classKeys.keySet());
+			names.addAll(previous.classKeys.keySet());
+
+			Set<String> changed = new HashSet<>();
+
+			for (String name : names) {
+				if (!Objects.equals(classKeys.get(name), previous.classKeys.get(name))) {
+					changed.add(name.substring(name.indexOf('/') + 1));
+				}
+			}
+
+			return changed;
+		}
 	}
 }
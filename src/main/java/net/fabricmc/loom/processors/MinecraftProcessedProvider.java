@@ -27,6 +27,8 @@ package net.fabricmc.loom.processors;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.util.function.Consumer;
 
 import org.apache.commons.io.FileUtils;
@@ -35,6 +37,7 @@ import org.gradle.api.Project;
 import net.fabricmc.loom.providers.MappingsProvider;
 import net.fabricmc.loom.providers.MinecraftMappedProvider;
 import net.fabricmc.loom.providers.MinecraftProvider;
+import net.fabricmc.loom.util.ArtifactStore;
 import net.fabricmc.loom.util.Constants;
 
 public class MinecraftProcessedProvider extends MinecraftMappedProvider {
@@ -45,6 +48,11 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 	private File projectMappedCommonJar;
 	private File projectMappedCompileJar;
 	private File projectMappedRuntimeJar;
+	private File projectMappedManifest;
+
+	// Every change to how the jar is processed publishes a new copy, so old copies nothing uses any more are cleared out
+	private static final Duration PRUNE_INTERVAL = Duration.ofDays(1);
+	private static final Duration PRUNE_UNUSED = Duration.ofDays(14);
 
 	private boolean split;
 
@@ -57,12 +65,13 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 
 	@Override
 	protected void addDependencies(DependencyInfo dependency, Consumer<Runnable> postPopulationScheduler) {
+		File mappedJar = super.getMappedJar();
 		boolean invalid;
 
 		if (this.split) {
-			invalid = this.jarProcessorManager.isInvalid(Environment.COMPILE, this.projectMappedCompileJar) || this.jarProcessorManager.isInvalid(Environment.RUNTIME, this.projectMappedRuntimeJar);
+			invalid = this.jarProcessorManager.isInvalid(this.projectMappedManifest, mappedJar, this.projectMappedCompileJar, this.projectMappedRuntimeJar);
 		} else {
-			invalid = this.jarProcessorManager.isInvalid(Environment.BOTH, this.projectMappedCommonJar);
+			invalid = this.jarProcessorManager.isInvalid(this.projectMappedManifest, mappedJar, this.projectMappedCommonJar);
 		}
 
 		if (invalid || isRefreshDeps()) {
@@ -70,21 +79,33 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 			invalidateJars();
 
 			try {
-				File mappedJar = super.getMappedJar();
-				File firstProcessedJar = this.getMappedJar();
-
-				FileUtils.copyFile(mappedJar, firstProcessedJar);
-
-				this.jarProcessorManager.process(Environment.BOTH, firstProcessedJar);
-
-				if (this.split) {
-					FileUtils.copyFile(firstProcessedJar, this.projectMappedRuntimeJar);
+				if (isRefreshDeps()) {
+					// Without a manifest to compare against everything is processed again
+					Files.deleteIfExists(this.projectMappedManifest.toPath());
+				}
 
-					this.jarProcessorManager.process(Environment.COMPILE, this.projectMappedCompileJar);
-					this.jarProcessorManager.process(Environment.RUNTIME, this.projectMappedRuntimeJar);
+				// Projects with the same processors set up the same way share one copy of the processed jars
+				ArtifactStore store = getExtension().getArtifactStore();
+				String key = ArtifactStore.key("processed-minecraft").put(this.jarProcessorManager.getKey(mappedJar)).put(Boolean.toString(this.split)).build();
+
+				if (!isRefreshDeps() && retrieveProcessedJars(store, key)) {
+					getProject().getLogger().lifecycle(":using shared processed jar");
+					this.jarProcessorManager.writeManifest(this.projectMappedManifest, mappedJar);
+				} else {
+					if (this.split) {
+						this.jarProcessorManager.process(this.projectMappedManifest, mappedJar, this.projectMappedCompileJar, this.projectMappedRuntimeJar);
+					} else {
+						this.jarProcessorManager.process(this.projectMappedManifest, mappedJar, this.projectMappedCommonJar);
+					}
+
+					for (File jar : getProcessedJars()) {
+						store.publish(key, jar.getName(), jar.toPath());
+					}
+
+					pruneStore(store);
 				}
 			} catch (IOException e) {
-				String message = "Failed to copy or process source jar";
+				String message = "Failed to process source jar";
 
 				if (this.split) {
 					message += "s";
@@ -107,6 +128,39 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 		);
 	}
 
+	private void pruneStore(ArtifactStore store) {
+		try {
+			int pruned = store.pruneIfDue(PRUNE_INTERVAL, PRUNE_UNUSED);
+
+			if (pruned > 0) {
+				getProject().getLogger().info(":pruned " + pruned + " unused shared artifacts");
+			}
+		} catch (IOException e) {
+			// Only housekeeping, the processed jars are ready whether or not it worked
+			getProject().getLogger().info("Failed to prune unused shared artifacts", e);
+		}
+	}
+
+	private File[] getProcessedJars() {
+		return this.split ? new File[] {this.projectMappedCompileJar, this.projectMappedRuntimeJar} : new File[] {this.projectMappedCommonJar};
+	}
+
+	private boolean retrieveProcessedJars(ArtifactStore store, String key) throws IOException {
+		for (File jar : getProcessedJars()) {
+			if (!store.contains(key, jar.getName())) {
+				return false;
+			}
+		}
+
+		for (File jar : getProcessedJars()) {
+			if (!store.retrieve(key, jar.getName(), jar.toPath())) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	private void invalidateJars() {
 		File dir = getJarDirectory(getExtension().getUserCache(), PROJECT_MAPPED_CLASSIFIER);
 
@@ -128,6 +182,7 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 		this.projectMappedCommonJar = new File(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER), "minecraft-" + getJarVersionString(PROJECT_MAPPED_CLASSIFIER) + ".jar");
 		this.projectMappedCompileJar = new File(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER), "minecraft-" + getJarVersionString(PROJECT_MAPPED_COMPILE_CLASSIFIER) + ".jar");
 		this.projectMappedRuntimeJar = new File(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER), "minecraft-" + getJarVersionString(PROJECT_MAPPED_RUNTIME_CLASSIFIER) + ".jar");
+		this.projectMappedManifest = new File(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER), "minecraft-" + getJarVersionString(PROJECT_MAPPED_CLASSIFIER) + ".sha256");
 
 		this.split = this.jarProcessorManager.hasEnvironment(Environment.COMPILE) || this.jarProcessorManager.hasEnvironment(Environment.RUNTIME);
 	}
@@ -26,44 +26,121 @@ package net.fabricmc.loom.providers;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 
 import net.fabricmc.loom.util.StaticPathWatcher;
+import net.fabricmc.loom.util.mappings.BinaryTinyTree;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
 
 public final class MappingsCache {
 	public static final MappingsCache INSTANCE = new MappingsCache();
+	private static final Logger LOGGER = Logging.getLogger(MappingsCache.class);
+
+	// Each tree keeps its file mapped for as long as it is reachable, so only the most recently used few are held on to
+	private static final int MAX_TREES = 3;
 
-	private final Map<Path, SoftReference<TinyTree>> mappingsCache = new HashMap<>();
+	private final Map<Path, TinyTree> mappingsCache = new LinkedHashMap<Path, TinyTree>(16, 0.75F, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Path, TinyTree> eldest) {
+			if (size() > MAX_TREES) {
+				derived.remove(eldest.getValue());
+				return true;
+			}
+
+			return false;
+		}
+	};
+	// What has been worked out from each cached tree, dropped along with the tree
+	private final Map<TinyTree, Map<String, Object>> derived = new IdentityHashMap<>();
 
 	// TODO: loom doesn't actually use new mappings when the mappings change until the gradle daemons are stopped
-	public TinyTree get(Path mappingsPath) throws IOException {
+	public synchronized TinyTree get(Path mappingsPath) throws IOException {
 		mappingsPath = mappingsPath.toAbsolutePath();
 
 		if (StaticPathWatcher.INSTANCE.hasFileChanged(mappingsPath)) {
-			mappingsCache.remove(mappingsPath);
+			TinyTree removed = mappingsCache.remove(mappingsPath);
+
+			if (removed != null) {
+				derived.remove(removed);
+			}
 		}
 
-		SoftReference<TinyTree> ref = mappingsCache.get(mappingsPath);
+		TinyTree mappings = mappingsCache.get(mappingsPath);
 
-		if (ref != null && ref.get() != null) {
-			return ref.get();
-		} else {
-			try (BufferedReader reader = Files.newBufferedReader(mappingsPath)) {
-				TinyTree mappings = TinyMappingFactory.loadWithDetection(reader);
-				ref = new SoftReference<>(mappings);
-				mappingsCache.put(mappingsPath, ref);
+		if (mappings == null) {
+			mappings = load(mappingsPath);
+			mappingsCache.put(mappingsPath, mappings);
+			derived.put(mappings, new ConcurrentHashMap<>());
+		}
+
+		return mappings;
+	}
+
+	/**
+	 * Get something worked out from the given tree, only working it out the first time it is asked for while the tree is cached.
+	 * Anything worked out from a tree which didn't come from the cache, or has since been dropped from it, isn't kept.
+	 *
+	 * @param key What is being worked out, unique for each way of working something out from a tree
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getDerived(TinyTree mappings, String key, Function<TinyTree, T> factory) {
+		Map<String, Object> values;
+
+		synchronized (this) {
+			values = derived.get(mappings);
+		}
+
+		if (values == null) {
+			return factory.apply(mappings);
+		}
+
+		return (T) values.computeIfAbsent(key, k -> factory.apply(mappings));
+	}
+
+	/**
+	 * Load the binary copy of the given mappings, compiling it first if it is missing or out of date.
+	 */
+	private static TinyTree load(Path mappingsPath) throws IOException {
+		Path binaryPath = BinaryTinyTree.getPath(mappingsPath);
+		long size = Files.size(mappingsPath);
+		long modified = Files.getLastModifiedTime(mappingsPath).toMillis();
+
+		if (Files.exists(binaryPath)) {
+			BinaryTinyTree mappings = BinaryTinyTree.open(binaryPath, size, modified);
+
+			if (mappings != null) {
 				return mappings;
 			}
 		}
+
+		TinyTree mappings;
+
+		try (BufferedReader reader = Files.newBufferedReader(mappingsPath)) {
+			mappings = TinyMappingFactory.loadWithDetection(reader);
+		}
+
+		try {
+			BinaryTinyTree.write(mappings, size, modified, binaryPath);
+			return BinaryTinyTree.open(binaryPath, size, modified);
+		} catch (IOException e) {
+			// Most likely the old copy is still mapped by something else, the parsed tree is just as good for now
+			LOGGER.warn("Failed to write binary mappings to " + binaryPath, e);
+			return mappings;
+		}
 	}
 
-	public void invalidate() {
+	public synchronized void invalidate() {
 		mappingsCache.clear();
+		derived.clear();
 	}
 }
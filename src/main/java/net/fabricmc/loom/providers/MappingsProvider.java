@@ -32,11 +32,11 @@ import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.function.Consumer;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
 import com.google.common.net.UrlEscapers;
 import org.apache.commons.io.FileUtils;
 import org.apache.tools.ant.util.StringUtils;
@@ -49,11 +49,14 @@ import net.fabricmc.loom.extension.LoomExtension;
 import net.fabricmc.loom.processors.EnumWidenerJarProcessor;
 import net.fabricmc.loom.processors.JarProcessorManager;
 import net.fabricmc.loom.processors.MinecraftProcessedProvider;
+import net.fabricmc.loom.util.ArtifactStore;
+import net.fabricmc.loom.util.Checksum;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DeletingFileVisitor;
 import net.fabricmc.loom.util.DependencyProvider;
 import net.fabricmc.loom.util.DownloadUtil;
 import net.fabricmc.loom.util.accesswidener.AccessWidenerJarProcessor;
+import net.fabricmc.loom.util.mappings.BinaryTinyTree;
 import net.fabricmc.mapping.reader.v2.TinyV2Factory;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.stitch.Command;
@@ -77,6 +80,7 @@ public class MappingsProvider extends DependencyProvider {
 	// The mappings we use in practice
 	public File tinyMappings;
 	public File tinyMappingsJar;
+	private String mappingsHash;
 
 	public MappingsProvider(Project project) {
 		super(project);
@@ -92,6 +96,17 @@ public class MappingsProvider extends DependencyProvider {
 		return MappingsCache.INSTANCE.get(tinyMappings.toPath());
 	}
 
+	/**
+	 * Get the SHA-256 of the mappings in use, for keying anything produced from them.
+	 */
+	public String getMappingsHash() {
+		if (mappingsHash == null) {
+			mappingsHash = HashCode.fromBytes(Checksum.sha256(tinyMappings)).toString();
+		}
+
+		return mappingsHash;
+	}
+
 	@Override
 	public void provide(DependencyInfo dependency, Consumer<Runnable> postPopulationScheduler) throws Exception {
 		MinecraftProvider minecraftProvider = getDependencyManager().getProvider(MinecraftProvider.class);
@@ -134,6 +149,7 @@ public class MappingsProvider extends DependencyProvider {
 			jarClassifier = jarClassifier + depStringSplit[3];
 		}
 
+		mappingsHash = null;
 		tinyMappings = mappingsDir.resolve(StringUtils.removeSuffix(mappingsJar.getName(), ".jar") + ".tiny").toFile();
 		tinyMappingsJar = new File(getExtension().getUserCache(), mappingsJar.getName().replace(".jar", "-" + jarClassifier + ".jar"));
 
@@ -182,7 +198,7 @@ public class MappingsProvider extends DependencyProvider {
 
 		if (baseMappingsAreV2()) {
 			// These are unmerged v2 mappings
-			mergeAndSaveMappings(project, yarnJar);
+			mergeAndSaveMappings(project, baseTinyMappings);
 		} else {
 			// These are merged v1 mappings
 			if (tinyMappings.exists()) {
@@ -227,20 +243,31 @@ public class MappingsProvider extends DependencyProvider {
 		}
 	}
 
-	private void mergeAndSaveMappings(Project project, Path unmergedYarnJar) throws IOException {
-		Path unmergedYarn = Paths.get(mappingsStepsDir.toString(), "unmerged-yarn.tiny");
-		project.getLogger().info(":extracting " + unmergedYarnJar.getFileName());
+	private void mergeAndSaveMappings(Project project, Path unmergedYarn) throws IOException {
+		Path invertedIntermediary = getInvertedIntermediary();
+		Path unorderedMergedMappings = Files.createTempFile(mappingsStepsDir, "unordered-merged", ".tiny");
 
-		try (FileSystem unmergedYarnJarFs = FileSystems.newFileSystem(unmergedYarnJar, (ClassLoader) null)) {
-			extractMappings(unmergedYarnJarFs, unmergedYarn);
+		try {
+			project.getLogger().info(":merging");
+			mergeMappings(invertedIntermediary, unmergedYarn, unorderedMergedMappings);
+			reorderMappings(unorderedMergedMappings, tinyMappings.toPath(), "official", "intermediary", "named");
+		} finally {
+			Files.deleteIfExists(unorderedMergedMappings);
 		}
+	}
 
-		Path invertedIntermediary = Paths.get(mappingsStepsDir.toString(), "inverted-intermediary.tiny");
-		reorderMappings(getIntermediaryTiny(), invertedIntermediary, "intermediary", "official");
-		Path unorderedMergedMappings = Paths.get(mappingsStepsDir.toString(), "unordered-merged.tiny");
-		project.getLogger().info(":merging");
-		mergeMappings(invertedIntermediary, unmergedYarn, unorderedMergedMappings);
-		reorderMappings(unorderedMergedMappings, tinyMappings.toPath(), "official", "intermediary", "named");
+	/**
+	 * Get intermediary with its namespaces swapped round to be merged with yarn, which is the same for every yarn build
+	 * so is kept in the artifact store to only be worked out once for each intermediary.
+	 */
+	private Path getInvertedIntermediary() throws IOException {
+		Path intermediary = getIntermediaryTiny();
+		String key = ArtifactStore.key("inverted-intermediary").put(intermediary.toFile()).build();
+
+		return getExtension().getArtifactStore().getOrCreate(key, "inverted-intermediary.tiny", output -> {
+			getProject().getLogger().info(":inverting " + intermediary.getFileName());
+			reorderMappings(intermediary, output, "intermediary", "official");
+		});
 	}
 
 	private void reorderMappings(Path oldMappings, Path newMappings, String... newOrder) {
@@ -265,9 +292,9 @@ public class MappingsProvider extends DependencyProvider {
 		}
 	}
 
-	private void suggestFieldNames(MinecraftProvider minecraftProvider, Path oldMappings, Path newMappings) {
+	private void suggestFieldNames(MinecraftProvider minecraftProvider, Path oldMappings, Path newMappings) throws IOException {
 		Command command = new CommandProposeFieldNames();
-		runCommand(command, minecraftProvider.getMergedJar().getAbsolutePath(),
+		runCommand(command, minecraftProvider.provideMergedJar().getAbsolutePath(),
 						oldMappings.toAbsolutePath().toString(),
 						newMappings.toAbsolutePath().toString());
 	}
@@ -296,6 +323,7 @@ public class MappingsProvider extends DependencyProvider {
 
 			if (tinyMappings != null) {
 				tinyMappings.delete();
+				BinaryTinyTree.getPath(tinyMappings.toPath()).toFile().delete();
 			}
 
 			if (tinyMappingsJar != null) {
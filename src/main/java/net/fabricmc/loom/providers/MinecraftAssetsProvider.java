@@ -28,19 +28,17 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
-import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.gson.Gson;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
 
 import net.fabricmc.loom.extension.LoomExtension;
-import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.ChecksumIndex;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DownloadUtil;
 import net.fabricmc.loom.util.MinecraftVersionInfo;
@@ -64,8 +62,10 @@ public class MinecraftAssetsProvider {
 		}
 
 		File assetsInfo = new File(assets, "indexes" + File.separator + assetIndex.getFabricId(minecraftProvider.getMinecraftVersion()) + ".json");
+		// Remembers which files have already been hashed, so unchanged ones only need to be stat'd
+		ChecksumIndex checksums = ChecksumIndex.load(assets, new File(assets, "verified.tsv"));
 
-		if (!assetsInfo.exists() || !Checksum.equals(assetsInfo, assetIndex.sha1)) {
+		if (!checksums.verify(assetsInfo, assetIndex.sha1)) {
 			project.getLogger().lifecycle(":downloading asset index");
 
 			if (offline) {
@@ -77,15 +77,14 @@ public class MinecraftAssetsProvider {
 					throw new GradleException("Asset index not found at " + assetsInfo.getAbsolutePath());
 				}
 			} else {
-				DownloadUtil.downloadIfChanged(new URL(assetIndex.url), assetsInfo, project.getLogger());
+				DownloadUtil.delete(assetsInfo);
+				DownloadUtil.await(DownloadUtil.downloadIfChangedAsync(new URL(assetIndex.url), assetsInfo, project.getLogger(), false, assetIndex.sha1));
+				checksums.markVerified(assetsInfo, assetIndex.sha1);
 			}
 		}
 
 		project.getLogger().lifecycle(":downloading assets...");
 
-		Deque<ProgressLogger> loggers = new ConcurrentLinkedDeque<>();
-		ExecutorService executor = Executors.newFixedThreadPool(Math.min(10, Math.max(Runtime.getRuntime().availableProcessors() / 2, 1)));
-
 		AssetIndex index;
 
 		try (FileReader fileReader = new FileReader(assetsInfo)) {
@@ -93,67 +92,74 @@ public class MinecraftAssetsProvider {
 		}
 
 		Map<String, AssetObject> parent = index.getFileMap();
+		// Many assets share the same contents, which must only be downloaded once as they are stored by hash
+		Map<String, String> objects = new LinkedHashMap<>();
 
 		for (Map.Entry<String, AssetObject> entry : parent.entrySet()) {
-			AssetObject object = entry.getValue();
-			String sha1 = object.getHash();
+			objects.putIfAbsent(entry.getValue().getHash(), entry.getKey());
+		}
+
+		Map<String, CompletableFuture<Void>> downloads = new LinkedHashMap<>();
+
+		for (Map.Entry<String, String> entry : objects.entrySet()) {
+			String sha1 = entry.getKey();
+			String assetName = entry.getValue();
 			String filename = "objects" + File.separator + sha1.substring(0, 2) + File.separator + sha1;
 			File file = new File(assets, filename);
 
-			if (!file.exists() || !Checksum.equals(file, sha1)) {
+			if (!checksums.verify(file, sha1)) {
 				if (offline) {
 					if (file.exists()) {
-						project.getLogger().warn("Outdated asset " + entry.getKey());
+						project.getLogger().warn("Outdated asset " + assetName);
 					} else {
-						throw new GradleException("Asset " + entry.getKey() + " not found at " + file.getAbsolutePath());
+						throw new GradleException("Asset " + assetName + " not found at " + file.getAbsolutePath());
 					}
 				} else {
-					executor.execute(() -> {
-						ProgressLogger progressLogger;
-
-						if (loggers.isEmpty()) {
-							//Create a new logger if we need one
-							progressLogger = ProgressLogger.getProgressFactory(project, MinecraftAssetsProvider.class.getName());
-							progressLogger.start("Downloading assets...", "assets");
-						} else {
-							// use a free logger if we can
-							progressLogger = loggers.pop();
-						}
-
-						String assetName = entry.getKey();
-						int end = assetName.lastIndexOf("/") + 1;
-
-						if (end > 0) {
-							assetName = assetName.substring(end);
-						}
-
-						project.getLogger().debug(":downloading asset " + assetName);
-						progressLogger.progress(String.format("%-30.30s", assetName) + " - " + sha1);
-
-						try {
-							DownloadUtil.downloadIfChanged(new URL(Constants.RESOURCES_BASE + sha1.substring(0, 2) + "/" + sha1), file, project.getLogger(), true);
-						} catch (IOException e) {
-							throw new RuntimeException("Failed to download: " + assetName, e);
-						}
-
-						//Give this logger back
-						loggers.add(progressLogger);
-					});
+					project.getLogger().debug(":downloading asset " + assetName);
+					// Whatever is there is wrong, so it can't be trusted to answer a conditional request
+					DownloadUtil.delete(file);
+					downloads.put(sha1, DownloadUtil.downloadIfChangedAsync(new URL(Constants.RESOURCES_BASE + sha1.substring(0, 2) + "/" + sha1), file, project.getLogger(), true, sha1)
+							.thenRun(() -> checksums.markVerified(file, sha1)));
 				}
 			}
 		}
 
-		//Wait for the assets to all download
-		executor.shutdown();
+		if (downloads.isEmpty()) {
+			checksums.save();
+			return;
+		}
 
-		try {
-			if (executor.awaitTermination(2, TimeUnit.HOURS)) {
-				executor.shutdownNow();
+		ProgressLogger progressLogger = ProgressLogger.getProgressFactory(project, MinecraftAssetsProvider.class.getName());
+		progressLogger.start("Downloading assets...", "assets");
+		AtomicInteger downloaded = new AtomicInteger();
+
+		for (Map.Entry<String, CompletableFuture<Void>> entry : downloads.entrySet()) {
+			String assetName = objects.get(entry.getKey());
+			int end = assetName.lastIndexOf("/") + 1;
+
+			if (end > 0) {
+				assetName = assetName.substring(end);
 			}
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
+
+			String name = assetName;
+
+			entry.getValue().thenRun(() -> {
+				String progress = String.format("%-30.30s", name) + " - " + downloaded.incrementAndGet() + "/" + downloads.size();
+
+				synchronized (progressLogger) {
+					progressLogger.progress(progress);
+				}
+			});
 		}
 
-		loggers.forEach(ProgressLogger::completed);
+		//Wait for the assets to all download
+		try {
+			DownloadUtil.awaitAll(downloads.values());
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to download assets", e);
+		} finally {
+			progressLogger.completed();
+			checksums.save();
+		}
 	}
 }
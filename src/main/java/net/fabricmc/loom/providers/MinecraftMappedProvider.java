@@ -26,20 +26,32 @@ package net.fabricmc.loom.providers;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 import org.gradle.api.Project;
 
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.ClasspathCache;
+import net.fabricmc.loom.util.IncrementalJarRemapper;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DependencyProvider;
+import net.fabricmc.loom.util.zip.JarOutputConsumer;
+import net.fabricmc.mapping.tree.TinyTree;
 
 public class MinecraftMappedProvider extends DependencyProvider {
 	private static final Map<String, String> JSR_TO_JETBRAINS = new ImmutableMap.Builder<String, String>()
@@ -48,6 +60,8 @@ public class MinecraftMappedProvider extends DependencyProvider {
 			.put("javax/annotation/concurrent/Immutable", "org/jetbrains/annotations/Unmodifiable")
 			.build();
 
+	private static final long PARALLEL_REMAP_MEMORY = 1536L * 1024 * 1024;
+
 	private File minecraftMappedJar;
 	private File minecraftIntermediaryJar;
 
@@ -63,7 +77,7 @@ public class MinecraftMappedProvider extends DependencyProvider {
 			throw new RuntimeException("mappings file not found");
 		}
 
-		if (!getExtension().getMinecraftProvider().getMergedJar().exists()) {
+		if (getExtension().keepMergedJar && !getExtension().getMinecraftProvider().getMergedJar().exists()) {
 			throw new RuntimeException("input merged jar not found");
 		}
 
@@ -99,30 +113,151 @@ public class MinecraftMappedProvider extends DependencyProvider {
 	private void mapMinecraftJar() throws IOException {
 		String fromM = "official";
 
-		MappingsProvider mappingsProvider = getExtension().getMappingsProvider();
+		// Without a merged jar to remap from the jars are merged just for the remappers to read, then thrown away
+		boolean temporaryInput = !minecraftProvider.getMergedJar().exists();
+		Path input;
 
-		Path input = minecraftProvider.getMergedJar().toPath();
-		Path outputMapped = minecraftMappedJar.toPath();
-		Path outputIntermediary = minecraftIntermediaryJar.toPath();
+		if (temporaryInput) {
+			input = Files.createTempFile("minecraft-" + minecraftProvider.getMinecraftVersion() + "-merged", ".jar");
+			minecraftProvider.mergeJarsTemporarily(input);
+		} else {
+			input = minecraftProvider.getMergedJar().toPath();
+		}
 
-		for (String toM : Arrays.asList("named", "intermediary")) {
-			Path output = "named".equals(toM) ? outputMapped : outputIntermediary;
+		try {
+			Properties previous = getExtension().incrementalRemap && !isRefreshDeps() ? readRemapState(input) : null;
 
-			getProject().getLogger().lifecycle(":remapping minecraft (TinyRemapper, " + fromM + " -> " + toM + ")");
+			try {
+				CompletableFuture<Void> named = CompletableFuture.runAsync(() -> mapMinecraftJar(input, minecraftMappedJar.toPath(), previous, fromM, "named"));
+
+				if (!canRemapInParallel()) {
+					named.join();
+				}
+
+				// Both outputs are remapped from the same inputs, so there's no need to wait for one before starting the other
+				CompletableFuture<Void> intermediary = CompletableFuture.runAsync(() -> mapMinecraftJar(input, minecraftIntermediaryJar.toPath(), previous, fromM, "intermediary"));
+				CompletableFuture.allOf(named, intermediary).join();
+			} catch (CompletionException e) {
+				Throwables.throwIfUnchecked(e.getCause());
+				throw e;
+			}
 
+			writeRemapState(input);
+		} finally {
+			if (temporaryInput) {
+				Files.deleteIfExists(input);
+			}
+		}
+	}
+
+	private void mapMinecraftJar(Path input, Path output, Properties previous, String fromM, String toM) {
+		try {
 			TinyRemapper remapper = getTinyRemapper(fromM, toM);
 
-			try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
+			if (previous != null) {
+				if (remapIncrementally(remapper, previous, input, output, fromM, toM)) {
+					return;
+				}
+
+				// The incremental attempt might have got part way through using the remapper
+				remapper = getTinyRemapper(fromM, toM);
+			}
+
+			getProject().getLogger().lifecycle(":remapping minecraft (TinyRemapper, " + fromM + " -> " + toM + ")");
+
+			try (JarOutputConsumer outputConsumer = new JarOutputConsumer(output)) {
 				outputConsumer.addNonClassFiles(input);
 				remapper.readClassPath(getRemapClasspath());
 				remapper.readInputs(input);
 				remapper.apply(outputConsumer);
-			} catch (Exception e) {
-				throw new RuntimeException("Failed to remap JAR " + input + " with mappings from " + mappingsProvider.tinyMappings, e);
 			} finally {
 				remapper.finish();
 			}
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to remap JAR " + input + " with mappings from " + getExtension().getMappingsProvider().tinyMappings, e);
+		}
+	}
+
+	/**
+	 * Each remapper holds the whole of Minecraft and its libraries in memory, so only run two at once if there is room for both.
+	 */
+	private static boolean canRemapInParallel() {
+		return Runtime.getRuntime().availableProcessors() > 1 && Runtime.getRuntime().maxMemory() >= PARALLEL_REMAP_MEMORY;
+	}
+
+	/**
+	 * Try to produce the output by patching the jar mapped with the previous mappings for this Minecraft version,
+	 * which is much quicker than a full remap when only a small part of the mappings changed between them.
+	 *
+	 * @return Whether the output was produced, if not a full remap is needed
+	 */
+	private boolean remapIncrementally(TinyRemapper remapper, Properties previous, Path input, Path output, String fromM, String toM) {
+		String previousJar = previous.getProperty(toM);
+
+		if (previousJar == null || !Files.exists(Paths.get(previousJar)) || output.equals(Paths.get(previousJar))) {
+			return false;
+		}
+
+		getProject().getLogger().lifecycle(":remapping minecraft incrementally (TinyRemapper, " + fromM + " -> " + toM + ")");
+
+		try {
+			TinyTree previousMappings = MappingsCache.INSTANCE.get(Paths.get(previous.getProperty("mappings")));
+			IncrementalJarRemapper incrementalRemapper = new IncrementalJarRemapper(previousMappings, getExtension().getMappingsProvider().getMappings(), fromM, toM, true);
+
+			return incrementalRemapper.remap(remapper, input, getRemapClasspath(), Paths.get(previousJar), output, getProject().getLogger());
+		} catch (IOException | RuntimeException e) {
+			getProject().getLogger().warn("Failed to remap minecraft incrementally, falling back to a full remap", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Read what was last mapped for this Minecraft version, if it was mapped from the same merged jar and its mappings are still around.
+	 * As merging is deterministic a temporarily merged jar matches the one merged last time, so long as the jars were merged the same way.
+	 */
+	private Properties readRemapState(Path input) {
+		File stateFile = getRemapStateFile();
+
+		if (!stateFile.exists()) {
+			return null;
 		}
+
+		Properties state = new Properties();
+
+		try (Reader reader = Files.newBufferedReader(stateFile.toPath())) {
+			state.load(reader);
+		} catch (IOException e) {
+			getProject().getLogger().warn("Failed to read " + stateFile, e);
+			return null;
+		}
+
+		String mappings = state.getProperty("mappings");
+
+		if (mappings == null || !Files.exists(Paths.get(mappings)) || !getInputHash(input).equals(state.getProperty("input"))) {
+			return null;
+		}
+
+		return state;
+	}
+
+	private void writeRemapState(Path input) throws IOException {
+		Properties state = new Properties();
+		state.setProperty("input", getInputHash(input));
+		state.setProperty("mappings", getExtension().getMappingsProvider().tinyMappings.getAbsolutePath());
+		state.setProperty("named", minecraftMappedJar.getAbsolutePath());
+		state.setProperty("intermediary", minecraftIntermediaryJar.getAbsolutePath());
+
+		try (Writer writer = Files.newBufferedWriter(getRemapStateFile().toPath())) {
+			state.store(writer, "Last mappings Minecraft " + minecraftProvider.getMinecraftVersion() + " was remapped with");
+		}
+	}
+
+	private static String getInputHash(Path input) {
+		return HashCode.fromBytes(Checksum.sha256(input.toFile())).toString();
+	}
+
+	private File getRemapStateFile() {
+		return new File(getExtension().getUserCache(), "minecraft-" + minecraftProvider.getMinecraftVersion() + "-remap.properties");
 	}
 
 	public TinyRemapper getTinyRemapper(String fromM, String toM) throws IOException {
@@ -135,7 +270,7 @@ public class MinecraftMappedProvider extends DependencyProvider {
 	}
 
 	public Path[] getRemapClasspath() {
-		return getMapperPaths().stream().map(File::toPath).toArray(Path[]::new);
+		return ClasspathCache.getSkeletons(getExtension().getArtifactStore(), getMapperPaths().stream().map(File::toPath).toArray(Path[]::new));
 	}
 
 	protected void addDependencies(DependencyInfo dependency, Consumer<Runnable> postPopulationScheduler) {
@@ -27,6 +27,9 @@ package net.fabricmc.loom.providers;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.gradle.api.GradleException;
 import org.zeroturnaround.zip.ZipUtil;
@@ -53,21 +56,30 @@ public class MinecraftNativesProvider {
 			return;
 		}
 
+		List<File> nativeJars = new ArrayList<>();
+		List<CompletableFuture<Void>> downloads = new ArrayList<>();
+
 		for (MinecraftVersionInfo.Library library : versionInfo.libraries) {
 			File libJarFile = library.getFile(jarStore);
 
 			if (library.allowed() && library.isNative() && libJarFile != null) {
 				if (!offline) {
-					DownloadUtil.downloadIfChanged(new URL(library.getURL()), libJarFile, project.getLogger());
+					downloads.add(DownloadUtil.downloadIfChangedAsync(new URL(library.getURL()), libJarFile, project.getLogger(), false));
 				}
 
-				if (!libJarFile.exists()) {
-					throw new GradleException("Native jar not found at " + libJarFile.getAbsolutePath());
-				}
+				nativeJars.add(libJarFile);
+			}
+		}
+
+		DownloadUtil.awaitAll(downloads);
 
-				// TODO possibly find a way to prevent needing to re-extract after each run, doesnt seem too slow
-				ZipUtil.unpack(libJarFile, nativesDir);
+		for (File libJarFile : nativeJars) {
+			if (!libJarFile.exists()) {
+				throw new GradleException("Native jar not found at " + libJarFile.getAbsolutePath());
 			}
+
+			// TODO possibly find a way to prevent needing to re-extract after each run, doesnt seem too slow
+			ZipUtil.unpack(libJarFile, nativesDir);
 		}
 	}
 }
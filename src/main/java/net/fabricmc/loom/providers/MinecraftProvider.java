@@ -29,9 +29,12 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.zip.ZipError;
+import java.util.zip.ZipException;
 
 import com.google.common.io.Files;
 import com.google.gson.Gson;
@@ -44,9 +47,9 @@ import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DependencyProvider;
 import net.fabricmc.loom.util.DownloadUtil;
 import net.fabricmc.loom.util.ManifestVersion;
+import net.fabricmc.loom.util.MinecraftJarMerger;
 import net.fabricmc.loom.util.MinecraftVersionInfo;
 import net.fabricmc.loom.util.StaticPathWatcher;
-import net.fabricmc.stitch.merge.JarMerger;
 
 public class MinecraftProvider extends DependencyProvider {
 	private String minecraftVersion;
@@ -98,16 +101,13 @@ public class MinecraftProvider extends DependencyProvider {
 		libraryProvider = new MinecraftLibraryProvider();
 		libraryProvider.provide(this, getProject());
 
-		if (!minecraftMergedJar.exists() || isRefreshDeps()) {
-			try {
-				mergeJars(getProject().getLogger());
-			} catch (ZipError e) {
-				DownloadUtil.delete(minecraftClientJar);
-				DownloadUtil.delete(minecraftServerJar);
-
-				getProject().getLogger().error("Could not merge JARs! Deleting source JARs - please re-run the command and move on.", e);
-				throw new RuntimeException();
+		if (getExtension().keepMergedJar) {
+			if (!minecraftMergedJar.exists() || isRefreshDeps()) {
+				mergeJars(minecraftMergedJar.toPath(), true);
 			}
+		} else if (isRefreshDeps()) {
+			// Merged again only if something asks for it
+			DownloadUtil.delete(minecraftMergedJar);
 		}
 	}
 
@@ -180,19 +180,59 @@ public class MinecraftProvider extends DependencyProvider {
 			return;
 		}
 
-		DownloadUtil.downloadIfChanged(new URL(versionInfo.downloads.get("client").url), minecraftClientJar, logger);
-		DownloadUtil.downloadIfChanged(new URL(versionInfo.downloads.get("server").url), minecraftServerJar, logger);
+		MinecraftVersionInfo.Downloads client = versionInfo.downloads.get("client");
+		MinecraftVersionInfo.Downloads server = versionInfo.downloads.get("server");
+
+		DownloadUtil.awaitAll(Arrays.asList(
+				DownloadUtil.downloadIfChangedAsync(new URL(client.url), minecraftClientJar, logger, false, client.sha1),
+				DownloadUtil.downloadIfChangedAsync(new URL(server.url), minecraftServerJar, logger, false, server.sha1)
+		));
 	}
 
-	private void mergeJars(Logger logger) throws IOException {
-		logger.lifecycle(":merging jars");
+	private void mergeJars(Path output, boolean compress) throws IOException {
+		getProject().getLogger().lifecycle(":merging jars");
 
-		try (JarMerger jarMerger = new JarMerger(minecraftClientJar, minecraftServerJar, minecraftMergedJar)) {
+		try (MinecraftJarMerger jarMerger = new MinecraftJarMerger(minecraftClientJar.toPath(), minecraftServerJar.toPath())) {
 			jarMerger.enableSyntheticParamsOffset();
-			jarMerger.merge();
+
+			if (!compress) {
+				jarMerger.disableCompression();
+			}
+
+			jarMerger.merge(output);
+		} catch (ZipError | ZipException e) {
+			DownloadUtil.delete(minecraftClientJar);
+			DownloadUtil.delete(minecraftServerJar);
+
+			getProject().getLogger().error("Could not merge JARs! Deleting source JARs - please re-run the command and move on.", e);
+			throw new RuntimeException();
 		}
 	}
 
+	/**
+	 * Merge the jars into a temporary jar to be read through once and then deleted, which is quicker to write and read than the merged jar
+	 * as the classes are left uncompressed. Used in place of the merged jar when it isn't being kept.
+	 */
+	public void mergeJarsTemporarily(Path output) throws IOException {
+		mergeJars(output, false);
+	}
+
+	/**
+	 * Get the merged jar, merging it first if it isn't being kept and nothing has asked for it yet.
+	 */
+	public synchronized File provideMergedJar() throws IOException {
+		if (!minecraftMergedJar.exists()) {
+			mergeJars(minecraftMergedJar.toPath(), true);
+		}
+
+		return minecraftMergedJar;
+	}
+
+	/**
+	 * Get where the merged jar is kept, which might not exist if {@link net.fabricmc.loom.extension.LoomExtension#keepMergedJar} is off.
+	 *
+	 * @see #provideMergedJar()
+	 */
 	public File getMergedJar() {
 		return minecraftMergedJar;
 	}
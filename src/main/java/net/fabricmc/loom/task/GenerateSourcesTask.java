@@ -35,16 +35,20 @@ import java.util.stream.Collectors;
 import javax.inject.Inject;
 
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
 
 import net.fabricmc.loom.ProjectHandler;
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
+import net.fabricmc.loom.api.decompilers.DecompilationReport;
 import net.fabricmc.loom.api.decompilers.LoomDecompiler;
+import net.fabricmc.loom.decompilers.IncrementalDecompiler;
 import net.fabricmc.loom.util.LineNumberRemapper;
 import net.fabricmc.loom.util.progress.ProgressLogger;
 import net.fabricmc.stitch.util.StitchUtil;
 
 public class GenerateSourcesTask extends AbstractLoomTask {
 	public final LoomDecompiler decompiler;
+	private Path report;
 
 	@Inject
 	public GenerateSourcesTask(LoomDecompiler decompiler) {
@@ -54,6 +58,11 @@ public class GenerateSourcesTask extends AbstractLoomTask {
 		getOutputs().upToDateWhen((o) -> false);
 	}
 
+	@Option(option = "report", description = "Write how long each class took to decompile to a .csv or .json file")
+	public void setReport(String report) {
+		this.report = getProject().file(report).toPath();
+	}
+
 	@TaskAction
 	public void doTask() throws Throwable {
 		int threads = Runtime.getRuntime().availableProcessors();
@@ -61,11 +70,35 @@ public class GenerateSourcesTask extends AbstractLoomTask {
 		Collection<Path> libraries = getExtension().getMinecraftProvider().getLibraryProvider().getLibraries()
 						.stream().map(File::toPath).collect(Collectors.toSet());
 
-		DecompilationMetadata metadata = new DecompilationMetadata(threads, javaDocs, libraries);
+		DecompilationReport decompilationReport = report != null ? new DecompilationReport() : null;
+		DecompilationMetadata metadata = new DecompilationMetadata(threads, javaDocs, libraries, decompilationReport);
 		Path compiledJar = getExtension().getMappingsProvider().mappedProvider.getMappedJar().toPath();
 		Path sourcesDestination = ProjectHandler.getMappedByproduct(getProject(), "-sources.jar").toPath();
 		Path linemap = ProjectHandler.getMappedByproduct(getProject(), "-sources.lmap").toPath();
-		decompiler.decompile(compiledJar, sourcesDestination, linemap, metadata);
+
+		Throwable failure = null;
+
+		try {
+			getDecompiler().decompile(compiledJar, sourcesDestination, linemap, metadata);
+		} catch (Throwable t) {
+			failure = t;
+			throw t;
+		} finally {
+			// Still written if decompiling fails, to show how far it got
+			if (decompilationReport != null) {
+				try {
+					decompilationReport.write(report);
+					getProject().getLogger().lifecycle(":wrote decompile report to " + report);
+				} catch (IOException | RuntimeException e) {
+					// Failing to write the report mustn't hide why decompiling failed
+					if (failure == null) {
+						throw e;
+					}
+
+					failure.addSuppressed(e);
+				}
+			}
+		}
 
 		if (Files.exists(linemap)) {
 			Path linemappedJarDestination = ProjectHandler.getMappedByproduct(getProject(), "-linemapped.jar").toPath();
@@ -86,6 +119,14 @@ public class GenerateSourcesTask extends AbstractLoomTask {
 		}
 	}
 
+	private LoomDecompiler getDecompiler() {
+		if (getExtension().incrementalDecompile && decompiler.getCacheKey() != null) {
+			return new IncrementalDecompiler(decompiler, new File(getExtension().getUserCache(), "decompiled-classes").toPath(), getProject().getLogger());
+		}
+
+		return decompiler;
+	}
+
 	private void remapLineNumbers(Path oldCompiledJar, Path linemap, Path linemappedJarDestination) throws IOException {
 		getProject().getLogger().info(":adjusting line numbers");
 		LineNumberRemapper remapper = new LineNumberRemapper();
@@ -27,10 +27,14 @@ package net.fabricmc.loom.task;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import com.google.common.base.Preconditions;
 import org.gradle.api.Project;
@@ -40,18 +44,19 @@ import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.jvm.tasks.Jar;
-import org.zeroturnaround.zip.ZipUtil;
 
 import net.fabricmc.loom.extension.LoomExtension;
 import net.fabricmc.loom.providers.MappingsProvider;
+import net.fabricmc.loom.util.ClasspathCache;
 import net.fabricmc.loom.util.GradleSupport;
+import net.fabricmc.loom.util.JarTransformer;
 import net.fabricmc.loom.util.MixinRefmapHelper;
 import net.fabricmc.loom.util.NestedJars;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
 import net.fabricmc.loom.util.accesswidener.AccessWidenerJarProcessor;
 import net.fabricmc.loom.util.JarRemapper;
+import net.fabricmc.loom.util.zip.JarOutputConsumer;
 import net.fabricmc.stitch.util.Pair;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import net.fabricmc.tinyremapper.TinyUtils;
 
@@ -97,7 +102,7 @@ public class RemapJarTask extends Jar {
 		Set<File> classpathFiles = new LinkedHashSet<>(
 						project.getConfigurations().getByName("compileClasspath").getFiles()
 		);
-		Path[] classpath = classpathFiles.stream().map(File::toPath).filter((p) -> !input.equals(p) && Files.exists(p)).toArray(Path[]::new);
+		Path[] classpath = ClasspathCache.getSkeletons(extension.getArtifactStore(), classpathFiles.stream().map(File::toPath).filter((p) -> !input.equals(p) && Files.exists(p)).toArray(Path[]::new));
 
 		TinyRemapper.Builder remapperBuilder = TinyRemapper.newRemapper();
 
@@ -121,7 +126,7 @@ public class RemapJarTask extends Jar {
 
 		TinyRemapper remapper = remapperBuilder.build();
 
-		try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
+		try (JarOutputConsumer outputConsumer = new JarOutputConsumer(output)) {
 			outputConsumer.addNonClassFiles(input);
 			remapper.readClassPath(classpath);
 			remapper.readInputs(input);
@@ -131,8 +136,20 @@ public class RemapJarTask extends Jar {
 			throw new RuntimeException("Failed to remap " + input + " to " + output, e);
 		}
 
+		// Everything else done to the jar is collected so it only has to be rewritten once
+		JarTransformer transformer = new JarTransformer();
+		String accessWidenerPath = null;
+
 		if (getRemapAccessWidener().getOrElse(false) && extension.accessWidener != null) {
-			extension.getJarProcessorManager().getByType(AccessWidenerJarProcessor.class).remapAccessWidener(output, remapper.getRemapper());
+			AccessWidenerJarProcessor accessWidenerJarProcessor = extension.getJarProcessorManager().getByType(AccessWidenerJarProcessor.class);
+			accessWidenerPath = accessWidenerJarProcessor.getAccessWidenerPath(output);
+
+			if (accessWidenerPath == null) {
+				remapper.finish();
+				throw new RuntimeException("Failed to find accessWidener in fabric.mod.json");
+			}
+
+			transformer.replace(accessWidenerPath, accessWidenerJarProcessor.getRemappedAccessWidener(remapper.getRemapper()));
 		}
 
 		remapper.finish();
@@ -141,16 +158,20 @@ public class RemapJarTask extends Jar {
 			throw new RuntimeException("Failed to remap " + input + " to " + output + " - file missing!");
 		}
 
-		if (MixinRefmapHelper.addRefmapName(extension.getRefmapName(), extension.getMixinJsonVersion(), output)) {
-			project.getLogger().debug("Transformed mixin reference maps in output JAR!");
-		}
+		MixinRefmapHelper.addRefmapName(transformer, extension.getRefmapName(), extension.getMixinJsonVersion());
 
 		if (getAddNestedDependencies().getOrElse(false)) {
-			if (NestedJars.addNestedJars(project, output)) {
-				project.getLogger().debug("Added nested jar paths to mod json");
-			}
+			NestedJars.addNestedJars(transformer, NestedJars.getContainedJars(project));
+		}
+
+		Set<String> changed = transformer.apply(output);
+
+		if (accessWidenerPath != null && !changed.contains(accessWidenerPath)) {
+			project.getLogger().warn("Failed to replace access widener file at " + accessWidenerPath);
 		}
 
+		project.getLogger().debug("Transformed " + changed + " in output JAR");
+
 		/*try {
 			if (modJar.exists()) {
 				Files.move(modJar, modJarUnmappedCopy);
@@ -199,7 +220,13 @@ public class RemapJarTask extends Jar {
 			}
 		}
 
+		// Completion runs off the build thread, so anything needing the project model has to be worked out now
+		String refmapName = extension.getRefmapName();
+		String mixinJsonVersion = extension.getMixinJsonVersion();
+		List<File> nestedJars = getAddNestedDependencies().getOrElse(false) ? NestedJars.getContainedJars(project) : Collections.emptyList();
+
 		jarRemapper.scheduleRemap(input, output)
+				.dependsOn(nestedJars.stream().map(File::toPath).collect(Collectors.toList()))
 				.supplyAccessWidener((remapData, remapper) -> {
 					if (getRemapAccessWidener().getOrElse(false) && extension.accessWidener != null) {
 						AccessWidenerJarProcessor accessWidenerJarProcessor = extension.getJarProcessorManager().getByType(AccessWidenerJarProcessor.class);
@@ -224,20 +251,25 @@ public class RemapJarTask extends Jar {
 						throw new RuntimeException("Failed to remap " + input + " to " + output + " - file missing!");
 					}
 
-					if (MixinRefmapHelper.addRefmapName(extension.getRefmapName(), extension.getMixinJsonVersion(), output)) {
-						project.getLogger().debug("Transformed mixin reference maps in output JAR!");
-					}
+					// Everything done to the jar after remapping is collected so it only has to be rewritten once
+					JarTransformer transformer = new JarTransformer();
+					MixinRefmapHelper.addRefmapName(transformer, refmapName, mixinJsonVersion);
+					NestedJars.addNestedJars(transformer, nestedJars);
 
-					if (getAddNestedDependencies().getOrElse(false)) {
-						if (NestedJars.addNestedJars(project, output)) {
-							project.getLogger().debug("Added nested jar paths to mod json");
-						}
+					if (accessWidener != null) {
+						transformer.replace(accessWidener.getLeft(), accessWidener.getRight());
 					}
 
-					if (accessWidener != null) {
-						boolean replaced = ZipUtil.replaceEntry(data.output.toFile(), accessWidener.getLeft(), accessWidener.getRight());
-						Preconditions.checkArgument(replaced, "Failed to remap access widener");
+					Set<String> changed;
+
+					try {
+						changed = transformer.apply(data.output);
+					} catch (IOException e) {
+						throw new UncheckedIOException("Failed to transform " + data.output, e);
 					}
+
+					Preconditions.checkArgument(accessWidener == null || changed.contains(accessWidener.getLeft()), "Failed to remap access widener");
+					project.getLogger().debug("Transformed " + changed + " in output JAR");
 				});
 	}
 
@@ -0,0 +1,337 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * A machine wide store of build outputs addressed by a hash of everything that went into making them,
+ * so identical work done by different projects (or Gradle daemons) only has to be done once.
+ *
+ * <p>Entries are never modified once published, projects link to them rather than holding their own copy.
+ * Anything which wants to change a linked file must replace it rather than write into it.
+ *
+ * <p>Each entry's directory is touched whenever it is used, so entries nothing has used for a while can be {@link #prune pruned}.
+ */
+public class ArtifactStore {
+	private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>();
+	// Entries only need to be touched often enough to tell they are still in use, not on every access
+	private static final long TOUCH_INTERVAL = TimeUnit.HOURS.toMillis(1);
+	private static final String DELETING = ".deleting-";
+	private static final String LAST_PRUNED = ".last-pruned";
+
+	private final Path root;
+
+	public ArtifactStore(File root) {
+		this.root = root.toPath().toAbsolutePath();
+	}
+
+	/**
+	 * Start building a key for an artifact of the given kind.
+	 *
+	 * @param kind What sort of artifact the key is for, so different processes over the same inputs don't collide
+	 * @return A new key builder
+	 */
+	public static Key key(String kind) {
+		return new Key().put(kind);
+	}
+
+	/**
+	 * Get where the artifact with the given key and name is (or would be) kept.
+	 */
+	public Path getPath(String key, String name) {
+		return root.resolve(key.substring(0, 2)).resolve(key).resolve(name);
+	}
+
+	public boolean contains(String key, String name) {
+		Path stored = getPath(key, name);
+
+		if (!Files.exists(stored)) {
+			return false;
+		}
+
+		markUsed(stored);
+		return true;
+	}
+
+	/**
+	 * Link the stored artifact to the given target, replacing whatever is there already.
+	 *
+	 * @return <code>true</code> if the artifact was in the store, <code>false</code> if it wasn't and the target was left alone
+	 */
+	public boolean retrieve(String key, String name, Path target) throws IOException {
+		Path stored = getPath(key, name);
+
+		if (!Files.exists(stored)) {
+			return false;
+		}
+
+		markUsed(stored);
+		link(stored, target);
+		return true;
+	}
+
+	/**
+	 * Move the given file into the store under the given key, then link it back to where it was.
+	 * If another project has already stored the same artifact that copy is kept and linked instead.
+	 */
+	public void publish(String key, String name, Path source) throws IOException {
+		Path stored = getPath(key, name);
+
+		withLock(stored, () -> {
+			if (!Files.exists(stored)) {
+				Files.createDirectories(stored.getParent());
+				Path temp = stored.resolveSibling(name + ".tmp");
+				Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+				move(temp, stored);
+			}
+		});
+
+		markUsed(stored);
+		link(stored, source);
+	}
+
+	/**
+	 * Get the stored artifact with the given key, producing it first if nothing has stored it yet.
+	 * Unlike {@link #publish} nothing is linked back, the returned path is the stored artifact itself.
+	 *
+	 * @param producer Writes the artifact to the path it is given
+	 * @return The path to the stored artifact, which must not be modified
+	 */
+	public Path getOrCreate(String key, String name, Producer producer) throws IOException {
+		Path stored = getPath(key, name);
+
+		if (!Files.exists(stored)) {
+			withLock(stored, () -> {
+				if (!Files.exists(stored)) {
+					Path temp = stored.resolveSibling(name + ".tmp");
+					producer.produce(temp);
+					move(temp, stored);
+				}
+			});
+		}
+
+		markUsed(stored);
+		return stored;
+	}
+
+	/**
+	 * Delete every entry which nothing has used for at least the given time.
+	 * An entry which can't be moved out of the way, such as because another process has it open on Windows, is left for next time.
+	 *
+	 * @return How many entries were deleted
+	 */
+	public int prune(Duration unused) throws IOException {
+		if (!Files.isDirectory(root)) {
+			return 0;
+		}
+
+		long cutoff = System.currentTimeMillis() - unused.toMillis();
+		int pruned = 0;
+
+		for (Path prefix : list(root)) {
+			if (!Files.isDirectory(prefix)) {
+				continue;
+			}
+
+			for (Path entry : list(prefix)) {
+				try {
+					if (entry.getFileName().toString().contains(DELETING)) {
+						// Left over from a prune which didn't finish
+						Files.walkFileTree(entry, new DeletingFileVisitor());
+					} else if (Files.isDirectory(entry) && Files.getLastModifiedTime(entry).toMillis() < cutoff && delete(entry)) {
+						pruned++;
+					}
+				} catch (NoSuchFileException e) {
+					// Another process is pruning at the same time and got to the entry first
+				}
+			}
+		}
+
+		return pruned;
+	}
+
+	/**
+	 * {@link #prune Prune} the store, unless it has already been pruned within the given interval.
+	 *
+	 * @return How many entries were deleted
+	 */
+	public int pruneIfDue(Duration interval, Duration unused) throws IOException {
+		Path marker = root.resolve(LAST_PRUNED);
+		long now = System.currentTimeMillis();
+
+		if (Files.exists(marker) && now - Files.getLastModifiedTime(marker).toMillis() < interval.toMillis()) {
+			return 0;
+		}
+
+		Files.createDirectories(root);
+		Files.write(marker, new byte[0]);
+		Files.setLastModifiedTime(marker, FileTime.fromMillis(now));
+		return prune(unused);
+	}
+
+	private static List<Path> list(Path directory) throws IOException {
+		try (Stream<Path> children = Files.list(directory)) {
+			return children.collect(Collectors.toList());
+		}
+	}
+
+	private static boolean delete(Path entry) throws IOException {
+		// Moved out of the way first, so nothing finds a half deleted entry
+		Path deleting = entry.resolveSibling(entry.getFileName() + DELETING + UUID.randomUUID());
+
+		try {
+			Files.move(entry, deleting, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			return false;
+		}
+
+		Files.walkFileTree(deleting, new DeletingFileVisitor());
+		return true;
+	}
+
+	/**
+	 * Note that the given stored artifact is still in use, for callers holding onto a path from {@link #getOrCreate} between builds.
+	 * The entry is only touched once in a while, so this is cheap to call every time.
+	 */
+	public static void markUsed(Path stored) {
+		Path entry = stored.getParent();
+
+		try {
+			long now = System.currentTimeMillis();
+
+			if (now - Files.getLastModifiedTime(entry).toMillis() > TOUCH_INTERVAL) {
+				Files.setLastModifiedTime(entry, FileTime.fromMillis(now));
+			}
+		} catch (IOException e) {
+			// Not fatal, the entry might just be pruned sooner than it should be
+		}
+	}
+
+	private static void link(Path stored, Path target) throws IOException {
+		Files.createDirectories(target.getParent());
+		Path temp = target.resolveSibling(target.getFileName() + ".link");
+		Files.deleteIfExists(temp);
+
+		try {
+			Files.createLink(temp, stored);
+		} catch (IOException | UnsupportedOperationException e) {
+			// Probably a different drive to the store, fall back to a plain copy
+			Files.copy(stored, temp, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		move(temp, target);
+	}
+
+	private static void move(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Run the given action holding both a lock within this JVM and a file lock against other daemons working on the same entry.
+	 */
+	private static void withLock(Path stored, IOAction action) throws IOException {
+		Path lockFile = stored.resolveSibling(stored.getFileName() + ".lock");
+		Files.createDirectories(lockFile.getParent());
+
+		synchronized (LOCKS.computeIfAbsent(lockFile, path -> new Object())) {
+			try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE); FileLock ignored = channel.lock()) {
+				action.run();
+			}
+		}
+	}
+
+	private interface IOAction {
+		void run() throws IOException;
+	}
+
+	public interface Producer {
+		void produce(Path output) throws IOException;
+	}
+
+	public static final class Key {
+		private final Hasher hasher = Hashing.sha256().newHasher();
+
+		private Key() {
+		}
+
+		public Key put(String value) {
+			hasher.putString(value, StandardCharsets.UTF_8).putByte((byte) 0);
+			return this;
+		}
+
+		/**
+		 * Add the contents of the given file to the key, or the names and contents of everything in it if it is a directory.
+		 */
+		public Key put(File file) {
+			if (!file.isDirectory()) {
+				return put(HashCode.fromBytes(Checksum.sha256(file)).toString());
+			}
+
+			Path root = file.toPath();
+
+			try (Stream<Path> files = Files.walk(root)) {
+				for (Path child : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+					put(root.relativize(child).toString().replace(File.separatorChar, '/')).put(child.toFile());
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to hash " + file, e);
+			}
+
+			return this;
+		}
+
+		public String build() {
+			return hasher.hash().toString();
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * A persistent record of files under a directory whose SHA-1 has already been checked,
+ * keyed by their size and modification time so unchanged files can be trusted without rehashing them.
+ */
+public class ChecksumIndex {
+	private static final Logger log = Logging.getLogger(ChecksumIndex.class);
+
+	private final Path root;
+	private final Path indexFile;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private volatile boolean dirty;
+
+	private ChecksumIndex(Path root, Path indexFile) {
+		this.root = root.toAbsolutePath();
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Load the index stored in the given file, or start an empty one if it doesn't exist or can't be read.
+	 *
+	 * @param root The directory the indexed files are relative to
+	 * @param indexFile The file the index is stored in
+	 * @return The loaded index
+	 */
+	public static ChecksumIndex load(File root, File indexFile) {
+		ChecksumIndex index = new ChecksumIndex(root.toPath(), indexFile.toPath());
+
+		if (indexFile.exists()) {
+			try (BufferedReader reader = Files.newBufferedReader(index.indexFile, StandardCharsets.UTF_8)) {
+				String line;
+
+				while ((line = reader.readLine()) != null) {
+					String[] parts = line.split("\t");
+
+					if (parts.length == 4) {
+						index.entries.put(parts[0], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3]));
+					}
+				}
+			} catch (IOException | NumberFormatException e) {
+				log.warn("Failed to read checksum index '{}', files will be rehashed.", indexFile, e);
+				index.entries.clear();
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Check whether the given file has the given SHA-1, only reading the file if it has changed since it was last verified.
+	 *
+	 * @param file The file to check
+	 * @param sha1 The expected SHA-1 of the file
+	 * @return Whether the file exists and matches the given hash
+	 */
+	public boolean verify(File file, String sha1) {
+		if (!file.exists()) {
+			return false;
+		}
+
+		Entry entry = entries.get(getKey(file));
+
+		if (entry != null && entry.sha1.equals(sha1) && entry.size == file.length() && entry.lastModified == file.lastModified()) {
+			return true;
+		}
+
+		if (Checksum.equals(file, sha1)) {
+			markVerified(file, sha1);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Record that the given file is known to have the given SHA-1, such as after it has been downloaded and checked.
+	 *
+	 * @param file The file which has been verified
+	 * @param sha1 The SHA-1 of the file
+	 */
+	public void markVerified(File file, String sha1) {
+		entries.put(getKey(file), new Entry(file.length(), file.lastModified(), sha1));
+		dirty = true;
+	}
+
+	/**
+	 * Write the index back out if anything has been verified since it was loaded.
+	 */
+	public void save() {
+		if (!dirty) {
+			return;
+		}
+
+		Path temp = null;
+
+		try {
+			Files.createDirectories(indexFile.getParent());
+			// Another daemon might be saving the same index at the same time, so each save needs its own temporary file
+			temp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+
+			try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					Entry value = entry.getValue();
+					writer.write(entry.getKey() + "\t" + value.size + "\t" + value.lastModified + "\t" + value.sha1);
+					writer.newLine();
+				}
+			}
+
+			try {
+				Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			dirty = false;
+		} catch (IOException e) {
+			// Not fatal, the files will just be hashed again next time
+			log.warn("Failed to save checksum index '{}'.", indexFile, e);
+		} finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e) {
+					log.warn("Failed to delete temporary checksum index '{}'.", temp, e);
+				}
+			}
+		}
+	}
+
+	private String getKey(File file) {
+		return root.relativize(file.toPath().toAbsolutePath()).toString().replace(File.separatorChar, '/');
+	}
+
+	private static final class Entry {
+		private final long size;
+		private final long lastModified;
+		private final String sha1;
+
+		private Entry(long size, long lastModified, String sha1) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.sha1 = sha1;
+		}
+	}
+}
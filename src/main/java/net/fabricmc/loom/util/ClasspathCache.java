@@ -0,0 +1,157 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * Swaps classpath jars for copies cut down to what tiny-remapper actually reads from the classpath:
+ * class names, hierarchy, signatures and member declarations, without any method bodies or debug information.
+ *
+ * <p>Cut down copies are kept in the {@link ArtifactStore} by the hash of the original jar, and which jars have already been
+ * cut down is remembered for the life of the daemon so unchanged jars aren't even rehashed.
+ */
+public final class ClasspathCache {
+	private static final Logger LOGGER = Logging.getLogger(ClasspathCache.class);
+	private static final String KIND = "classpath-skeleton-1";
+	private static final int MAX_ENTRIES = 2048;
+
+	private static final Map<FileKey, Path> SKELETONS = Collections.synchronizedMap(new LinkedHashMap<FileKey, Path>(16, 0.75F, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<FileKey, Path> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	});
+
+	private ClasspathCache() {
+	}
+
+	public static Path[] getSkeletons(ArtifactStore store, Collection<Path> classpath) {
+		return getSkeletons(store, classpath.toArray(new Path[0]));
+	}
+
+	/**
+	 * Get the cut down copy of each of the given classpath entries, anything that isn't a jar (or can't be read) is left as is.
+	 */
+	public static Path[] getSkeletons(ArtifactStore store, Path... classpath) {
+		return Arrays.stream(classpath).parallel().map(path -> getSkeleton(store, path)).toArray(Path[]::new);
+	}
+
+	public static Path getSkeleton(ArtifactStore store, Path jar) {
+		if (!Files.isRegularFile(jar)) {
+			return jar;
+		}
+
+		try {
+			FileKey key = new FileKey(jar);
+			Path skeleton = SKELETONS.get(key);
+
+			if (skeleton == null || !Files.exists(skeleton)) {
+				String hash = ArtifactStore.key(KIND).put(jar.toFile()).build();
+				skeleton = store.getOrCreate(hash, "skeleton.jar", output -> writeSkeleton(jar, output));
+				SKELETONS.put(key, skeleton);
+			} else {
+				// Still being used even though the store wasn't asked for it, so don't let it be pruned
+				ArtifactStore.markUsed(skeleton);
+			}
+
+			return skeleton;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.debug("Failed to cut down " + jar + ", it will be used as is", e);
+			return jar;
+		}
+	}
+
+	private static void writeSkeleton(Path jar, Path output) throws IOException {
+		try (ZipFile input = new ZipFile(jar.toFile());
+				ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(output))) {
+			for (ZipEntry entry : Collections.list(input.entries())) {
+				if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+					continue;
+				}
+
+				byte[] bytes;
+
+				try (InputStream inputStream = input.getInputStream(entry)) {
+					bytes = IOUtils.toByteArray(inputStream);
+				}
+
+				ClassWriter writer = new ClassWriter(0);
+				new ClassReader(bytes).accept(writer, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+				out.putNextEntry(new ZipEntry(entry.getName()));
+				out.write(writer.toByteArray());
+				out.closeEntry();
+			}
+		}
+	}
+
+	private static final class FileKey {
+		private final Path path;
+		private final long size;
+		private final long lastModified;
+
+		private FileKey(Path path) throws IOException {
+			this.path = path.toAbsolutePath();
+			this.size = Files.size(path);
+			this.lastModified = Files.getLastModifiedTime(path).toMillis();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			} else if (!(o instanceof FileKey)) {
+				return false;
+			}
+
+			FileKey other = (FileKey) o;
+			return size == other.size && lastModified == other.lastModified && path.equals(other.path);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(path, size, lastModified);
+		}
+	}
+}
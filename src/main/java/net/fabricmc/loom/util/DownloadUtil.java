@@ -26,18 +26,70 @@ package net.fabricmc.loom.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-
-import com.google.common.io.Files;
-import org.apache.commons.io.FileUtils;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.function.Supplier;
+
+import com.google.common.hash.HashCode;
 import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
 
 public class DownloadUtil {
 	public static boolean refreshDeps = false;
 
+	/**
+	 * The most requests which will be in flight to a single host at once, anything more is queued until one finishes.
+	 */
+	private static final int MAX_REQUESTS_PER_HOST = 32;
+
+	private static final HttpClient CLIENT = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.connectTimeout(Duration.ofSeconds(30))
+			.build();
+	private static final Map<String, HostLimiter> HOST_LIMITERS = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the {@link HttpClient} which all downloads are made through, so other requests can share its connections.
+	 *
+	 * @return The shared client
+	 */
+	public static HttpClient getHttpClient() {
+		return CLIENT;
+	}
+
 	/**
 	 * Download from the given {@link URL} to the given {@link File} so long as there are differences between them.
 	 *
@@ -60,79 +112,226 @@ public class DownloadUtil {
 	 * @throws IOException If an exception occurs during the process
 	 */
 	public static void downloadIfChanged(URL from, File to, Logger logger, boolean quiet) throws IOException {
-		HttpURLConnection connection = (HttpURLConnection) from.openConnection();
+		await(downloadIfChangedAsync(from, to, logger, quiet));
+	}
 
+	/**
+	 * Start downloading from the given {@link URL} to the given {@link File} so long as there are differences between them.
+	 * The returned future completes once the file is in place, or exceptionally if the download fails.
+	 *
+	 * @param from The URL of the file to be downloaded
+	 * @param to The destination to be saved to, and compared against if it exists
+	 * @param logger The logger to print information to, typically from {@link Project#getLogger()}
+	 * @param quiet Whether to only print warnings (when <code>true</code>) or everything
+	 * @return A future for the download
+	 */
+	public static CompletableFuture<Void> downloadIfChangedAsync(URL from, File to, Logger logger, boolean quiet) {
+		return downloadIfChangedAsync(from, to, logger, quiet, null);
+	}
+
+	/**
+	 * Start downloading from the given {@link URL} to the given {@link File} so long as there are differences between them.
+	 * The returned future completes once the file is in place, or exceptionally if the download fails.
+	 *
+	 * <p>If a SHA-1 is given the download is hashed as it is written, and it is only moved into place if it matches.
+	 *
+	 * @param from The URL of the file to be downloaded
+	 * @param to The destination to be saved to, and compared against if it exists
+	 * @param logger The logger to print information to, typically from {@link Project#getLogger()}
+	 * @param quiet Whether to only print warnings (when <code>true</code>) or everything
+	 * @param sha1 The expected SHA-1 of the downloaded file, or <code>null</code> to not check it
+	 * @return A future for the download
+	 */
+	public static CompletableFuture<Void> downloadIfChangedAsync(URL from, File to, Logger logger, boolean quiet, String sha1) {
 		if (refreshDeps) {
 			getETagFile(to).delete();
 			to.delete();
 		}
 
+		HttpRequest.Builder request;
+
+		try {
+			request = HttpRequest.newBuilder(from.toURI()).GET();
+		} catch (URISyntaxException e) {
+			return CompletableFuture.failedFuture(new IOException("Invalid download URL " + from, e));
+		}
+
 		// If the output already exists we'll use it's last modified time
 		if (to.exists()) {
-			connection.setIfModifiedSince(to.lastModified());
+			request.header("If-Modified-Since", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(to.lastModified()), ZoneOffset.UTC)));
 		}
 
 		//Try use the ETag if there's one for the file we're downloading
 		String etag = loadETag(to, logger);
 
 		if (etag != null) {
-			connection.setRequestProperty("If-None-Match", etag);
+			request.header("If-None-Match", etag);
 		}
 
-		// We want to download gzip compressed stuff
-		connection.setRequestProperty("Accept-Encoding", "gzip");
+		File parent = to.getAbsoluteFile().getParentFile();
 
-		// Try make the connection, it will hang here if the connection is bad
-		connection.connect();
+		if (!parent.exists()) {
+			parent.mkdirs();
+		}
 
-		int code = connection.getResponseCode();
+		Path partial = getPartialFile(to).toPath();
 
-		if ((code < 200 || code > 299) && code != HttpURLConnection.HTTP_NOT_MODIFIED) {
-			//Didn't get what we expected
-			throw new IOException(connection.getResponseMessage() + " for " + from);
-		}
+		return HOST_LIMITERS.computeIfAbsent(from.getHost(), host -> new HostLimiter()).submit(() -> CLIENT.sendAsync(request.build(), info -> {
+			int code = info.statusCode();
+
+			// Only bother writing the body out if it's something we want to keep
+			if (code < 200 || code > 299 || isUpToDate(to, getModifyTime(info.headers()))) {
+				return HttpResponse.BodySubscribers.replacing(null);
+			}
+
+			return new HashingFileSubscriber(partial, sha1);
+		})).thenAccept(response -> {
+			int code = response.statusCode();
 
-		long modifyTime = connection.getHeaderFieldDate("Last-Modified", -1);
+			if ((code < 200 || code > 299) && code != HttpURLConnection.HTTP_NOT_MODIFIED) {
+				//Didn't get what we expected
+				throw new UncheckedIOException(new IOException("HTTP " + code + " for " + from));
+			}
+
+			if (response.body() == null) {
+				if (!quiet) {
+					logger.info("'{}' Not Modified, skipping.", to);
+				}
+
+				return; //What we've got is already fine
+			}
 
-		if (to.exists() && (code == HttpURLConnection.HTTP_NOT_MODIFIED || modifyTime > 0 && to.lastModified() >= modifyTime)) {
 			if (!quiet) {
-				logger.info("'{}' Not Modified, skipping.", to);
+				logger.info("'{}' Changed, downloaded {}", to, toNiceSize(partial.toFile().length()));
 			}
 
-			return; //What we've got is already fine
-		}
+			try {
+				moveIntoPlace(partial, to.toPath());
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to move download into " + to, e);
+			}
 
-		long contentLength = connection.getContentLengthLong();
+			//Set the modify time to match the server's (if we know it)
+			long modifyTime = getModifyTime(response.headers());
 
-		if (!quiet && contentLength >= 0) {
-			logger.info("'{}' Changed, downloading {}", to, toNiceSize(contentLength));
-		}
+			if (modifyTime > 0) {
+				to.setLastModified(modifyTime);
+			}
 
-		try { // Try download to the output
-			FileUtils.copyInputStreamToFile(connection.getInputStream(), to);
-		} catch (IOException e) {
-			to.delete(); // Probably isn't good if it fails to copy/save
-			throw e;
+			//Save the ETag (if we know it)
+			response.headers().firstValue("ETag").ifPresent(eTag -> {
+				//Log if we get a weak ETag and we're not on quiet
+				if (!quiet && eTag.startsWith("W/")) {
+					logger.warn("Weak ETag found.");
+				}
+
+				saveETag(to, eTag, logger);
+			});
+		}).whenComplete((ignored, throwable) -> {
+			if (throwable != null) {
+				partial.toFile().delete(); // Probably isn't good if it fails to copy/save
+			}
+		});
+	}
+
+	/**
+	 * Wait for the given download to finish.
+	 *
+	 * @param download The download to wait for, typically from {@link #downloadIfChangedAsync(URL, File, Logger, boolean)}
+	 * @throws IOException If the download failed
+	 */
+	public static void await(CompletableFuture<?> download) throws IOException {
+		try {
+			download.join();
+		} catch (CompletionException e) {
+			throw unwrap(e);
 		}
+	}
+
+	/**
+	 * Wait for all of the given downloads to finish.
+	 *
+	 * @param downloads The downloads to wait for
+	 * @throws IOException If any of the downloads failed
+	 */
+	public static void awaitAll(Collection<? extends CompletableFuture<?>> downloads) throws IOException {
+		await(CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])));
+	}
 
-		//Set the modify time to match the server's (if we know it)
-		if (modifyTime > 0) {
-			to.setLastModified(modifyTime);
+	/**
+	 * Dig the original cause out of a failed download, rethrowing it if it is unchecked.
+	 *
+	 * @param e The exception a download future completed with
+	 * @return The {@link IOException} which caused the download to fail
+	 */
+	private static IOException unwrap(CompletionException e) {
+		Throwable cause = e.getCause();
+
+		if (cause instanceof UncheckedIOException) {
+			return ((UncheckedIOException) cause).getCause();
+		} else if (cause instanceof IOException) {
+			return (IOException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
 		}
 
-		//Save the ETag (if we know it)
-		String eTag = connection.getHeaderField("ETag");
+		return new IOException(cause);
+	}
 
-		if (eTag != null) {
-			//Log if we get a weak ETag and we're not on quiet
-			if (!quiet && eTag.startsWith("W/")) {
-				logger.warn("Weak ETag found.");
+	/**
+	 * Parse the <code>Last-Modified</code> header from the given response headers.
+	 *
+	 * @param headers The headers of the response
+	 * @return The time the remote file was last modified, or <code>-1</code> if it is unknown
+	 */
+	private static long getModifyTime(HttpHeaders headers) {
+		return headers.firstValue("Last-Modified").map(time -> {
+			try {
+				return ZonedDateTime.parse(time, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			} catch (DateTimeParseException e) {
+				return -1L;
 			}
+		}).orElse(-1L);
+	}
 
-			saveETag(to, eTag, logger);
+	/**
+	 * Check whether the given file is at least as new as the remote copy.
+	 *
+	 * @param to The local file
+	 * @param modifyTime The time the remote file was last modified, or <code>-1</code> if it is unknown
+	 * @return Whether the local file is known to be up to date
+	 */
+	private static boolean isUpToDate(File to, long modifyTime) {
+		return to.exists() && modifyTime > 0 && to.lastModified() >= modifyTime;
+	}
+
+	/**
+	 * Move a finished download over the given destination, atomically if the file system allows it.
+	 *
+	 * @param from The finished download
+	 * @param to The destination to replace
+	 * @throws IOException If the file could not be moved
+	 */
+	private static void moveIntoPlace(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
 		}
 	}
 
+	/**
+	 * Creates a new file in the same directory as the given file with <code>.part</code> on the end of the name.
+	 *
+	 * @param file The file to produce the partial download for
+	 * @return The (uncreated) partial download file for the given file
+	 */
+	private static File getPartialFile(File file) {
+		return new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".part");
+	}
+
 	/**
 	 * Creates a new file in the same directory as the given file with <code>.etag</code> on the end of the name.
 	 *
@@ -158,7 +357,7 @@ public class DownloadUtil {
 		}
 
 		try {
-			return Files.asCharSource(eTagFile, StandardCharsets.UTF_8).read();
+			return Files.readString(eTagFile.toPath(), StandardCharsets.UTF_8);
 		} catch (IOException e) {
 			logger.warn("Error reading ETag file '{}'.", eTagFile);
 			return null;
@@ -176,11 +375,7 @@ public class DownloadUtil {
 		File eTagFile = getETagFile(to);
 
 		try {
-			if (!eTagFile.exists()) {
-				eTagFile.createNewFile();
-			}
-
-			Files.asCharSink(eTagFile, StandardCharsets.UTF_8).write(eTag);
+			Files.writeString(eTagFile.toPath(), eTag, StandardCharsets.UTF_8);
 		} catch (IOException e) {
 			logger.warn("Error saving ETag file '{}'.", eTagFile, e);
 		}
@@ -220,4 +415,175 @@ public class DownloadUtil {
 			etagFile.delete();
 		}
 	}
+
+	/**
+	 * Streams a response body into a file, hashing it on the way through so it never has to be read back to be checked.
+	 */
+	private static final class HashingFileSubscriber implements HttpResponse.BodySubscriber<Path> {
+		private final Path file;
+		private final String sha1;
+		private final MessageDigest digest;
+		private final CompletableFuture<Path> result = new CompletableFuture<>();
+		private Flow.Subscription subscription;
+		private FileChannel channel;
+
+		HashingFileSubscriber(Path file, String sha1) {
+			this.file = file;
+			this.sha1 = sha1;
+
+			try {
+				this.digest = sha1 != null ? MessageDigest.getInstance("SHA-1") : null;
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("SHA-1 is not available", e);
+			}
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+
+			try {
+				channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			} catch (IOException e) {
+				subscription.cancel();
+				result.completeExceptionally(e);
+				return;
+			}
+
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> buffers) {
+			try {
+				for (ByteBuffer buffer : buffers) {
+					if (digest != null) {
+						digest.update(buffer.duplicate());
+					}
+
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				}
+			} catch (IOException e) {
+				subscription.cancel();
+				close();
+				result.completeExceptionally(e);
+				return;
+			}
+
+			subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			close();
+			result.completeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				result.completeExceptionally(e);
+				return;
+			}
+
+			if (digest != null) {
+				String actual = HashCode.fromBytes(digest.digest()).toString();
+
+				if (!actual.equalsIgnoreCase(sha1)) {
+					result.completeExceptionally(new IOException("Checksum mismatch for " + file + ", expected " + sha1 + " but got " + actual));
+					return;
+				}
+			}
+
+			result.complete(file);
+		}
+
+		@Override
+		public CompletionStage<Path> getBody() {
+			return result;
+		}
+
+		private void close() {
+			if (channel == null) {
+				// Failed before the file could be opened
+				return;
+			}
+
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+				// Already failing
+			}
+		}
+	}
+
+	/**
+	 * Bounds how many requests are in flight to a single host, queueing the rest without tying up any threads.
+	 */
+	private static final class HostLimiter {
+		private final Deque<Runnable> queue = new ArrayDeque<>();
+		private int active;
+
+		<T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+			CompletableFuture<T> result = new CompletableFuture<>();
+			Runnable start = () -> {
+				CompletableFuture<T> future;
+
+				try {
+					future = task.get();
+				} catch (Throwable t) {
+					future = CompletableFuture.failedFuture(t);
+				}
+
+				future.whenComplete((value, throwable) -> {
+					release();
+
+					if (throwable != null) {
+						result.completeExceptionally(throwable);
+					} else {
+						result.complete(value);
+					}
+				});
+			};
+
+			boolean run;
+
+			synchronized (this) {
+				run = active < MAX_REQUESTS_PER_HOST;
+
+				if (run) {
+					active++;
+				} else {
+					queue.add(start);
+				}
+			}
+
+			if (run) {
+				start.run();
+			}
+
+			return result;
+		}
+
+		private void release() {
+			Runnable next;
+
+			synchronized (this) {
+				next = queue.poll();
+
+				if (next == null) {
+					active--;
+				}
+			}
+
+			// The slot is handed straight over to the next queued request
+			if (next != null) {
+				next.run();
+			}
+		}
+	}
 }
@@ -0,0 +1,551 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logger;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import net.fabricmc.loom.util.zip.RawZipEntry;
+import net.fabricmc.loom.util.zip.RawZipFile;
+import net.fabricmc.loom.util.zip.RawZipOutput;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.LocalVariableDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.ParameterDef;
+import net.fabricmc.mapping.tree.TinyTree;
+import net.fabricmc.tinyremapper.TinyRemapper;
+
+/**
+ * Patches a jar remapped with an older set of mappings into what remapping with a newer set would produce,
+ * by only remapping the classes whose output could be different between the two.
+ *
+ * <p>A class needs remapping again if its own name, members, parameters or locals changed, if it refers to a class whose name changed,
+ * or if it refers to a member whose name changed. Method renames are spread over the whole hierarchy the method is overridden in,
+ * the same way tiny-remapper propagates them.
+ */
+public class IncrementalJarRemapper {
+	/**
+	 * If more than this fraction of the classes need remapping again, a full remap is about as quick.
+	 */
+	private static final double MAX_AFFECTED_FRACTION = 0.5;
+
+	private final TinyTree previousMappings;
+	private final TinyTree mappings;
+	private final String from;
+	private final String to;
+	private final boolean remapLocalVariables;
+
+	private final Map<String, String> previousClassNames = new HashMap<>();
+	private final Set<String> renamedClasses = new HashSet<>();
+	private final Set<String> changedClasses = new HashSet<>();
+	private final Map<String, Set<String>> changedFields = new HashMap<>();
+	private final Map<String, Set<String>> changedMethods = new HashMap<>();
+
+	public IncrementalJarRemapper(TinyTree previousMappings, TinyTree mappings, String from, String to, boolean remapLocalVariables) {
+		this.previousMappings = previousMappings;
+		this.mappings = mappings;
+		this.from = from;
+		this.to = to;
+		this.remapLocalVariables = remapLocalVariables;
+	}
+
+	/**
+	 * Produce the output of remapping the input jar with the new mappings, reusing everything possible from the previous output.
+	 *
+	 * @param remapper A remapper set up with the new mappings, which has not been used yet
+	 * @param input The jar which was remapped to produce the previous output
+	 * @param classpath The classpath the input was remapped against
+	 * @param previousOutput The jar produced by remapping the input with the previous mappings
+	 * @param output Where to write the patched jar
+	 * @param logger Where to report how much needed remapping again
+	 * @return <code>true</code> if the output was written, <code>false</code> if so much changed that a full remap should be done instead
+	 */
+	public boolean remap(TinyRemapper remapper, Path input, Path[] classpath, Path previousOutput, Path output, Logger logger) throws IOException {
+		diffMappings();
+
+		try (ZipFile inputJar = new ZipFile(input.toFile())) {
+			Map<String, ClassInfo> classes = readClasses(inputJar);
+			Set<String> affected = findAffectedClasses(classes);
+
+			logger.lifecycle(":" + affected.size() + " of " + classes.size() + " classes need remapping (" + from + " -> " + to + ")");
+
+			if (affected.size() > classes.size() * MAX_AFFECTED_FRACTION) {
+				return false;
+			}
+
+			Map<String, byte[]> remapped = new ConcurrentHashMap<>();
+
+			if (!affected.isEmpty()) {
+				Path tempDir = Files.createTempDirectory("fabric-loom-remap");
+
+				try {
+					Path affectedJar = tempDir.resolve("affected.jar");
+					Path contextJar = tempDir.resolve("context.jar");
+					splitClasses(inputJar, affected, affectedJar, contextJar);
+
+					// Everything else still needs to be visible so the hierarchy (and the mappings propagated over it) is complete
+					remapper.readClassPath(classpath);
+					remapper.readClassPath(contextJar);
+					remapper.readInputs(affectedJar);
+					remapper.apply(remapped::put);
+				} finally {
+					remapper.finish();
+					Files.walk(tempDir).sorted(Collections.reverseOrder()).forEach(path -> path.toFile().delete());
+				}
+			} else {
+				remapper.finish();
+			}
+
+			Set<String> staleEntries = new HashSet<>();
+
+			for (String name : affected) {
+				staleEntries.add(previousClassNames.getOrDefault(name, name) + ".class");
+			}
+
+			writePatched(previousOutput, output, staleEntries, remapped);
+		}
+
+		return true;
+	}
+
+	private void diffMappings() {
+		Map<String, ClassDef> previous = new HashMap<>();
+		Map<String, ClassDef> current = new HashMap<>();
+
+		for (ClassDef classDef : previousMappings.getClasses()) {
+			previous.put(classDef.getName(from), classDef);
+			previousClassNames.put(classDef.getName(from), classDef.getName(to));
+		}
+
+		for (ClassDef classDef : mappings.getClasses()) {
+			current.put(classDef.getName(from), classDef);
+		}
+
+		Set<String> names = new HashSet<>(previous.keySet());
+		names.addAll(current.keySet());
+
+		for (String name : names) {
+			ClassDef previousClass = previous.get(name);
+			ClassDef currentClass = current.get(name);
+
+			if (!Objects.equals(previousClass == null ? null : previousClass.getName(to), currentClass == null ? null : currentClass.getName(to))) {
+				renamedClasses.add(name);
+				changedClasses.add(name);
+			}
+
+			Map<String, String> previousFields = fieldNames(previousClass);
+			Map<String, String> currentFields = fieldNames(currentClass);
+			Map<String, String> previousMethods = methodNames(previousClass);
+			Map<String, String> currentMethods = methodNames(currentClass);
+
+			diffMembers(name, previousFields, currentFields, changedFields);
+			diffMembers(name, previousMethods, currentMethods, changedMethods);
+
+			if (remapLocalVariables && !localNames(previousClass).equals(localNames(currentClass))) {
+				changedClasses.add(name);
+			}
+		}
+	}
+
+	private void diffMembers(String owner, Map<String, String> previous, Map<String, String> current, Map<String, Set<String>> changed) {
+		Set<String> keys = new HashSet<>(previous.keySet());
+		keys.addAll(current.keySet());
+
+		for (String key : keys) {
+			if (!Objects.equals(previous.get(key), current.get(key))) {
+				changed.computeIfAbsent(owner, k -> new HashSet<>()).add(key);
+				changedClasses.add(owner);
+			}
+		}
+	}
+
+	private Map<String, String> fieldNames(ClassDef classDef) {
+		if (classDef == null) {
+			return Collections.emptyMap();
+		}
+
+		Map<String, String> names = new HashMap<>();
+
+		for (FieldDef field : classDef.getFields()) {
+			names.put(field.getName(from) + field.getDescriptor(from), field.getName(to));
+		}
+
+		return names;
+	}
+
+	private Map<String, String> methodNames(ClassDef classDef) {
+		if (classDef == null) {
+			return Collections.emptyMap();
+		}
+
+		Map<String, String> names = new HashMap<>();
+
+		for (MethodDef method : classDef.getMethods()) {
+			names.put(method.getName(from) + method.getDescriptor(from), method.getName(to));
+		}
+
+		return names;
+	}
+
+	private Set<String> localNames(ClassDef classDef) {
+		if (classDef == null) {
+			return Collections.emptySet();
+		}
+
+		Set<String> names = new HashSet<>();
+
+		for (MethodDef method : classDef.getMethods()) {
+			String prefix = method.getName(from) + method.getDescriptor(from);
+
+			for (ParameterDef parameter : method.getParameters()) {
+				names.add(prefix + " p" + parameter.getLocalVariableIndex() + " " + parameter.getName(to));
+			}
+
+			for (LocalVariableDef local : method.getLocalVariables()) {
+				names.add(prefix + " l" + local.getLocalVariableIndex() + ":" + local.getLocalVariableStartOffset() + ":" + local.getLocalVariableTableIndex() + " " + local.getName(to));
+			}
+		}
+
+		return names;
+	}
+
+	private static Map<String, ClassInfo> readClasses(ZipFile jar) throws IOException {
+		Map<String, ClassInfo> classes = new HashMap<>();
+
+		for (ZipEntry entry : Collections.list(jar.entries())) {
+			if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+				continue;
+			}
+
+			try (InputStream inputStream = jar.getInputStream(entry)) {
+				ClassInfo info = new ClassInfo();
+				new ClassReader(inputStream).accept(info.createVisitor(), ClassReader.SKIP_FRAMES);
+				classes.put(info.name, info);
+			}
+		}
+
+		for (ClassInfo info : classes.values()) {
+			for (String parent : info.parents) {
+				ClassInfo parentInfo = classes.get(parent);
+
+				if (parentInfo != null) {
+					parentInfo.children.add(info.name);
+				}
+			}
+		}
+
+		return classes;
+	}
+
+	private Set<String> findAffectedClasses(Map<String, ClassInfo> classes) {
+		// A changed virtual method renames every override of it, both up and down the hierarchy
+		Map<String, Set<String>> dirtyMethods = new HashMap<>();
+
+		changedMethods.forEach((owner, methods) -> {
+			for (String method : methods) {
+				dirtyMethods.computeIfAbsent(owner, k -> new HashSet<>()).add(method);
+				ClassInfo info = classes.get(owner);
+
+				if (info == null || !info.virtualMethods.contains(method)) {
+					continue;
+				}
+
+				Deque<String> queue = new ArrayDeque<>(Collections.singleton(owner));
+				Set<String> visited = new HashSet<>(queue);
+
+				while (!queue.isEmpty()) {
+					ClassInfo current = classes.get(queue.poll());
+
+					if (current.virtualMethods.contains(method)) {
+						dirtyMethods.computeIfAbsent(current.name, k -> new HashSet<>()).add(method);
+					}
+
+					for (String next : current.parents) {
+						if (classes.containsKey(next) && visited.add(next)) {
+							queue.add(next);
+						}
+					}
+
+					for (String next : current.children) {
+						if (visited.add(next)) {
+							queue.add(next);
+						}
+					}
+				}
+			}
+		});
+
+		Set<String> affected = new HashSet<>();
+
+		for (ClassInfo info : classes.values()) {
+			if (changedClasses.contains(info.name) || dirtyMethods.containsKey(info.name)
+					|| !Collections.disjoint(info.types, renamedClasses)
+					|| refersTo(info.fieldRefs, changedFields, classes) || refersTo(info.methodRefs, dirtyMethods, classes)) {
+				affected.add(info.name);
+			}
+		}
+
+		return affected;
+	}
+
+	/**
+	 * Check whether any of the given member references resolves to a changed member, looking up through the owner's parents.
+	 */
+	private static boolean refersTo(Set<MemberRef> refs, Map<String, Set<String>> changed, Map<String, ClassInfo> classes) {
+		if (changed.isEmpty()) {
+			return false;
+		}
+
+		for (MemberRef ref : refs) {
+			Deque<String> queue = new ArrayDeque<>(Collections.singleton(ref.owner));
+			Set<String> visited = new HashSet<>(queue);
+
+			while (!queue.isEmpty()) {
+				String owner = queue.poll();
+				Set<String> members = changed.get(owner);
+
+				if (members != null) {
+					if (ref.descriptor != null ? members.contains(ref.name + ref.descriptor) : members.stream().anyMatch(member -> member.startsWith(ref.name + "("))) {
+						return true;
+					}
+				}
+
+				ClassInfo info = classes.get(owner);
+
+				if (info != null) {
+					for (String parent : info.parents) {
+						if (visited.add(parent)) {
+							queue.add(parent);
+						}
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private static void splitClasses(ZipFile input, Set<String> affected, Path affectedJar, Path contextJar) throws IOException {
+		try (ZipOutputStream affectedOut = new ZipOutputStream(Files.newOutputStream(affectedJar));
+				ZipOutputStream contextOut = new ZipOutputStream(Files.newOutputStream(contextJar))) {
+			// These are only read back once, there's no point spending time compressing them
+			affectedOut.setLevel(0);
+			contextOut.setLevel(0);
+
+			for (ZipEntry entry : Collections.list(input.entries())) {
+				if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+					continue;
+				}
+
+				String name = entry.getName().substring(0, entry.getName().length() - ".class".length());
+				ZipOutputStream out = affected.contains(name) ? affectedOut : contextOut;
+				out.putNextEntry(new ZipEntry(entry.getName()));
+
+				try (InputStream inputStream = input.getInputStream(entry)) {
+					IOUtils.copy(inputStream, out);
+				}
+
+				out.closeEntry();
+			}
+		}
+	}
+
+	private static void writePatched(Path previousOutput, Path output, Set<String> staleEntries, Map<String, byte[]> remapped) throws IOException {
+		Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+
+		try (RawZipFile previous = new RawZipFile(previousOutput);
+				RawZipOutput out = new RawZipOutput(temp)) {
+			for (RawZipEntry entry : previous.getEntries()) {
+				if (staleEntries.contains(entry.getName()) || remapped.containsKey(stripClassSuffix(entry.getName()))) {
+					continue;
+				}
+
+				// Nothing about the entry has changed, so it can be copied without decompressing it
+				out.copy(previous, entry);
+			}
+
+			List<String> names = new ArrayList<>(remapped.keySet());
+			Collections.sort(names);
+			int dosTime = RawZipEntry.toDosTime(System.currentTimeMillis());
+
+			for (String name : names) {
+				out.write(name + ".class", dosTime, remapped.get(name));
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+
+		Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String stripClassSuffix(String name) {
+		return name.endsWith(".class") ? name.substring(0, name.length() - ".class".length()) : name;
+	}
+
+	private static final class MemberRef {
+		private final String owner;
+		private final String name;
+		private final String descriptor;
+
+		private MemberRef(String owner, String name, String descriptor) {
+			this.owner = owner;
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			} else if (!(o instanceof MemberRef)) {
+				return false;
+			}
+
+			MemberRef other = (MemberRef) o;
+			return owner.equals(other.owner) && name.equals(other.name) && Objects.equals(descriptor, other.descriptor);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(owner, name, descriptor);
+		}
+	}
+
+	/**
+	 * Everything a class refers to which could be renamed by the mappings.
+	 */
+	private static final class ClassInfo {
+		private String name;
+		private final List<String> parents = new ArrayList<>();
+		private final List<String> children = new ArrayList<>();
+		private final Set<String> virtualMethods = new HashSet<>();
+		private final Set<String> types = new HashSet<>();
+		private final Set<MemberRef> fieldRefs = new HashSet<>();
+		private final Set<MemberRef> methodRefs = new HashSet<>();
+
+		private ClassVisitor createVisitor() {
+			// Let ASM find every name the remapper would be asked about, then leave it as is
+			Remapper collector = new Remapper() {
+				@Override
+				public String map(String internalName) {
+					types.add(internalName);
+					return internalName;
+				}
+
+				@Override
+				public String mapFieldName(String owner, String name, String descriptor) {
+					fieldRefs.add(new MemberRef(owner, name, descriptor));
+					return name;
+				}
+
+				@Override
+				public String mapMethodName(String owner, String name, String descriptor) {
+					if (!owner.startsWith("[")) {
+						methodRefs.add(new MemberRef(owner, name, descriptor));
+					}
+
+					return name;
+				}
+
+				@Override
+				public String mapInvokeDynamicMethodName(String name, String descriptor) {
+					// Lambdas implement a method of the interface they return, which would be renamed along with it
+					Type returnType = Type.getReturnType(descriptor);
+
+					if (returnType.getSort() == Type.OBJECT) {
+						methodRefs.add(new MemberRef(returnType.getInternalName(), name, null));
+					}
+
+					return name;
+				}
+			};
+
+			return new ClassRemapper(new ClassVisitor(Constants.ASM_VERSION) {
+				@Override
+				public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+					ClassInfo.this.name = name;
+
+					if (superName != null) {
+						parents.add(superName);
+					}
+
+					if (interfaces != null) {
+						Collections.addAll(parents, interfaces);
+					}
+				}
+
+				@Override
+				public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+					return new AnnotationVisitor(Constants.ASM_VERSION) { };
+				}
+
+				@Override
+				public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+					return new FieldVisitor(Constants.ASM_VERSION) { };
+				}
+
+				@Override
+				public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+					if ((access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC)) == 0 && !name.startsWith("<")) {
+						virtualMethods.add(name + descriptor);
+					}
+
+					return new MethodVisitor(Constants.ASM_VERSION) { };
+				}
+			}, collector);
+		}
+	}
+}
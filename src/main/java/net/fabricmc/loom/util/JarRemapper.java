@@ -25,28 +25,40 @@
 package net.fabricmc.loom.util;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 
+import com.google.common.base.Throwables;
 import org.objectweb.asm.commons.Remapper;
 
+import net.fabricmc.loom.util.zip.JarOutputConsumer;
 import net.fabricmc.stitch.util.Pair;
 import net.fabricmc.tinyremapper.IMappingProvider;
 import net.fabricmc.tinyremapper.InputTag;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 
 public class JarRemapper {
+	private final ArtifactStore store;
 	private final List<IMappingProvider> mappingProviders = new ArrayList<>();
 	private final Set<Path> classPath = new HashSet<>();
 	private final List<RemapData> remapData = new ArrayList<>();
 
+	public JarRemapper(ArtifactStore store) {
+		this.store = store;
+	}
+
 	public void addMappings(IMappingProvider mappingProvider) {
 		mappingProviders.add(mappingProvider);
 	}
@@ -61,17 +73,21 @@ public class JarRemapper {
 		return data;
 	}
 
+	/**
+	 * Remap every scheduled jar. Each jar is written out and completed as soon as it has been remapped
+	 * (and anything it depends on has been completed), rather than waiting for every other jar to be remapped first.
+	 */
 	public void remap() throws IOException {
 		TinyRemapper.Builder remapperBuilder = TinyRemapper.newRemapper();
 		mappingProviders.forEach(remapperBuilder::withMappings);
 
 		TinyRemapper remapper = remapperBuilder.build();
 
-		Path[] remapClasspath = classPath.stream()
+		Path[] remapClasspath = ClasspathCache.getSkeletons(store, classPath.stream()
 				.filter(path ->
 						remapData.stream().noneMatch(remapData -> remapData.input.equals(path))
 				)
-				.toArray(Path[]::new);
+				.toArray(Path[]::new));
 
 		remapper.readClassPathAsync(remapClasspath);
 
@@ -81,25 +97,95 @@ public class JarRemapper {
 			remapper.readInputsAsync(tag, data.input);
 		}
 
-		List<OutputConsumerPath> outputConsumers = new ArrayList<>();
+		Map<Path, RemapData> byOutput = new HashMap<>();
 
 		for (RemapData data : remapData) {
-			OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(data.output).build();
-			outputConsumers.add(outputConsumer);
+			byOutput.put(data.output.toAbsolutePath(), data);
+		}
+
+		try {
+			for (RemapData data : remapData) {
+				JarOutputConsumer outputConsumer = new JarOutputConsumer(data.output);
+
+				try {
+					outputConsumer.addNonClassFiles(data.input);
+
+					data.processAccessWidener(remapper.getRemapper());
+					remapper.apply(outputConsumer, data.tag);
+				} catch (Throwable t) {
+					try {
+						outputConsumer.close();
+					} catch (Throwable e) {
+						t.addSuppressed(e);
+					}
+
+					throw t;
+				}
+
+				// Everything for this jar has been handed over, writing it out can carry on while the next one is remapped
+				data.written = CompletableFuture.runAsync(() -> {
+					try {
+						outputConsumer.close();
+					} catch (IOException e) {
+						throw new UncheckedIOException("Failed to write " + data.output, e);
+					}
+				});
+			}
+		} catch (Throwable t) {
+			// Don't leave the jars which have already been handed over still being written after failing
+			for (RemapData data : remapData) {
+				if (data.written != null) {
+					try {
+						data.written.join();
+					} catch (CompletionException e) {
+						t.addSuppressed(e.getCause());
+					}
+				}
+			}
+
+			throw t;
+		} finally {
+			remapper.finish();
+		}
 
-			outputConsumer.addNonClassFiles(data.input);
+		List<CompletableFuture<Void>> completions = new ArrayList<>();
+
+		for (RemapData data : remapData) {
+			completions.add(getCompletion(data, byOutput, new HashSet<>()));
+		}
 
-			data.processAccessWidener(remapper.getRemapper());
-			remapper.apply(outputConsumer, data.tag);
+		try {
+			CompletableFuture.allOf(completions.toArray(new CompletableFuture[0])).join();
+		} catch (CompletionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+			throw e;
 		}
+	}
+
+	/**
+	 * Get the future for the given jar being completed, which waits for it to be written and for any other scheduled jars it depends on to be completed.
+	 */
+	private CompletableFuture<Void> getCompletion(RemapData data, Map<Path, RemapData> byOutput, Set<RemapData> visiting) {
+		if (data.completed == null) {
+			if (!visiting.add(data)) {
+				throw new IllegalStateException("Circular dependency between remapped jars involving " + data.input);
+			}
+
+			List<CompletableFuture<Void>> waitingFor = new ArrayList<>();
+			waitingFor.add(data.written);
 
-		remapper.finish();
+			for (Path dependency : data.dependencies) {
+				RemapData other = byOutput.get(dependency.toAbsolutePath());
 
-		for (OutputConsumerPath outputConsumer : outputConsumers) {
-			outputConsumer.close();
+				if (other != null && other != data) {
+					waitingFor.add(getCompletion(other, byOutput, visiting));
+				}
+			}
+
+			data.completed = CompletableFuture.allOf(waitingFor.toArray(new CompletableFuture[0])).thenRunAsync(data::complete);
 		}
 
-		remapData.forEach(RemapData::complete);
+		return data.completed;
 	}
 
 	public static class RemapData {
@@ -108,8 +194,11 @@ public class JarRemapper {
 		BiFunction<RemapData, Remapper, Pair<String, byte[]>> accesWidenerSupplier;
 		BiConsumer<RemapData, Pair<String, byte[]>> onComplete;
 
+		private final List<Path> dependencies = new ArrayList<>();
 		private InputTag tag;
 		private Pair<String, byte[]> accessWidener;
+		private CompletableFuture<Void> written;
+		private CompletableFuture<Void> completed;
 
 		public RemapData(Path input, Path output) {
 			this.input = input;
@@ -121,6 +210,14 @@ public class JarRemapper {
 			return this;
 		}
 
+		/**
+		 * Don't complete this jar until the given files are ready, if they're produced by another scheduled remap.
+		 */
+		public RemapData dependsOn(Collection<Path> files) {
+			dependencies.addAll(files);
+			return this;
+		}
+
 		public RemapData supplyAccessWidener(BiFunction<RemapData, Remapper, Pair<String, byte[]>> beforeFinish) {
 			this.accesWidenerSupplier = beforeFinish;
 			return this;
@@ -0,0 +1,193 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Collects changes to make to a jar so they can all be made in one pass over it,
+ * rather than each one copying the whole jar to make its own change.
+ */
+public class JarTransformer {
+	private final List<Transform> transforms = new ArrayList<>();
+	private final Map<String, EntrySource> added = new LinkedHashMap<>();
+
+	/**
+	 * Transform the entry with the given name, if the jar has it.
+	 */
+	public JarTransformer transform(String name, EntryTransformer transformer) {
+		return transformMatching(name::equals, transformer);
+	}
+
+	/**
+	 * Transform every entry whose name matches the given predicate. Transforms are applied in the order they were added.
+	 */
+	public JarTransformer transformMatching(Predicate<String> filter, EntryTransformer transformer) {
+		transforms.add(new Transform(filter, transformer));
+		return this;
+	}
+
+	/**
+	 * Replace the contents of the entry with the given name, if the jar has it.
+	 */
+	public JarTransformer replace(String name, byte[] contents) {
+		return transform(name, (entry, input) -> contents);
+	}
+
+	/**
+	 * Add an entry to the jar, replacing any existing entry with the same name. Added entries are not transformed.
+	 */
+	public JarTransformer add(String name, EntrySource source) {
+		added.put(name, source);
+		return this;
+	}
+
+	public JarTransformer add(String name, Path file) {
+		return add(name, () -> Files.readAllBytes(file));
+	}
+
+	public boolean isEmpty() {
+		return transforms.isEmpty() && added.isEmpty();
+	}
+
+	/**
+	 * Make all the changes to the given jar, streaming it once into a temporary file which then replaces it.
+	 *
+	 * @return The names of the entries which were changed or added
+	 */
+	public Set<String> apply(Path jar) throws IOException {
+		if (isEmpty()) {
+			return Collections.emptySet();
+		}
+
+		Set<String> changed = new LinkedHashSet<>();
+		Path temp = jar.resolveSibling(jar.getFileName() + ".tmp");
+
+		try (ZipFile input = new ZipFile(jar.toFile());
+				ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(temp))) {
+			for (ZipEntry entry : Collections.list(input.entries())) {
+				String name = entry.getName();
+
+				if (added.containsKey(name)) {
+					continue;
+				}
+
+				byte[] contents = null;
+
+				for (Transform transform : transforms) {
+					if (!entry.isDirectory() && transform.filter.test(name)) {
+						if (contents == null) {
+							try (InputStream inputStream = input.getInputStream(entry)) {
+								contents = IOUtils.toByteArray(inputStream);
+							}
+						}
+
+						byte[] transformed = transform.transformer.transform(name, contents);
+
+						if (transformed != null && transformed != contents) {
+							contents = transformed;
+							changed.add(name);
+						}
+					}
+				}
+
+				if (changed.contains(name)) {
+					ZipEntry newEntry = new ZipEntry(name);
+					newEntry.setTime(entry.getTime());
+					output.putNextEntry(newEntry);
+					output.write(contents);
+				} else {
+					// Everything about the entry stays the same, except how well it compresses this time round
+					ZipEntry copy = new ZipEntry(entry);
+					copy.setCompressedSize(-1);
+					output.putNextEntry(copy);
+
+					try (InputStream inputStream = input.getInputStream(entry)) {
+						IOUtils.copy(inputStream, output);
+					}
+				}
+
+				output.closeEntry();
+			}
+
+			for (Map.Entry<String, EntrySource> entry : added.entrySet()) {
+				output.putNextEntry(new ZipEntry(entry.getKey()));
+				output.write(entry.getValue().get());
+				output.closeEntry();
+				changed.add(entry.getKey());
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+
+		try {
+			Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		return changed;
+	}
+
+	public interface EntryTransformer {
+		/**
+		 * @return The new contents of the entry, or <code>null</code> (or the input itself) to leave it as it is
+		 */
+		byte[] transform(String name, byte[] input) throws IOException;
+	}
+
+	public interface EntrySource {
+		byte[] get() throws IOException;
+	}
+
+	private static final class Transform {
+		private final Predicate<String> filter;
+		private final EntryTransformer transformer;
+
+		private Transform(Predicate<String> filter, EntryTransformer transformer) {
+			this.filter = filter;
+			this.transformer = transformer;
+		}
+	}
+}
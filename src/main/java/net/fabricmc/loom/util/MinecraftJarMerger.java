@@ -0,0 +1,318 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.google.common.base.Throwables;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import net.fabricmc.loom.util.zip.RawZipEntry;
+import net.fabricmc.loom.util.zip.RawZipFile;
+import net.fabricmc.loom.util.zip.RawZipOutput;
+import net.fabricmc.stitch.merge.ClassMerger;
+import net.fabricmc.stitch.util.StitchUtil;
+import net.fabricmc.stitch.util.SyntheticParameterClassVisitor;
+
+/**
+ * Merges the client and server jars the same way as stitch's {@link net.fabricmc.stitch.merge.JarMerger}, but with the classes
+ * merged in parallel across the common pool.
+ *
+ * <p>The merged jar is written through a zip file system in name order with the times the entries had in the input jars, exactly as
+ * stitch writes it, so the result is byte for byte the same as stitch's. Temporary merges with {@link #disableCompression() compression
+ * disabled} are instead written directly with every entry stored, and the entries which need no changes copied over without being decompressed.
+ */
+public class MinecraftJarMerger implements Closeable {
+	private static final ClassMerger CLASS_MERGER = new ClassMerger();
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+	private static final byte[] MANIFEST_CONTENTS = "Manifest-Version: 1.0\nMain-Class: net.minecraft.client.Main\n".getBytes(StandardCharsets.UTF_8);
+
+	private final Path clientPath;
+	private final Path serverPath;
+	private final RawZipFile client;
+	private final RawZipFile server;
+	private boolean offsetSyntheticParams;
+	private boolean compress = true;
+
+	public MinecraftJarMerger(Path client, Path server) throws IOException {
+		this.clientPath = client;
+		this.serverPath = server;
+		this.client = new RawZipFile(client);
+
+		try {
+			this.server = new RawZipFile(server);
+		} catch (IOException | RuntimeException e) {
+			this.client.close();
+			throw e;
+		}
+	}
+
+	public void enableSyntheticParamsOffset() {
+		offsetSyntheticParams = true;
+	}
+
+	/**
+	 * Leave the merged classes uncompressed, for when the merged jar is only going to be read through once.
+	 */
+	public void disableCompression() {
+		compress = false;
+	}
+
+	public void merge(Path output) throws IOException {
+		SortedSet<String> names = new TreeSet<>();
+		addEntryNames(client, names);
+		addEntryNames(server, names);
+
+		List<MergedEntry> entries = new ArrayList<>(names.size());
+
+		try {
+			// Every class is merged up front across the common pool, then the jar is written in order
+			for (String name : names) {
+				RawZipEntry clientEntry = client.getEntry(name);
+				RawZipEntry serverEntry = server.getEntry(name);
+
+				RawZipFile zip = clientEntry != null ? client : server;
+				RawZipEntry entry = clientEntry != null ? clientEntry : serverEntry;
+
+				if (!name.endsWith(".class")) {
+					entries.add(new MergedEntry(zip, entry, null));
+					continue;
+				}
+
+				boolean isMinecraft = clientEntry != null || name.startsWith("net/minecraft") || !name.contains("/");
+
+				if (!isMinecraft) {
+					// The server bundles its libraries, which the client doesn't, so they are left out
+					continue;
+				}
+
+				entries.add(new MergedEntry(zip, entry, CompletableFuture.supplyAsync(() -> {
+					try {
+						return mergeClass(clientEntry, serverEntry);
+					} catch (IOException e) {
+						throw new UncheckedIOException("Failed to merge " + name, e);
+					}
+				})));
+			}
+
+			if (output.getParent() != null) {
+				Files.createDirectories(output.getParent());
+			}
+
+			Files.deleteIfExists(output);
+
+			if (compress) {
+				write(output, entries);
+			} else {
+				writeStored(output, entries);
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(output);
+			throw e;
+		} finally {
+			// Don't carry on merging classes which won't be written if something went wrong
+			for (MergedEntry entry : entries) {
+				if (entry.merged != null) {
+					entry.merged.cancel(false);
+				}
+			}
+		}
+	}
+
+	private static void addEntryNames(RawZipFile zip, Set<String> names) {
+		for (RawZipEntry entry : zip.getEntries()) {
+			String name = entry.getName();
+
+			if (entry.isDirectory()) {
+				continue;
+			}
+
+			if (name.startsWith("META-INF/") && (name.endsWith(".SF") || name.endsWith(".RSA"))) {
+				// The signatures won't match once the jars are merged
+				continue;
+			}
+
+			names.add(name);
+		}
+	}
+
+	private byte[] mergeClass(RawZipEntry clientEntry, RawZipEntry serverEntry) throws IOException {
+		byte[] data;
+		String side = null;
+
+		if (clientEntry != null && serverEntry != null) {
+			data = client.read(clientEntry);
+			byte[] serverData = server.read(serverEntry);
+
+			if (!Arrays.equals(data, serverData)) {
+				data = CLASS_MERGER.merge(data, serverData);
+			}
+		} else if (clientEntry != null) {
+			data = client.read(clientEntry);
+			side = "CLIENT";
+		} else {
+			data = server.read(serverEntry);
+			side = "SERVER";
+		}
+
+		ClassWriter writer = new ClassWriter(0);
+		ClassVisitor visitor = writer;
+
+		if (side != null) {
+			visitor = new ClassMerger.SidedClassVisitor(StitchUtil.ASM_VERSION, visitor, side);
+		}
+
+		if (offsetSyntheticParams) {
+			visitor = new SyntheticParameterClassVisitor(StitchUtil.ASM_VERSION, visitor);
+		}
+
+		if (visitor != writer) {
+			new ClassReader(data).accept(visitor, 0);
+			data = writer.toByteArray();
+		}
+
+		return data;
+	}
+
+	/**
+	 * Write the merged jar the same way as stitch, each entry written in turn through a zip file system with the times
+	 * the zip file system gives the entry in the input jar it came from.
+	 */
+	private void write(Path output, List<MergedEntry> entries) throws IOException {
+		try (StitchUtil.FileSystemDelegate clientFs = StitchUtil.getJarFileSystem(clientPath.toFile(), false);
+				StitchUtil.FileSystemDelegate serverFs = StitchUtil.getJarFileSystem(serverPath.toFile(), false);
+				StitchUtil.FileSystemDelegate outputFs = StitchUtil.getJarFileSystem(output.toFile(), true)) {
+			for (MergedEntry entry : entries) {
+				String name = entry.entry.getName();
+				byte[] data;
+
+				if (entry.merged != null) {
+					data = join(entry.merged);
+				} else if (MANIFEST.equals(name)) {
+					data = MANIFEST_CONTENTS;
+				} else {
+					data = entry.zip.read(entry.entry);
+				}
+
+				Path source = (entry.zip == client ? clientFs : serverFs).get().getPath(name);
+				BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+
+				Path target = outputFs.get().getPath(name);
+
+				if (target.getParent() != null) {
+					Files.createDirectories(target.getParent());
+				}
+
+				Files.write(target, data, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				BasicFileAttributeView attributeView = Files.getFileAttributeView(target, BasicFileAttributeView.class);
+				// Stitch passes the times in this order, which is kept so the entries come out the same
+				attributeView.setTimes(attributes.creationTime(), attributes.lastAccessTime(), attributes.lastModifiedTime());
+			}
+		}
+	}
+
+	private void writeStored(Path output, List<MergedEntry> entries) throws IOException {
+		try (RawZipOutput zip = new RawZipOutput(output)) {
+			Set<String> directories = new HashSet<>();
+
+			for (MergedEntry entry : entries) {
+				String name = entry.entry.getName();
+				int dosTime = entry.entry.getDosTime();
+
+				// Directories are written ahead of their first entry, as the jars being merged don't always have them
+				for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+					String directory = name.substring(0, i + 1);
+
+					if (directories.add(directory)) {
+						zip.write(directory, dosTime, new byte[0]);
+					}
+				}
+
+				if (entry.merged != null) {
+					zip.write(RawZipOutput.store(name, dosTime, join(entry.merged)));
+				} else if (MANIFEST.equals(name)) {
+					zip.write(RawZipOutput.store(name, dosTime, MANIFEST_CONTENTS));
+				} else {
+					zip.copy(entry.zip, entry.entry);
+				}
+			}
+		}
+	}
+
+	private static <T> T join(CompletableFuture<T> result) throws IOException {
+		try {
+			return result.join();
+		} catch (CompletionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			client.close();
+		} finally {
+			server.close();
+		}
+	}
+
+	private static final class MergedEntry {
+		private final RawZipFile zip;
+		private final RawZipEntry entry;
+		// The merged class, the entry is only where the time comes from when set
+		private final CompletableFuture<byte[]> merged;
+
+		private MergedEntry(RawZipFile zip, RawZipEntry entry, CompletableFuture<byte[]> merged) {
+			this.zip = zip;
+			this.entry = entry;
+			this.merged = merged;
+		}
+	}
+}
@@ -24,78 +24,61 @@
 
 package net.fabricmc.loom.util;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.file.Path;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.zip.ZipEntry;
+import java.nio.charset.StandardCharsets;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
-import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
 public final class MixinRefmapHelper {
 	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
 
 	private MixinRefmapHelper() { }
 
-	public static boolean addRefmapName(String filename, String mixinVersion, Path outputPath) {
-		File output = outputPath.toFile();
-		Set<String> mixinFilenames = findMixins(output, true);
+	/**
+	 * Add the refmap to every mixin config in the root of the jar which is missing it, as part of the given transformer's pass.
+	 */
+	public static JarTransformer addRefmapName(JarTransformer transformer, String filename, String mixinVersion) {
+		return transformer.transformMatching(MixinRefmapHelper::isRootJson, (name, input) -> {
+			JsonObject json = readMixinConfig(input);
 
-		if (mixinFilenames.size() > 0) {
-			return ZipUtil.transformEntries(output, mixinFilenames.stream().map((f) -> new ZipEntryTransformerEntry(f, new StringZipEntryTransformer("UTF-8") {
-				@Override
-				protected String transform(ZipEntry zipEntry, String input) throws IOException {
-					JsonObject json = GSON.fromJson(input, JsonObject.class);
+			if (json == null) {
+				return null;
+			}
 
-					if (!json.has("refmap")) {
-						json.addProperty("refmap", filename);
-					}
+			if (!json.has("refmap")) {
+				json.addProperty("refmap", filename);
+			}
 
-					if (!json.has("minVersion") && mixinVersion != null) {
-						json.addProperty("minVersion", mixinVersion);
-					}
+			if (!json.has("minVersion") && mixinVersion != null) {
+				json.addProperty("minVersion", mixinVersion);
+			}
 
-					return GSON.toJson(json);
-				}
-			})).toArray(ZipEntryTransformerEntry[]::new));
-		} else {
-			return false;
-		}
+			return GSON.toJson(json).getBytes(StandardCharsets.UTF_8);
+		});
 	}
 
-	private static Set<String> findMixins(File output, boolean onlyWithoutRefmap) {
-		// first, identify all of the mixin files
-		Set<String> mixinFilename = new HashSet<>();
-		// TODO: this is a lovely hack
-		ZipUtil.iterate(output, (stream, entry) -> {
-			if (!entry.isDirectory() && entry.getName().endsWith(".json") && !entry.getName().contains("/") && !entry.getName().contains("\\")) {
-				// JSON file in root directory
-				try (InputStreamReader inputStreamReader = new InputStreamReader(stream)) {
-					JsonObject json = GSON.fromJson(inputStreamReader, JsonObject.class);
+	private static boolean isRootJson(String name) {
+		return name.endsWith(".json") && !name.contains("/") && !name.contains("\\");
+	}
+
+	private static JsonObject readMixinConfig(byte[] input) {
+		try {
+			JsonObject json = GSON.fromJson(new String(input, StandardCharsets.UTF_8), JsonObject.class);
 
-					if (json != null) {
-						boolean hasMixins = json.has("mixins") && json.get("mixins").isJsonArray();
-						boolean hasClient = json.has("client") && json.get("client").isJsonArray();
-						boolean hasServer = json.has("server") && json.get("server").isJsonArray();
+			if (json != null) {
+				boolean hasMixins = json.has("mixins") && json.get("mixins").isJsonArray();
+				boolean hasClient = json.has("client") && json.get("client").isJsonArray();
+				boolean hasServer = json.has("server") && json.get("server").isJsonArray();
 
-						if (json.has("package") && (hasMixins || hasClient || hasServer)) {
-							if (!onlyWithoutRefmap || !json.has("refmap") || !json.has("minVersion")) {
-								mixinFilename.add(entry.getName());
-							}
-						}
-					}
-				} catch (Exception ignored) {
-					// ...
+				if (json.has("package") && (hasMixins || hasClient || hasServer) && (!json.has("refmap") || !json.has("minVersion"))) {
+					return json;
 				}
 			}
-		});
-		return mixinFilename;
+		} catch (Exception ignored) {
+			// Not a mixin config
+		}
+
+		return null;
 	}
 }
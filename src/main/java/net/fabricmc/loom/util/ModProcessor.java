@@ -37,8 +37,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.jar.JarFile;
-import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 
 import com.google.gson.Gson;
@@ -59,9 +60,9 @@ import net.fabricmc.loom.extension.LoomExtension;
 import net.fabricmc.loom.providers.MappingsProvider;
 import net.fabricmc.loom.providers.MinecraftMappedProvider;
 import net.fabricmc.loom.processors.dependency.ModDependencyInfo;
+import net.fabricmc.loom.util.zip.JarOutputConsumer;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import net.fabricmc.tinyremapper.InputTag;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
 
 public class ModProcessor {
 	public static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
@@ -71,7 +72,13 @@ public class ModProcessor {
 			return;
 		}
 
+		LoomExtension extension = project.getExtensions().getByType(LoomExtension.class);
+		ArtifactStore store = extension.getArtifactStore();
+		String mappingsHash = extension.getMappingsProvider().getMappingsHash();
+
 		ArrayList<ModDependencyInfo> remapList = new ArrayList<>();
+		Map<ModDependencyInfo, String> keys = new HashMap<>();
+		String classpathKey = getClasspathKey(project, extension);
 
 		for (ModDependencyInfo info : processList) {
 			if (info.requiresRemapping()) {
@@ -79,11 +86,24 @@ public class ModProcessor {
 					info.getRemappedOutput().delete();
 				}
 
+				String accessWidener = info.getAccessWidener();
+				String key = ArtifactStore.key("remapped-mod").put(info.getInputFile()).put(mappingsHash).put("intermediary->named")
+						.put(classpathKey).put(accessWidener != null ? accessWidener : "").build();
+
+				// Another project (or an earlier build of this one) might have remapped the same jar with the same mappings already
+				if (store.retrieve(key, info.getRemappedOutput().getName(), info.getRemappedOutput().toPath())) {
+					project.getLogger().debug("Reusing stored remap of " + info.getInputFile());
+					continue;
+				}
+
+				keys.put(info, key);
 				remapList.add(info);
 			}
 		}
 
-		remapJars(project, processList);
+		if (!remapList.isEmpty()) {
+			remapJars(project, remapList);
+		}
 
 		for (ModDependencyInfo info : processList) {
 			if (!info.getRemappedOutput().exists()) {
@@ -93,9 +113,44 @@ public class ModProcessor {
 
 		for (ModDependencyInfo info : remapList) {
 			stripNestedJars(info.getRemappedOutput());
+			store.publish(keys.get(info), info.getRemappedOutput().getName(), info.getRemappedOutput().toPath());
 		}
 	}
 
+	/**
+	 * Hash everything tiny-remapper reads alongside the mods it remaps, as what it finds there changes how members inherited
+	 * from it are remapped. That's Minecraft and its libraries, then every mod whether it is being remapped or not.
+	 */
+	private static String getClasspathKey(Project project, LoomExtension extension) {
+		MinecraftMappedProvider mappedProvider = extension.getMinecraftMappedProvider();
+		ArtifactStore.Key key = ArtifactStore.key("mod-remap-classpath").put(mappedProvider.getIntermediaryJar());
+
+		for (File library : mappedProvider.getMapperPaths()) {
+			key.put(library.getName()).put(library);
+		}
+
+		Set<File> mods = new TreeSet<>();
+
+		for (RemappedConfigurationEntry entry : Constants.MOD_COMPILE_ENTRIES) {
+			mods.addAll(project.getConfigurations().getByName(entry.getSourceConfiguration()).getFiles());
+		}
+
+		// Sorted by contents, so the key doesn't depend on the order the configurations resolve in
+		Set<String> modHashes = new TreeSet<>();
+
+		for (File mod : mods) {
+			if (mod.exists()) {
+				modHashes.add(ArtifactStore.key("mod").put(mod).build());
+			}
+		}
+
+		for (String hash : modHashes) {
+			key.put(hash);
+		}
+
+		return key.build();
+	}
+
 	private static void stripNestedJars(File file) {
 		// Strip out all contained jar info as we dont want loader to try and load the jars contained in dev.
 		ZipUtil.transformEntries(file, new ZipEntryTransformerEntry[] {(new ZipEntryTransformerEntry("fabric.mod.json", new StringZipEntryTransformer() {
@@ -127,7 +182,7 @@ public class ModProcessor {
 		}
 	}
 
-	private static void remapJars(Project project, List<ModDependencyInfo> processList) throws IOException {
+	private static void remapJars(Project project, List<ModDependencyInfo> remapList) throws IOException {
 		LoomExtension extension = project.getExtensions().getByType(LoomExtension.class);
 		String fromM = "intermediary";
 		String toM = "named";
@@ -135,10 +190,9 @@ public class ModProcessor {
 		MinecraftMappedProvider mappedProvider = extension.getMinecraftMappedProvider();
 		MappingsProvider mappingsProvider = extension.getMappingsProvider();
 
-		Path mc = mappedProvider.getIntermediaryJar().toPath();
-		Path[] mcDeps = mappedProvider.getMapperPaths().stream().map(File::toPath).toArray(Path[]::new);
-
-		List<ModDependencyInfo> remapList = processList.stream().filter(ModDependencyInfo::requiresRemapping).collect(Collectors.toList());
+		ArtifactStore store = extension.getArtifactStore();
+		Path mc = ClasspathCache.getSkeleton(store, mappedProvider.getIntermediaryJar().toPath());
+		Path[] mcDeps = mappedProvider.getRemapClasspath();
 
 		project.getLogger().lifecycle(":remapping " + remapList.size() + " mods (TinyRemapper, " + fromM + " -> " + toM + ")");
 
@@ -151,7 +205,7 @@ public class ModProcessor {
 		remapper.readClassPathAsync(mcDeps);
 
 		final Map<ModDependencyInfo, InputTag> tagMap = new HashMap<>();
-		final Map<ModDependencyInfo, OutputConsumerPath> outputConsumerMap = new HashMap<>();
+		final Map<ModDependencyInfo, JarOutputConsumer> outputConsumerMap = new HashMap<>();
 		final Map<ModDependencyInfo, byte[]> accessWidenerMap = new HashMap<>();
 
 		for (RemappedConfigurationEntry entry : Constants.MOD_COMPILE_ENTRIES) {
@@ -159,7 +213,7 @@ public class ModProcessor {
 				if (remapList.stream().noneMatch(info -> info.getInputFile().equals(inputFile))) {
 					project.getLogger().debug("Adding " + inputFile + " onto the remap classpath");
 
-					remapper.readClassPathAsync(inputFile.toPath());
+					remapper.readClassPathAsync(ClasspathCache.getSkeleton(store, inputFile.toPath()));
 				}
 			}
 		}
@@ -175,7 +229,7 @@ public class ModProcessor {
 
 		// Apply this in a second loop as we need to ensure all the inputs are on the classpath before remapping.
 		for (ModDependencyInfo info : remapList) {
-			OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(info.getRemappedOutput().toPath()).build();
+			JarOutputConsumer outputConsumer = new JarOutputConsumer(info.getRemappedOutput().toPath());
 			outputConsumer.addNonClassFiles(info.getInputFile().toPath());
 			outputConsumerMap.put(info, outputConsumer);
 			String accessWidener = info.getAccessWidener();
@@ -26,7 +26,7 @@ package net.fabricmc.loom.util;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -34,7 +34,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -48,11 +47,7 @@ import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.artifacts.ProjectDependency;
 import org.gradle.api.artifacts.ResolvedArtifact;
 import org.gradle.api.artifacts.DependencySet;
-import org.zeroturnaround.zip.FileSource;
-import org.zeroturnaround.zip.ZipEntrySource;
 import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.tasks.bundling.AbstractArchiveTask;
@@ -63,41 +58,50 @@ import net.fabricmc.loom.task.RemapJarTask;
 public class NestedJars {
 	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
 
-	public static boolean addNestedJars(Project project, Path modJarPath) {
-		List<File> containedJars = getContainedJars(project);
-
+	/**
+	 * Nest the given jars as part of the given transformer's pass over the mod jar.
+	 */
+	public static JarTransformer addNestedJars(JarTransformer transformer, List<File> containedJars) {
 		if (containedJars.isEmpty()) {
-			return false;
+			return transformer;
 		}
 
-		File modJar = modJarPath.toFile();
-
-		ZipUtil.addOrReplaceEntries(modJar, containedJars.stream().map(file -> new FileSource("META-INF/jars/" + file.getName(), file)).toArray(ZipEntrySource[]::new));
+		for (File file : containedJars) {
+			if (!file.exists()) {
+				throw new RuntimeException("Failed to include nested jars, as it could not be found @ " + file.getAbsolutePath());
+			}
 
-		return ZipUtil.transformEntries(modJar, single(new ZipEntryTransformerEntry("fabric.mod.json", new StringZipEntryTransformer() {
-			@Override
-			protected String transform(ZipEntry zipEntry, String input) {
-				JsonObject json = GSON.fromJson(input, JsonObject.class);
-				JsonArray nestedJars = json.getAsJsonArray("jars");
+			if (file.isDirectory() || !file.getName().endsWith(".jar")) {
+				throw new RuntimeException("Failed to include nested jars, as file was not a jar: " + file.getAbsolutePath());
+			}
 
-				if (nestedJars == null || !json.has("jars")) {
-					nestedJars = new JsonArray();
-				}
+			transformer.add("META-INF/jars/" + file.getName(), file.toPath());
+		}
 
-				for (File file : containedJars) {
-					JsonObject jsonObject = new JsonObject();
-					jsonObject.addProperty("file", "META-INF/jars/" + file.getName());
-					nestedJars.add(jsonObject);
-				}
+		return transformer.transform("fabric.mod.json", (name, input) -> {
+			JsonObject json = GSON.fromJson(new String(input, StandardCharsets.UTF_8), JsonObject.class);
+			JsonArray nestedJars = json.getAsJsonArray("jars");
 
-				json.add("jars", nestedJars);
+			if (nestedJars == null || !json.has("jars")) {
+				nestedJars = new JsonArray();
+			}
 
-				return GSON.toJson(json);
+			for (File file : containedJars) {
+				JsonObject jsonObject = new JsonObject();
+				jsonObject.addProperty("file", "META-INF/jars/" + file.getName());
+				nestedJars.add(jsonObject);
 			}
-		})));
+
+			json.add("jars", nestedJars);
+
+			return GSON.toJson(json).getBytes(StandardCharsets.UTF_8);
+		});
 	}
 
-	private static List<File> getContainedJars(Project project) {
+	/**
+	 * Find the jars to be nested in the given project's mod jar. Jars built by other projects might not exist yet.
+	 */
+	public static List<File> getContainedJars(Project project) {
 		List<File> fileList = new ArrayList<>();
 
 		Configuration configuration = project.getConfigurations().getByName(Constants.Configurations.INCLUDE);
@@ -143,16 +147,6 @@ public class NestedJars {
 			}
 		}
 
-		for (File file : fileList) {
-			if (!file.exists()) {
-				throw new RuntimeException("Failed to include nested jars, as it could not be found @ " + file.getAbsolutePath());
-			}
-
-			if (file.isDirectory() || !file.getName().endsWith(".jar")) {
-				throw new RuntimeException("Failed to include nested jars, as file was not a jar: " + file.getAbsolutePath());
-			}
-		}
-
 		return fileList;
 	}
 
@@ -230,8 +224,4 @@ public class NestedJars {
 
 		return GSON.toJson(jsonObject);
 	}
-
-	private static ZipEntryTransformerEntry[] single(ZipEntryTransformerEntry element) {
-		return new ZipEntryTransformerEntry[]{element};
-	}
 }
@@ -24,6 +24,11 @@
 
 package net.fabricmc.loom.util;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.fabricmc.loom.providers.MappingsCache;
 import net.fabricmc.mapping.tree.ClassDef;
 import net.fabricmc.mapping.tree.FieldDef;
 import net.fabricmc.mapping.tree.LocalVariableDef;
@@ -40,32 +45,110 @@ public class TinyRemapperMappingsHelper {
 	}
 
 	public static IMappingProvider create(TinyTree mappings, String from, String to, boolean remapLocalVariables) {
-		return (acceptor) -> {
+		return (acceptor) -> getProjection(mappings, from, to, remapLocalVariables).replay(acceptor);
+	}
+
+	/**
+	 * Get the mappings between the given namespaces, only walking the tree the first time each pair is asked for while the tree is cached.
+	 */
+	private static Projection getProjection(TinyTree mappings, String from, String to, boolean remapLocalVariables) {
+		String key = "tiny-remapper:" + from + "->" + to + (remapLocalVariables ? "+locals" : "");
+		return MappingsCache.INSTANCE.getDerived(mappings, key, tree -> new Projection(tree, from, to, remapLocalVariables));
+	}
+
+	/**
+	 * The mappings between a pair of namespaces, flattened into a pool of strings and a list of instructions indexing into it.
+	 */
+	private static final class Projection {
+		private static final int CLASS = 0;
+		private static final int FIELD = 1;
+		private static final int METHOD = 2;
+		private static final int ARG = 3;
+		private static final int VAR = 4;
+
+		private final String[] strings;
+		private final int[] instructions;
+
+		private Projection(TinyTree mappings, String from, String to, boolean remapLocalVariables) {
+			Map<String, Integer> pool = new HashMap<>();
+			IntBuffer out = new IntBuffer();
+
 			for (ClassDef classDef : mappings.getClasses()) {
-				String className = classDef.getName(from);
-				acceptor.acceptClass(className, classDef.getName(to));
+				int className = intern(pool, classDef.getName(from));
+				out.add(CLASS, className, intern(pool, classDef.getName(to)));
 
 				for (FieldDef field : classDef.getFields()) {
-					acceptor.acceptField(memberOf(className, field.getName(from), field.getDescriptor(from)), field.getName(to));
+					out.add(FIELD, className, intern(pool, field.getName(from)), intern(pool, field.getDescriptor(from)), intern(pool, field.getName(to)));
 				}
 
 				for (MethodDef method : classDef.getMethods()) {
-					IMappingProvider.Member methodIdentifier = memberOf(className, method.getName(from), method.getDescriptor(from));
-					acceptor.acceptMethod(methodIdentifier, method.getName(to));
+					out.add(METHOD, className, intern(pool, method.getName(from)), intern(pool, method.getDescriptor(from)), intern(pool, method.getName(to)));
 
 					if (remapLocalVariables) {
 						for (ParameterDef parameter : method.getParameters()) {
-							acceptor.acceptMethodArg(methodIdentifier, parameter.getLocalVariableIndex(), parameter.getName(to));
+							out.add(ARG, parameter.getLocalVariableIndex(), intern(pool, parameter.getName(to)));
 						}
 
 						for (LocalVariableDef localVariable : method.getLocalVariables()) {
-							acceptor.acceptMethodVar(methodIdentifier, localVariable.getLocalVariableIndex(),
-											localVariable.getLocalVariableStartOffset(), localVariable.getLocalVariableTableIndex(),
-											localVariable.getName(to));
+							out.add(VAR, localVariable.getLocalVariableIndex(), localVariable.getLocalVariableStartOffset(), localVariable.getLocalVariableTableIndex(),
+											intern(pool, localVariable.getName(to)));
 						}
 					}
 				}
 			}
-		};
+
+			strings = new String[pool.size()];
+			pool.forEach((string, index) -> strings[index] = string);
+			instructions = out.toArray();
+		}
+
+		private static int intern(Map<String, Integer> pool, String string) {
+			return pool.computeIfAbsent(string, s -> pool.size());
+		}
+
+		private void replay(IMappingProvider.MappingAcceptor acceptor) {
+			IMappingProvider.Member method = null;
+
+			for (int i = 0; i < instructions.length;) {
+				switch (instructions[i++]) {
+				case CLASS:
+					acceptor.acceptClass(strings[instructions[i++]], strings[instructions[i++]]);
+					break;
+				case FIELD:
+					acceptor.acceptField(memberOf(strings[instructions[i++]], strings[instructions[i++]], strings[instructions[i++]]), strings[instructions[i++]]);
+					break;
+				case METHOD:
+					method = memberOf(strings[instructions[i++]], strings[instructions[i++]], strings[instructions[i++]]);
+					acceptor.acceptMethod(method, strings[instructions[i++]]);
+					break;
+				case ARG:
+					acceptor.acceptMethodArg(method, instructions[i++], strings[instructions[i++]]);
+					break;
+				case VAR:
+					acceptor.acceptMethodVar(method, instructions[i++], instructions[i++], instructions[i++], strings[instructions[i++]]);
+					break;
+				default:
+					throw new IllegalStateException("Unknown instruction " + instructions[i - 1] + " at " + (i - 1));
+				}
+			}
+		}
+	}
+
+	private static final class IntBuffer {
+		private int[] values = new int[4096];
+		private int size;
+
+		private void add(int... values) {
+			if (size + values.length > this.values.length) {
+				this.values = Arrays.copyOf(this.values, Math.max(this.values.length * 2, size + values.length));
+			}
+
+			System.arraycopy(values, 0, this.values, size, values.length);
+			size += values.length;
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
 	}
 }
@@ -25,27 +25,27 @@
 package net.fabricmc.loom.util.accesswidener;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
+import java.util.stream.Collectors;
 
+import com.google.common.hash.Hashing;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import org.gradle.api.Project;
-import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.Remapper;
 import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.ByteArrayZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
 import net.fabricmc.accesswidener.AccessWidener;
 import net.fabricmc.accesswidener.AccessWidenerReader;
@@ -55,7 +55,7 @@ import net.fabricmc.accesswidener.AccessWidenerWriter;
 import net.fabricmc.loom.extension.LoomExtension;
 import net.fabricmc.loom.processors.Environment;
 import net.fabricmc.loom.processors.JarProcessor;
-import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.ArtifactStore;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.tinyremapper.TinyRemapper;
 
@@ -63,7 +63,7 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 	private AccessWidener accessWidener = new AccessWidener();
 	private AccessWidenerReader accessWidenerReader = new AccessWidenerReader(accessWidener);
 	private final Project project;
-	private byte[] inputHash;
+	private Set<String> targetClasses;
 
 	public AccessWidenerJarProcessor(Project project) {
 		this.project = project;
@@ -82,8 +82,6 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 			throw new RuntimeException("Could not find access widener file @ " + loomExtension.accessWidener.getAbsolutePath());
 		}
 
-		inputHash = Checksum.sha256(loomExtension.accessWidener);
-
 		try (BufferedReader reader = new BufferedReader(new FileReader(loomExtension.accessWidener))) {
 			accessWidenerReader.read(reader);
 		} catch (IOException e) {
@@ -104,52 +102,72 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 				throw new RuntimeException("Failed to remap access widener", e);
 			}
 		}
+
+		// Indexed by internal name so classes can be checked without converting every name in the jar
+		targetClasses = accessWidener.getTargets().stream().map(target -> target.replace('.', '/')).collect(Collectors.toSet());
+	}
+
+	@Override
+	public boolean processesClass(String className) {
+		return targetClasses.contains(className);
 	}
 
 	@Override
-	public void process(File file) {
-		project.getLogger().lifecycle("Processing file: " + file.getName());
-		ZipUtil.transformEntries(file, getTransformers(accessWidener.getTargets()));
-		ZipUtil.addEntry(file, "aw.sha256", inputHash);
+	public ClassVisitor createClassVisitor(String className, ClassVisitor next) {
+		return AccessWidenerVisitor.createClassVisitor(Constants.ASM_VERSION, next, accessWidener);
 	}
 
-	private ZipEntryTransformerEntry[] getTransformers(Set<String> classes) {
-		return classes.stream()
-				.map(string -> new ZipEntryTransformerEntry(string.replaceAll("\\.", "/") + ".class", getTransformer(string)))
-				.toArray(ZipEntryTransformerEntry[]::new);
+	@Override
+	public void addToKey(ArtifactStore.Key key) {
+		// What the access widener contains is covered class by class
+		key.put("access-widener-2");
 	}
 
-	private ZipEntryTransformer getTransformer(String className) {
-		return new ByteArrayZipEntryTransformer() {
-			@Override
-			protected byte[] transform(ZipEntry zipEntry, byte[] input) {
-				ClassReader reader = new ClassReader(input);
-				ClassWriter writer = new ClassWriter(0);
-				ClassVisitor classVisitor = AccessWidenerVisitor.createClassVisitor(Constants.ASM_VERSION, writer, accessWidener);
+	@Override
+	public Map<String, String> getClassKeys() {
+		String[] lines;
+
+		try (StringWriter writer = new StringWriter()) {
+			new AccessWidenerWriter(accessWidener).write(writer);
+			lines = writer.toString().split("\\R");
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write access widener", e);
+		}
+
+		List<String> nestedClassLines = new ArrayList<>();
+		Map<String, List<String>> linesByClass = new HashMap<>();
 
-				project.getLogger().lifecycle("Applying access widener to " + className);
+		for (String line : lines) {
+			String[] parts = line.trim().split("\\s+");
 
-				reader.accept(classVisitor, 0);
-				return writer.toByteArray();
+			if (parts.length < 3 || parts[0].equals("accessWidener")) {
+				continue;
 			}
-		};
-	}
 
-	//Called when remapping the mod
-	public void remapAccessWidener(Path modJarPath, Remapper asmRemapper) throws IOException {
-		byte[] bytes = getRemappedAccessWidener(asmRemapper);
+			String owner = parts[2].replace('.', '/');
 
-		String path = getAccessWidenerPath(modJarPath);
+			// A nested class's access is also written to every class which refers to it
+			if (parts[1].equals("class") && owner.indexOf('$') >= 0) {
+				nestedClassLines.add(line);
+			}
 
-		if (path == null) {
-			throw new RuntimeException("Failed to find accessWidener in fabric.mod.json");
+			// Nested classes are changed in their outer classes too
+			for (int end = owner.length(); end > 0; end = owner.lastIndexOf('$', end - 1)) {
+				linesByClass.computeIfAbsent(owner.substring(0, end), name -> new ArrayList<>()).add(line);
+			}
 		}
 
-		boolean replaced = ZipUtil.replaceEntry(modJarPath.toFile(), path, bytes);
+		Map<String, String> classKeys = new HashMap<>();
 
-		if (!replaced) {
-			project.getLogger().warn("Failed to replace access widener file at " + path);
+		for (String target : targetClasses) {
+			List<String> classLines = new ArrayList<>(nestedClassLines);
+			classLines.addAll(linesByClass.getOrDefault(target, Collections.emptyList()));
+
+			Collections.sort(classLines);
+			classKeys.put(target, Hashing.sha256().hashString(String.join("\n", classLines), StandardCharsets.UTF_8).toString());
 		}
+
+		return classKeys;
 	}
 
 	public byte[] getRemappedAccessWidener(Remapper asmRemapper) throws IOException {
@@ -178,15 +196,4 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 
 		return jsonObject.get("accessWidener").getAsString();
 	}
-
-	@Override
-	public boolean isInvalid(File file) {
-		byte[] hash = ZipUtil.unpackEntry(file, "aw.sha256");
-
-		if (hash == null) {
-			return true;
-		}
-
-		return !Arrays.equals(inputHash, hash); // TODO how do we know if the current jar as the correct access applied? save the hash of the input?
-	}
 }
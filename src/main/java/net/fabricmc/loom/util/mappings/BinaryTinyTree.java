@@ -0,0 +1,729 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.mappings;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.LocalVariableDef;
+import net.fabricmc.mapping.tree.Mapped;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.ParameterDef;
+import net.fabricmc.mapping.tree.TinyMetadata;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * A {@link TinyTree} read straight out of a memory mapped binary copy of a tiny file, so mappings don't have to be parsed
+ * (or even held on the heap) once they've been compiled. Names are only decoded as they're asked for.
+ *
+ * <p>The file is a header, fixed size tables of classes, fields, methods, parameters and locals, a table of class indices
+ * sorted by name for each namespace, then a pool of every string referenced from the tables.
+ */
+public final class BinaryTinyTree implements TinyTree {
+	private static final int MAGIC = 0x4C4D4231; // LMB1
+	private static final int FORMAT_VERSION = 1;
+	private static final int NONE = -1;
+	private static final int HEADER_SIZE = 64;
+
+	private final ByteBuffer buffer;
+	private final List<String> namespaces;
+	private final Map<String, String> properties;
+	private final int majorVersion;
+	private final int minorVersion;
+
+	private final int classCount;
+	private final int classTable;
+	private final int fieldTable;
+	private final int methodTable;
+	private final int parameterTable;
+	private final int localTable;
+	private final int classIndexTable;
+
+	private final int classSize;
+	private final int fieldSize;
+	private final int methodSize;
+	private final int parameterSize;
+	private final int localSize;
+
+	private Map<String, ClassDef> defaultNamespaceClassMap;
+
+	private BinaryTinyTree(ByteBuffer buffer) {
+		this.buffer = buffer;
+		majorVersion = buffer.getInt(24);
+		minorVersion = buffer.getInt(28);
+		int namespaceCount = buffer.getInt(32);
+		int propertyCount = buffer.getInt(36);
+		classCount = buffer.getInt(40);
+		classTable = buffer.getInt(44);
+		fieldTable = buffer.getInt(48);
+		methodTable = buffer.getInt(52);
+		parameterTable = buffer.getInt(56);
+		localTable = buffer.getInt(60);
+
+		List<String> namespaces = new ArrayList<>(namespaceCount);
+
+		for (int i = 0; i < namespaceCount; i++) {
+			namespaces.add(readString(buffer.getInt(HEADER_SIZE + i * 4)));
+		}
+
+		this.namespaces = Collections.unmodifiableList(namespaces);
+
+		Map<String, String> properties = new LinkedHashMap<>();
+		int propertyTable = HEADER_SIZE + namespaceCount * 4;
+
+		for (int i = 0; i < propertyCount; i++) {
+			int value = buffer.getInt(propertyTable + i * 8 + 4);
+			properties.put(readString(buffer.getInt(propertyTable + i * 8)), value == NONE ? null : readString(value));
+		}
+
+		this.properties = Collections.unmodifiableMap(properties);
+
+		classSize = (namespaceCount + 5) * 4;
+		fieldSize = (namespaceCount + 2) * 4;
+		methodSize = (namespaceCount + 6) * 4;
+		parameterSize = (namespaceCount + 2) * 4;
+		localSize = (namespaceCount + 4) * 4;
+		classIndexTable = propertyTable + propertyCount * 8;
+	}
+
+	/**
+	 * Get where the binary copy of the given tiny file is kept.
+	 */
+	public static Path getPath(Path mappings) {
+		return mappings.resolveSibling(mappings.getFileName() + ".bin");
+	}
+
+	/**
+	 * Map a binary tree written by {@link #write}, if it was compiled from the given version of the source mappings.
+	 *
+	 * @param path The binary file to read
+	 * @param sourceSize The current size of the tiny file the binary file was compiled from
+	 * @param sourceModified The current modification time of the tiny file the binary file was compiled from
+	 * @return The mapped tree, or <code>null</code> if the file is out of date or isn't a binary tree
+	 */
+	public static BinaryTinyTree open(Path path, long sourceSize, long sourceModified) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) {
+				return null;
+			}
+
+			// The mapping stays valid after the channel is closed
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getLong(8) != sourceSize || buffer.getLong(16) != sourceModified) {
+				return null;
+			}
+
+			return new BinaryTinyTree(buffer);
+		}
+	}
+
+	/**
+	 * Compile the given tree into the binary format, replacing the given file.
+	 *
+	 * @param tree The tree to compile
+	 * @param sourceSize The size of the tiny file the tree was read from
+	 * @param sourceModified The modification time of the tiny file the tree was read from
+	 * @param path Where to write the binary tree
+	 */
+	public static void write(TinyTree tree, long sourceSize, long sourceModified, Path path) throws IOException {
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+		try (OutputStream out = Files.newOutputStream(temp)) {
+			new Writer(tree).write(new DataOutputStream(new BufferedOutputStream(out)), sourceSize, sourceModified);
+		}
+
+		try {
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	public TinyMetadata getMetadata() {
+		return new TinyMetadata() {
+			@Override
+			public int getMajorVersion() {
+				return majorVersion;
+			}
+
+			@Override
+			public int getMinorVersion() {
+				return minorVersion;
+			}
+
+			@Override
+			public List<String> getNamespaces() {
+				return namespaces;
+			}
+
+			@Override
+			public Map<String, String> getProperties() {
+				return properties;
+			}
+
+			public int index(String namespace) {
+				return getNamespaceIndex(namespace);
+			}
+		};
+	}
+
+	@Override
+	public Map<String, ClassDef> getDefaultNamespaceClassMap() {
+		if (defaultNamespaceClassMap == null) {
+			defaultNamespaceClassMap = new AbstractMap<String, ClassDef>() {
+				@Override
+				public ClassDef get(Object key) {
+					return key instanceof String ? getClassDef(namespaces.get(0), (String) key) : null;
+				}
+
+				@Override
+				public boolean containsKey(Object key) {
+					return get(key) != null;
+				}
+
+				@Override
+				public int size() {
+					return classCount;
+				}
+
+				@Override
+				public Set<Entry<String, ClassDef>> entrySet() {
+					return new AbstractSet<Entry<String, ClassDef>>() {
+						@Override
+						public Iterator<Entry<String, ClassDef>> iterator() {
+							Iterator<ClassDef> classes = getClasses().iterator();
+
+							return new Iterator<Entry<String, ClassDef>>() {
+								@Override
+								public boolean hasNext() {
+									return classes.hasNext();
+								}
+
+								@Override
+								public Entry<String, ClassDef> next() {
+									ClassDef next = classes.next();
+									return new SimpleImmutableEntry<>(next.getRawName(namespaces.get(0)), next);
+								}
+							};
+						}
+
+						@Override
+						public int size() {
+							return classCount;
+						}
+					};
+				}
+			};
+		}
+
+		return defaultNamespaceClassMap;
+	}
+
+	@Override
+	public Collection<ClassDef> getClasses() {
+		return new RecordList<>(0, classCount, BinaryClass::new);
+	}
+
+	/**
+	 * Find the class with the given name in the given namespace.
+	 *
+	 * @return The class, or <code>null</code> if there's no class with that name
+	 */
+	public ClassDef getClassDef(String namespace, String name) {
+		int index = findClass(getNamespaceIndex(namespace), name);
+		return index < 0 ? null : new BinaryClass(index);
+	}
+
+	private int findClass(int namespace, String name) {
+		int table = classIndexTable + namespace * classCount * 4;
+		int low = 0;
+		int high = classCount - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int index = buffer.getInt(table + middle * 4);
+			int comparison = getName(classTable + index * classSize, namespace).compareTo(name);
+
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+	private int getNamespaceIndex(String namespace) {
+		int index = namespaces.indexOf(namespace);
+
+		if (index < 0) {
+			throw new IllegalArgumentException("Unknown namespace " + namespace + ", expected one of " + namespaces);
+		}
+
+		return index;
+	}
+
+	private String readString(int offset) {
+		byte[] bytes = new byte[buffer.getInt(offset)];
+		buffer.get(offset + 4, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private String getRawName(int record, int namespace) {
+		return readString(buffer.getInt(record + namespace * 4));
+	}
+
+	/**
+	 * Names left empty in a namespace fall back to the closest namespace before it with a name, as the text format does.
+	 */
+	private String getName(int record, int namespace) {
+		for (int i = namespace; i > 0; i--) {
+			String name = getRawName(record, i);
+
+			if (!name.isEmpty()) {
+				return name;
+			}
+		}
+
+		return getRawName(record, 0);
+	}
+
+	private String mapDescriptor(String descriptor, int namespace) {
+		if (namespace == 0) {
+			return descriptor;
+		}
+
+		StringBuilder mapped = new StringBuilder(descriptor.length());
+		int start = 0;
+
+		for (int i = descriptor.indexOf('L'); i >= 0; i = descriptor.indexOf('L', start)) {
+			int end = descriptor.indexOf(';', i);
+			mapped.append(descriptor, start, i + 1);
+
+			String name = descriptor.substring(i + 1, end);
+			int index = findClass(0, name);
+			mapped.append(index < 0 ? name : getName(classTable + index * classSize, namespace));
+
+			start = end;
+		}
+
+		return mapped.append(descriptor, start, descriptor.length()).toString();
+	}
+
+	private interface RecordFactory<T> {
+		T create(int index);
+	}
+
+	private static final class RecordList<T> extends AbstractList<T> {
+		private final int start;
+		private final int size;
+		private final RecordFactory<? extends T> factory;
+
+		private RecordList(int start, int size, RecordFactory<? extends T> factory) {
+			this.start = start;
+			this.size = size;
+			this.factory = factory;
+		}
+
+		@Override
+		public T get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+
+			return factory.create(start + index);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	private abstract class BinaryMapped implements Mapped {
+		protected final int record;
+
+		private BinaryMapped(int record) {
+			this.record = record;
+		}
+
+		protected int getInt(int slot) {
+			return buffer.getInt(record + (namespaces.size() + slot) * 4);
+		}
+
+		@Override
+		public String getName(String namespace) {
+			return BinaryTinyTree.this.getName(record, getNamespaceIndex(namespace));
+		}
+
+		@Override
+		public String getRawName(String namespace) {
+			return BinaryTinyTree.this.getRawName(record, getNamespaceIndex(namespace));
+		}
+
+		@Override
+		public String getComment() {
+			int comment = getInt(commentSlot());
+			return comment == NONE ? null : readString(comment);
+		}
+
+		protected int commentSlot() {
+			return 0;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj != null && obj.getClass() == getClass() && ((BinaryMapped) obj).record == record;
+		}
+
+		@Override
+		public int hashCode() {
+			return record;
+		}
+	}
+
+	private final class BinaryClass extends BinaryMapped implements ClassDef {
+		private BinaryClass(int index) {
+			super(classTable + index * classSize);
+		}
+
+		@Override
+		public Collection<MethodDef> getMethods() {
+			return new RecordList<>(getInt(3), getInt(4), BinaryMethod::new);
+		}
+
+		@Override
+		public Collection<FieldDef> getFields() {
+			return new RecordList<>(getInt(1), getInt(2), BinaryField::new);
+		}
+	}
+
+	private final class BinaryField extends BinaryMapped implements FieldDef {
+		private BinaryField(int index) {
+			super(fieldTable + index * fieldSize);
+		}
+
+		@Override
+		public String getDescriptor(String namespace) {
+			return mapDescriptor(readString(getInt(0)), getNamespaceIndex(namespace));
+		}
+
+		@Override
+		protected int commentSlot() {
+			return 1;
+		}
+	}
+
+	private final class BinaryMethod extends BinaryMapped implements MethodDef {
+		private BinaryMethod(int index) {
+			super(methodTable + index * methodSize);
+		}
+
+		@Override
+		public String getDescriptor(String namespace) {
+			return mapDescriptor(readString(getInt(0)), getNamespaceIndex(namespace));
+		}
+
+		@Override
+		protected int commentSlot() {
+			return 1;
+		}
+
+		@Override
+		public Collection<ParameterDef> getParameters() {
+			return new RecordList<>(getInt(2), getInt(3), BinaryParameter::new);
+		}
+
+		@Override
+		public Collection<LocalVariableDef> getLocalVariables() {
+			return new RecordList<>(getInt(4), getInt(5), BinaryLocal::new);
+		}
+	}
+
+	private final class BinaryParameter extends BinaryMapped implements ParameterDef {
+		private BinaryParameter(int index) {
+			super(parameterTable + index * parameterSize);
+		}
+
+		@Override
+		public int getLocalVariableIndex() {
+			return getInt(1);
+		}
+	}
+
+	private final class BinaryLocal extends BinaryMapped implements LocalVariableDef {
+		private BinaryLocal(int index) {
+			super(localTable + index * localSize);
+		}
+
+		@Override
+		public int getLocalVariableIndex() {
+			return getInt(1);
+		}
+
+		@Override
+		public int getLocalVariableStartOffset() {
+			return getInt(2);
+		}
+
+		@Override
+		public int getLocalVariableTableIndex() {
+			return getInt(3);
+		}
+	}
+
+	/**
+	 * Lays a tree out into the binary format. Strings are interned into the pool as the tables are built,
+	 * their offsets are only fixed once the size of everything before the pool is known.
+	 */
+	private static final class Writer {
+		private final TinyTree tree;
+		private final List<String> namespaces;
+
+		private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+		private final Map<String, Integer> strings = new HashMap<>();
+
+		private final IntList classes = new IntList();
+		private final IntList fields = new IntList();
+		private final IntList methods = new IntList();
+		private final IntList parameters = new IntList();
+		private final IntList locals = new IntList();
+
+		private Writer(TinyTree tree) {
+			this.tree = tree;
+			this.namespaces = tree.getMetadata().getNamespaces();
+		}
+
+		private void write(DataOutputStream out, long sourceSize, long sourceModified) throws IOException {
+			List<ClassDef> classDefs = new ArrayList<>(tree.getClasses());
+			Map<String, String> properties = tree.getMetadata().getProperties();
+
+			IntList header = new IntList();
+
+			for (String namespace : namespaces) {
+				header.add(intern(namespace));
+			}
+
+			for (Map.Entry<String, String> property : properties.entrySet()) {
+				header.add(intern(property.getKey()));
+				header.add(intern(property.getValue()));
+			}
+
+			for (ClassDef classDef : classDefs) {
+				addNames(classes, classDef);
+				classes.add(intern(classDef.getComment()));
+				classes.add(fields.size() / (namespaces.size() + 2));
+				classes.add(classDef.getFields().size());
+				classes.add(methods.size() / (namespaces.size() + 6));
+				classes.add(classDef.getMethods().size());
+
+				for (FieldDef field : classDef.getFields()) {
+					addNames(fields, field);
+					fields.add(intern(field.getDescriptor(namespaces.get(0))));
+					fields.add(intern(field.getComment()));
+				}
+
+				for (MethodDef method : classDef.getMethods()) {
+					addNames(methods, method);
+					methods.add(intern(method.getDescriptor(namespaces.get(0))));
+					methods.add(intern(method.getComment()));
+					methods.add(parameters.size() / (namespaces.size() + 2));
+					methods.add(method.getParameters().size());
+					methods.add(locals.size() / (namespaces.size() + 4));
+					methods.add(method.getLocalVariables().size());
+
+					for (ParameterDef parameter : method.getParameters()) {
+						addNames(parameters, parameter);
+						parameters.add(intern(parameter.getComment()));
+						parameters.add(parameter.getLocalVariableIndex());
+					}
+
+					for (LocalVariableDef local : method.getLocalVariables()) {
+						addNames(locals, local);
+						locals.add(intern(local.getComment()));
+						locals.add(local.getLocalVariableIndex());
+						locals.add(local.getLocalVariableStartOffset());
+						locals.add(local.getLocalVariableTableIndex());
+					}
+				}
+			}
+
+			IntList classIndex = new IntList();
+
+			for (int namespace = 0; namespace < namespaces.size(); namespace++) {
+				List<String> names = new ArrayList<>(classDefs.size());
+				List<Integer> order = new ArrayList<>(classDefs.size());
+
+				for (int i = 0; i < classDefs.size(); i++) {
+					names.add(getName(classDefs.get(i), namespace));
+					order.add(i);
+				}
+
+				order.sort((a, b) -> names.get(a).compareTo(names.get(b)));
+				order.forEach(classIndex::add);
+			}
+
+			int classTable = HEADER_SIZE + header.size() * 4 + classIndex.size() * 4;
+			int fieldTable = classTable + classes.size() * 4;
+			int methodTable = fieldTable + fields.size() * 4;
+			int parameterTable = methodTable + methods.size() * 4;
+			int localTable = parameterTable + parameters.size() * 4;
+			int poolStart = localTable + locals.size() * 4;
+
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(sourceSize);
+			out.writeLong(sourceModified);
+			out.writeInt(tree.getMetadata().getMajorVersion());
+			out.writeInt(tree.getMetadata().getMinorVersion());
+			out.writeInt(namespaces.size());
+			out.writeInt(properties.size());
+			out.writeInt(classDefs.size());
+			out.writeInt(classTable);
+			out.writeInt(fieldTable);
+			out.writeInt(methodTable);
+			out.writeInt(parameterTable);
+			out.writeInt(localTable);
+
+			header.writeStrings(out, poolStart, 1);
+			classIndex.writeInts(out);
+			classes.writeStrings(out, poolStart, namespaces.size() + 5, namespaces.size() + 1);
+			fields.writeStrings(out, poolStart, namespaces.size() + 2, namespaces.size() + 2);
+			methods.writeStrings(out, poolStart, namespaces.size() + 6, namespaces.size() + 2);
+			parameters.writeStrings(out, poolStart, namespaces.size() + 2, namespaces.size() + 1);
+			locals.writeStrings(out, poolStart, namespaces.size() + 4, namespaces.size() + 1);
+			pool.writeTo(out);
+			out.flush();
+		}
+
+		/**
+		 * Get the name the class will be looked up by, falling back the same way {@link BinaryTinyTree#getName(int, int)} does.
+		 */
+		private String getName(ClassDef classDef, int namespace) {
+			for (int i = namespace; i > 0; i--) {
+				String name = classDef.getRawName(namespaces.get(i));
+
+				if (name != null && !name.isEmpty()) {
+					return name;
+				}
+			}
+
+			String name = classDef.getRawName(namespaces.get(0));
+			return name == null ? "" : name;
+		}
+
+		private void addNames(IntList records, Mapped mapped) {
+			for (String namespace : namespaces) {
+				String name = mapped.getRawName(namespace);
+				records.add(intern(name == null ? "" : name));
+			}
+		}
+
+		private int intern(String value) {
+			if (value == null) {
+				return NONE;
+			}
+
+			return strings.computeIfAbsent(value, string -> {
+				int offset = pool.size();
+				byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+				pool.write(bytes.length >>> 24);
+				pool.write(bytes.length >>> 16);
+				pool.write(bytes.length >>> 8);
+				pool.write(bytes.length);
+				pool.write(bytes, 0, bytes.length);
+				return offset;
+			});
+		}
+	}
+
+	private static final class IntList {
+		private int[] values = new int[1024];
+		private int size;
+
+		private void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+
+			values[size++] = value;
+		}
+
+		private int size() {
+			return size;
+		}
+
+		private void writeInts(DataOutputStream out) throws IOException {
+			for (int i = 0; i < size; i++) {
+				out.writeInt(values[i]);
+			}
+		}
+
+		/**
+		 * Write out records of the given size, where the first <code>stringSlots</code> of each are string pool offsets needing relocating.
+		 */
+		private void writeStrings(DataOutputStream out, int poolStart, int recordSize, int stringSlots) throws IOException {
+			for (int i = 0; i < size; i++) {
+				int value = values[i];
+				out.writeInt(i % recordSize < stringSlots && value != NONE ? poolStart + value : value);
+			}
+		}
+
+		private void writeStrings(DataOutputStream out, int poolStart, int recordSize) throws IOException {
+			writeStrings(out, poolStart, recordSize, recordSize);
+		}
+	}
+}
@@ -33,6 +33,7 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -129,8 +130,10 @@ public class MojangMappingsDependency implements SelfResolvingDependency {
 		String clientMappingsUrl = versionInfo.downloads.get(MANIFEST_CLIENT_MAPPINGS).url;
 		String serverMappingsUrl = versionInfo.downloads.get(MANIFEST_SERVER_MAPPINGS).url;
 
-		DownloadUtil.downloadIfChanged(new URL(clientMappingsUrl), clientMappings.toFile(), project.getLogger());
-		DownloadUtil.downloadIfChanged(new URL(serverMappingsUrl), serverMappings.toFile(), project.getLogger());
+		DownloadUtil.awaitAll(Arrays.asList(
+				DownloadUtil.downloadIfChangedAsync(new URL(clientMappingsUrl), clientMappings.toFile(), project.getLogger(), false),
+				DownloadUtil.downloadIfChangedAsync(new URL(serverMappingsUrl), serverMappings.toFile(), project.getLogger(), false)
+		));
 
 		MappingSet mappings = MappingSet.create();
 
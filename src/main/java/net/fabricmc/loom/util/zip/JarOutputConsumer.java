@@ -0,0 +1,113 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Writes tiny-remapper's output to a jar in place of {@link net.fabricmc.tinyremapper.OutputConsumerPath}, except non-class files
+ * are copied from the input as they are stored rather than being decompressed and compressed again. Classes are compressed on
+ * whichever thread the remapper hands them over from, then written in name order when the jar is closed.
+ *
+ * <p>Classes and directories are given a fixed time rather than the time the jar was written, so remapping the same input twice
+ * produces the same jar.
+ */
+public final class JarOutputConsumer implements BiConsumer<String, byte[]>, Closeable {
+	private final RawZipOutput output;
+	// 1980-02-01 00:00, the same time Gradle gives the entries of reproducible archives
+	private static final int DOS_TIME = 2 << 21 | 1 << 16;
+
+	private final Map<String, RawZipOutput.Compressed> classes = new ConcurrentHashMap<>();
+	private final Set<String> directories = new HashSet<>();
+
+	public JarOutputConsumer(Path output) throws IOException {
+		if (output.getParent() != null) {
+			Files.createDirectories(output.getParent());
+		}
+
+		// The output might be linked to a shared copy, which must be replaced rather than written over
+		Files.deleteIfExists(output);
+		this.output = new RawZipOutput(output);
+	}
+
+	/**
+	 * Copy every file other than classes from the given jar.
+	 */
+	public synchronized void addNonClassFiles(Path input) throws IOException {
+		try (RawZipFile zip = new RawZipFile(input)) {
+			for (RawZipEntry entry : zip.getEntries()) {
+				if (!entry.isDirectory() && !entry.getName().endsWith(".class")) {
+					writeDirectories(entry.getName());
+					output.copy(zip, entry);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void accept(String className, byte[] data) {
+		String name = className + ".class";
+		classes.put(name, RawZipOutput.compress(name, DOS_TIME, data));
+	}
+
+	/**
+	 * Write entries for each directory the given name is in, unless they have already been written.
+	 */
+	private void writeDirectories(String name) throws IOException {
+		for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+			String directory = name.substring(0, i + 1);
+
+			if (directories.add(directory)) {
+				output.write(directory, DOS_TIME, new byte[0]);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			List<String> names = new ArrayList<>(classes.keySet());
+			Collections.sort(names);
+
+			for (String name : names) {
+				writeDirectories(name);
+				output.write(classes.get(name));
+			}
+		} finally {
+			output.close();
+		}
+	}
+}
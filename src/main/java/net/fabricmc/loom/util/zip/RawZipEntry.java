@@ -0,0 +1,101 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * An entry in a zip as it is stored, so it can be copied from one zip to another without being decompressed and compressed again.
+ */
+public final class RawZipEntry {
+	public static final int STORED = 0;
+	public static final int DEFLATED = 8;
+
+	private final String name;
+	private final int method;
+	private final int dosTime;
+	private final long crc;
+	private final long compressedSize;
+	private final long size;
+	final long localHeaderOffset;
+
+	RawZipEntry(String name, int method, int dosTime, long crc, long compressedSize, long size, long localHeaderOffset) {
+		this.name = name;
+		this.method = method;
+		this.dosTime = dosTime;
+		this.crc = crc;
+		this.compressedSize = compressedSize;
+		this.size = size;
+		this.localHeaderOffset = localHeaderOffset;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isDirectory() {
+		return name.endsWith("/");
+	}
+
+	public int getMethod() {
+		return method;
+	}
+
+	/**
+	 * Get the last modified time in the MS-DOS format it is stored in, date in the high 16 bits and time in the low.
+	 */
+	public int getDosTime() {
+		return dosTime;
+	}
+
+	public long getCrc() {
+		return crc;
+	}
+
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Convert the given time in milliseconds since the epoch to the MS-DOS format entries store it in.
+	 */
+	public static int toDosTime(long time) {
+		LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+
+		if (date.getYear() < 1980) {
+			// The earliest time which can be stored, 1980-01-01
+			return (1 << 21) | (1 << 16);
+		}
+
+		return (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16
+				| date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+	}
+}
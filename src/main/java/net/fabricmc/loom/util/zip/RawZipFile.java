@@ -0,0 +1,251 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a zip straight from its central directory, giving access to each entry's compressed bytes as well as its contents.
+ * Reads don't share any state so entries can be read from several threads at once.
+ *
+ * <p>Only what jars written by the usual tools contain is supported, there's no Zip64 or encryption.
+ */
+public final class RawZipFile implements Closeable {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_HEADER = 0x06054b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_HEADER_SIZE = 22;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final List<RawZipEntry> entries;
+	private final Map<String, RawZipEntry> entriesByName;
+
+	public RawZipFile(Path path) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+
+		try {
+			this.entries = Collections.unmodifiableList(readCentralDirectory());
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+		this.entriesByName = new HashMap<>(entries.size() * 2);
+
+		for (RawZipEntry entry : entries) {
+			entriesByName.putIfAbsent(entry.getName(), entry);
+		}
+	}
+
+	private List<RawZipEntry> readCentralDirectory() throws IOException {
+		long size = channel.size();
+		// The end header is followed by a comment of up to 64k
+		int tailSize = (int) Math.min(size, END_HEADER_SIZE + 0xFFFF);
+		ByteBuffer tail = read(size - tailSize, tailSize);
+		int end = -1;
+
+		for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_HEADER) {
+				end = i;
+				break;
+			}
+		}
+
+		if (end < 0) {
+			throw new ZipException("No end of central directory in " + path);
+		}
+
+		int count = Short.toUnsignedInt(tail.getShort(end + 10));
+		long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+		long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+
+		if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+			throw new ZipException("Zip64 is not supported: " + path);
+		}
+
+		ByteBuffer directory = read(directoryOffset, Math.toIntExact(directorySize));
+		List<RawZipEntry> entries = new ArrayList<>(count);
+
+		for (int i = 0, offset = 0; i < count; i++) {
+			if (directory.getInt(offset) != CENTRAL_HEADER) {
+				throw new ZipException("Bad central directory entry in " + path);
+			}
+
+			int flags = Short.toUnsignedInt(directory.getShort(offset + 8));
+			int method = Short.toUnsignedInt(directory.getShort(offset + 10));
+			int dosTime = directory.getInt(offset + 12);
+			long crc = Integer.toUnsignedLong(directory.getInt(offset + 16));
+			long compressedSize = Integer.toUnsignedLong(directory.getInt(offset + 20));
+			long uncompressedSize = Integer.toUnsignedLong(directory.getInt(offset + 24));
+			int nameLength = Short.toUnsignedInt(directory.getShort(offset + 28));
+			int extraLength = Short.toUnsignedInt(directory.getShort(offset + 30));
+			int commentLength = Short.toUnsignedInt(directory.getShort(offset + 32));
+			long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(offset + 42));
+
+			if ((flags & 1) != 0) {
+				throw new ZipException("Encrypted entries are not supported: " + path);
+			}
+
+			byte[] name = new byte[nameLength];
+			directory.position(offset + CENTRAL_HEADER_SIZE);
+			directory.get(name);
+
+			entries.add(new RawZipEntry(new String(name, StandardCharsets.UTF_8), method, dosTime, crc, compressedSize, uncompressedSize, localHeaderOffset));
+			offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+
+		return entries;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public List<RawZipEntry> getEntries() {
+		return entries;
+	}
+
+	public RawZipEntry getEntry(String name) {
+		return entriesByName.get(name);
+	}
+
+	/**
+	 * Read the entry's data as it is stored, without decompressing it.
+	 */
+	public byte[] readRaw(RawZipEntry entry) throws IOException {
+		ByteBuffer data = read(getDataOffset(entry), Math.toIntExact(entry.getCompressedSize()));
+		byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Read the entry's contents.
+	 */
+	public byte[] read(RawZipEntry entry) throws IOException {
+		byte[] raw = readRaw(entry);
+
+		switch (entry.getMethod()) {
+		case RawZipEntry.STORED:
+			return raw;
+		case RawZipEntry.DEFLATED:
+			Inflater inflater = new Inflater(true);
+
+			try {
+				inflater.setInput(raw);
+				byte[] contents = new byte[Math.toIntExact(entry.getSize())];
+				int read = 0;
+
+				while (read < contents.length) {
+					int inflated = inflater.inflate(contents, read, contents.length - read);
+
+					if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+						throw new ZipException("Truncated entry " + entry.getName() + " in " + path);
+					}
+
+					read += inflated;
+				}
+
+				return contents;
+			} catch (DataFormatException e) {
+				throw new ZipException("Corrupt entry " + entry.getName() + " in " + path + ": " + e.getMessage());
+			} finally {
+				inflater.end();
+			}
+		default:
+			throw new ZipException("Unsupported compression method " + entry.getMethod() + " for " + entry.getName() + " in " + path);
+		}
+	}
+
+	/**
+	 * Copy the entry's data as it is stored straight to the given channel.
+	 */
+	void transferRaw(RawZipEntry entry, WritableByteChannel target) throws IOException {
+		long position = getDataOffset(entry);
+		long remaining = entry.getCompressedSize();
+
+		while (remaining > 0) {
+			long transferred = channel.transferTo(position, remaining, target);
+
+			if (transferred <= 0) {
+				throw new EOFException("Unexpected end of " + path);
+			}
+
+			position += transferred;
+			remaining -= transferred;
+		}
+	}
+
+	private long getDataOffset(RawZipEntry entry) throws IOException {
+		ByteBuffer header = read(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+
+		if (header.getInt(0) != LOCAL_HEADER) {
+			throw new ZipException("Bad local header for " + entry.getName() + " in " + path);
+		}
+
+		int nameLength = Short.toUnsignedInt(header.getShort(26));
+		int extraLength = Short.toUnsignedInt(header.getShort(28));
+		return entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of " + path);
+			}
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip from entries which are already compressed, either copied as they are from another zip or compressed
+ * beforehand with {@link #compress(String, int, byte[])} (which can be done on any thread).
+ */
+public final class RawZipOutput implements Closeable {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_HEADER = 0x06054b50;
+	private static final int VERSION = 20;
+	private static final int UTF8_FLAG = 1 << 11;
+	// Each deflater holds on to native memory until it is ended, so every thread reuses one of its own rather than making one per entry
+	private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+	private final FileChannel channel;
+	private final OutputStream output;
+	private final List<RawZipEntry> written = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private long offset;
+
+	public RawZipOutput(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.output = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+	}
+
+	/**
+	 * Compress the given contents ready to be written as an entry.
+	 */
+	public static Compressed compress(String name, int dosTime, byte[] contents) {
+		if (name.endsWith("/")) {
+			return store(name, dosTime, contents);
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+
+		Deflater deflater = DEFLATER.get();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, contents.length / 2));
+
+		try {
+			deflater.setInput(contents);
+			deflater.finish();
+			byte[] buffer = new byte[8192];
+
+			while (!deflater.finished()) {
+				compressed.write(buffer, 0, deflater.deflate(buffer));
+			}
+		} finally {
+			deflater.reset();
+		}
+
+		return new Compressed(new RawZipEntry(name, RawZipEntry.DEFLATED, dosTime, crc.getValue(), compressed.size(), contents.length, -1), compressed.toByteArray());
+	}
+
+	/**
+	 * Prepare the given contents to be written as an entry without compressing them, for zips which are only read once.
+	 */
+	public static Compressed store(String name, int dosTime, byte[] contents) {
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+
+		return new Compressed(new RawZipEntry(name, RawZipEntry.STORED, dosTime, crc.getValue(), contents.length, contents.length, -1), contents);
+	}
+
+	/**
+	 * Compress and write the given contents as an entry.
+	 */
+	public void write(String name, int dosTime, byte[] contents) throws IOException {
+		write(compress(name, dosTime, contents));
+	}
+
+	public void write(Compressed entry) throws IOException {
+		writeLocalHeader(entry.entry);
+		output.write(entry.data);
+		offset += entry.data.length;
+	}
+
+	/**
+	 * Copy the given entry from the given zip as it is, without decompressing it.
+	 */
+	public void copy(RawZipFile zip, RawZipEntry entry) throws IOException {
+		writeLocalHeader(entry);
+		output.flush();
+		zip.transferRaw(entry, channel);
+		offset += entry.getCompressedSize();
+	}
+
+	private void writeLocalHeader(RawZipEntry entry) throws IOException {
+		if (!names.add(entry.getName())) {
+			throw new ZipException("duplicate entry: " + entry.getName());
+		}
+
+		RawZipEntry moved = new RawZipEntry(entry.getName(), entry.getMethod(), entry.getDosTime(), entry.getCrc(), entry.getCompressedSize(), entry.getSize(), offset);
+		written.add(moved);
+
+		byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+		writeInt(LOCAL_HEADER);
+		writeShort(VERSION);
+		writeShort(UTF8_FLAG);
+		writeShort(entry.getMethod());
+		writeInt(entry.getDosTime());
+		writeInt((int) entry.getCrc());
+		writeInt((int) entry.getCompressedSize());
+		writeInt((int) entry.getSize());
+		writeShort(name.length);
+		writeShort(0);
+		output.write(name);
+		offset += 30 + name.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			long directoryOffset = offset;
+
+			for (RawZipEntry entry : written) {
+				byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+				writeInt(CENTRAL_HEADER);
+				writeShort(VERSION);
+				writeShort(VERSION);
+				writeShort(UTF8_FLAG);
+				writeShort(entry.getMethod());
+				writeInt(entry.getDosTime());
+				writeInt((int) entry.getCrc());
+				writeInt((int) entry.getCompressedSize());
+				writeInt((int) entry.getSize());
+				writeShort(name.length);
+				writeShort(0); // Extra length
+				writeShort(0); // Comment length
+				writeShort(0); // Disk number
+				writeShort(0); // Internal attributes
+				writeInt(0); // External attributes
+				writeInt((int) entry.localHeaderOffset);
+				output.write(name);
+				offset += 46 + name.length;
+			}
+
+			if (written.size() > 0xFFFF || offset > 0xFFFFFFFFL) {
+				throw new ZipException("Zip64 is not supported, too many or too large entries");
+			}
+
+			writeInt(END_HEADER);
+			writeShort(0);
+			writeShort(0);
+			writeShort(written.size());
+			writeShort(written.size());
+			writeInt((int) (offset - directoryOffset));
+			writeInt((int) directoryOffset);
+			writeShort(0);
+			output.flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void writeShort(int value) throws IOException {
+		output.write(value & 0xFF);
+		output.write((value >>> 8) & 0xFF);
+	}
+
+	private void writeInt(int value) throws IOException {
+		writeShort(value & 0xFFFF);
+		writeShort((value >>> 16) & 0xFFFF);
+	}
+
+	/**
+	 * An entry which has been compressed ready to be written.
+	 */
+	public static final class Compressed {
+		private final RawZipEntry entry;
+		private final byte[] data;
+
+		private Compressed(RawZipEntry entry, byte[] data) {
+			this.entry = entry;
+			this.data = data;
+		}
+
+		public RawZipEntry getEntry() {
+			return entry;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package net.fabricmc.loom.decompilers
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipFile
+
+import net.fabricmc.loom.util.zip.RawZipFile
+import net.fabricmc.loom.util.zip.RawZipOutput
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class DecompiledClassesTest extends Specification {
+	@Rule
+	TemporaryFolder temp = new TemporaryFolder()
+
+	def "inner classes belong to their outermost class"() {
+		expect:
+		DecompiledClasses.getOutermostClass("a/b/C") == "a/b/C"
+		DecompiledClasses.getOutermostClass('a/b/C$D') == "a/b/C"
+		DecompiledClasses.getOutermostClass('a/b/C$D$1') == "a/b/C"
+	}
+
+	def "entries are grouped by their outermost class in jar order"() {
+		given:
+		def jar = writeJar(["a/", "a/B.java", 'a/A$1.class', "a/A.class", "a/A.java", 'a/B$Inner.class', "a/B.class", "a/resource.txt"])
+
+		when:
+		def classes = new RawZipFile(jar).withCloseable { zip -> names(DecompiledClasses.groupClasses(zip)) }
+		def sources = new RawZipFile(jar).withCloseable { zip -> names(DecompiledClasses.groupSources(zip)) }
+
+		then:
+		classes == ["a/A": ['a/A$1.class', "a/A.class"], "a/B": ['a/B$Inner.class', "a/B.class"]]
+		classes.keySet() as List == ["a/A", "a/B"]
+		sources == ["a/B": ["a/B.java"], "a/A": ["a/A.java"]]
+		sources.keySet() as List == ["a/B", "a/A"]
+	}
+
+	def "split keeps the selected classes with their inner classes apart from everything else"() {
+		given:
+		def jar = writeJar(["a/", 'a/A$1.class', "a/A.class", "a/B.class", 'a/B$Inner.class', "a/resource.txt"])
+		def selected = temp.root.toPath().resolve("selected.jar")
+		def rest = temp.root.toPath().resolve("rest.jar")
+
+		when:
+		new RawZipFile(jar).withCloseable { zip -> DecompiledClasses.split(zip, ["a/A"] as Set, selected, rest) }
+
+		then:
+		entries(selected) == ['a/A$1.class': 'a/A$1.class', "a/A.class": "a/A.class"]
+		entries(rest) == ["a/B.class": "a/B.class", 'a/B$Inner.class': 'a/B$Inner.class', "a/resource.txt": "a/resource.txt"]
+	}
+
+	def "line map is split up by outermost class"() {
+		given:
+		def linemap = temp.newFile("linemap.txt").toPath()
+		Files.write(linemap, [
+				"a/A\t10\t20",
+				"\t1\t3",
+				"\t2\t5",
+				"",
+				'a/A$Inner\t4\t8',
+				"\t1\t9",
+				"a/B\t3\t3",
+				"\t3\t3"
+		].join("\n").getBytes(StandardCharsets.UTF_8))
+
+		when:
+		def linemaps = DecompiledClasses.readLinemap(linemap)
+
+		then:
+		linemaps == [
+				"a/A": 'a/A\t10\t20\n\t1\t3\n\t2\t5\na/A$Inner\t4\t8\n\t1\t9\n',
+				"a/B": "a/B\t3\t3\n\t3\t3\n"
+		]
+	}
+
+	def "line mappings before any class are rejected"() {
+		given:
+		def linemap = temp.newFile("linemap.txt").toPath()
+		Files.write(linemap, "\t1\t3\n".getBytes(StandardCharsets.UTF_8))
+
+		when:
+		DecompiledClasses.readLinemap(linemap)
+
+		then:
+		thrown(IOException)
+	}
+
+	private Path writeJar(List<String> names) {
+		def jar = temp.root.toPath().resolve("input.jar")
+
+		new RawZipOutput(jar).withCloseable { output ->
+			names.each { output.write(it, 0, it.getBytes(StandardCharsets.UTF_8)) }
+		}
+
+		return jar
+	}
+
+	private static Map<String, List<String>> names(Map groups) {
+		return groups.collectEntries { outermost, entries -> [(outermost): entries*.name] }
+	}
+
+	private static Map<String, String> entries(Path jar) {
+		return new ZipFile(jar.toFile()).withCloseable { zip ->
+			zip.entries().collectEntries { [(it.name): new String(zip.getInputStream(it).bytes, StandardCharsets.UTF_8)] }
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package net.fabricmc.loom.processors
+
+import java.nio.file.Files
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+import net.fabricmc.loom.util.ArtifactStore
+import net.fabricmc.loom.util.Constants
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassVisitor
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class JarProcessorManagerTest extends Specification {
+	private static final List<String> CLASSES = ["a/A", "a/B", 'a/B$Inner', "b/C"]
+
+	@Rule
+	TemporaryFolder temp = new TemporaryFolder()
+
+	def "processed outputs are valid until the processors change"() {
+		given:
+		def input = writeInput()
+		def output = new File(temp.root, "processed/output.jar")
+		def manifest = new File(temp.root, "processed/output.properties")
+		def processor = new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL])
+
+		expect:
+		new JarProcessorManager([processor]).isInvalid(manifest, input, output)
+
+		when:
+		new JarProcessorManager([processor]).process(manifest, input, output)
+
+		then:
+		!new JarProcessorManager([processor]).isInvalid(manifest, input, output)
+		new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL, "a/B": Opcodes.ACC_FINAL])]).isInvalid(manifest, input, output)
+		new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL], "other")]).isInvalid(manifest, input, output)
+		new JarProcessorManager([processor, new AccessProcessor(Environment.BOTH, [:])]).isInvalid(manifest, input, output)
+		new JarProcessorManager([processor]).getKey(input) == new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL])]).getKey(input)
+	}
+
+	@Unroll
+	def "outputs are invalid when #reason"() {
+		given:
+		def input = writeInput()
+		def output = new File(temp.root, "output.jar")
+		def manifest = new File(temp.root, "output.properties")
+		def manager = new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL])])
+		manager.process(manifest, input, output)
+
+		when:
+		change(input, output, manifest)
+
+		then:
+		manager.isInvalid(manifest, input, output)
+
+		where:
+		reason                           | change
+		"the output is missing"          | { File inputJar, File outputJar, File manifestFile -> outputJar.delete() }
+		"the manifest is missing"        | { File inputJar, File outputJar, File manifestFile -> manifestFile.delete() }
+		"the manifest has been tampered" | { File inputJar, File outputJar, File manifestFile -> manifestFile.text = manifestFile.text.replaceAll('(?m)^class\\.(.+)=.*$', 'class.$1=changed') }
+		"the input has changed"          | { File inputJar, File outputJar, File manifestFile -> inputJar.setLastModified(inputJar.lastModified() - 10000) }
+	}
+
+	def "writing a manifest marks outputs from elsewhere as up to date"() {
+		given:
+		def input = writeInput()
+		def output = temp.newFile("output.jar")
+		def manifest = new File(temp.root, "output.properties")
+		def manager = new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL])])
+
+		when:
+		manager.writeManifest(manifest, input)
+
+		then:
+		!manager.isInvalid(manifest, input, output)
+	}
+
+	def "only the classes processors want are changed"() {
+		given:
+		def input = writeInput()
+		def output = new File(temp.root, "output.jar")
+		def processor = new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL, 'a/B$Inner': Opcodes.ACC_FINAL])
+
+		when:
+		new JarProcessorManager([processor]).process(new File(temp.root, "output.properties"), input, output)
+
+		then:
+		processor.processed.sort() == ["a/A", 'a/B$Inner']
+		names(output) == names(input)
+		access(output, "a/A") == (Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER)
+		access(output, 'a/B$Inner') == (Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER)
+		read(output, "a/B.class") == read(input, "a/B.class")
+		read(output, "b/C.class") == read(input, "b/C.class")
+		read(output, "resource.txt") == read(input, "resource.txt")
+	}
+
+	def "compile and runtime outputs each get their own processors"() {
+		given:
+		def input = writeInput()
+		def compile = new File(temp.root, "compile.jar")
+		def runtime = new File(temp.root, "runtime.jar")
+		def manifest = new File(temp.root, "output.properties")
+		def both = new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL, 'a/B$Inner': Opcodes.ACC_FINAL])
+		def compileOnly = new AccessProcessor(Environment.COMPILE, ["a/A": Opcodes.ACC_ABSTRACT, "a/B": Opcodes.ACC_ABSTRACT])
+		def runtimeOnly = new AccessProcessor(Environment.RUNTIME, ["b/C": Opcodes.ACC_FINAL])
+		def manager = new JarProcessorManager([both, compileOnly, runtimeOnly])
+
+		when:
+		manager.process(manifest, input, compile, runtime)
+
+		then:
+		access(compile, "a/A") == (Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_ABSTRACT | Opcodes.ACC_SUPER)
+		access(compile, "a/B") == (Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_SUPER)
+		access(compile, "b/C") == (Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER)
+		access(runtime, "a/A") == (Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER)
+		access(runtime, "a/B") == (Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER)
+		access(runtime, "b/C") == (Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER)
+		// Classes which go through the same processors for both outputs are only transformed once
+		both.processed.count("a/A") == 2
+		both.processed.count('a/B$Inner') == 1
+		read(compile, 'a/B$Inner.class') == read(runtime, 'a/B$Inner.class')
+		!manager.isInvalid(manifest, input, compile, runtime)
+	}
+
+	def "only classes whose keys changed are processed again"() {
+		given:
+		def input = writeInput()
+		def output = new File(temp.root, "output.jar")
+		def manifest = new File(temp.root, "output.properties")
+		new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL, "a/B": Opcodes.ACC_FINAL])]).process(manifest, input, output)
+
+		def changed = new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL, "a/B": Opcodes.ACC_ABSTRACT, "b/C": Opcodes.ACC_FINAL])
+		def manager = new JarProcessorManager([changed])
+
+		when:
+		manager.process(manifest, input, output)
+
+		then:
+		changed.processed.sort() == ["a/B", "b/C"]
+		!manager.isInvalid(manifest, input, output)
+		!new File(temp.root, "output.jar.previous").exists()
+
+		when: "the same processors are run over the whole jar from scratch"
+		def fresh = new File(temp.root, "fresh.jar")
+		new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL, "a/B": Opcodes.ACC_ABSTRACT, "b/C": Opcodes.ACC_FINAL])]).process(new File(temp.root, "fresh.properties"), input, fresh)
+
+		then:
+		Files.readAllBytes(output.toPath()) == Files.readAllBytes(fresh.toPath())
+	}
+
+	def "classes a processor stops processing go back to how they were"() {
+		given:
+		def input = writeInput()
+		def output = new File(temp.root, "output.jar")
+		def manifest = new File(temp.root, "output.properties")
+		new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL, "a/B": Opcodes.ACC_FINAL])]).process(manifest, input, output)
+
+		def changed = new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL])
+
+		when:
+		new JarProcessorManager([changed]).process(manifest, input, output)
+
+		then:
+		changed.processed.isEmpty()
+		access(output, "a/A") == (Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER)
+		read(output, "a/B.class") == read(input, "a/B.class")
+	}
+
+	def "everything is processed again when more than the class keys change"() {
+		given:
+		def input = writeInput()
+		def output = new File(temp.root, "output.jar")
+		def manifest = new File(temp.root, "output.properties")
+		new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL])]).process(manifest, input, output)
+
+		def changed = new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL, "a/B": Opcodes.ACC_FINAL], "other")
+
+		when:
+		new JarProcessorManager([changed]).process(manifest, input, output)
+
+		then:
+		changed.processed.sort() == ["a/A", "a/B"]
+	}
+
+	def "processors without class keys always process everything again"() {
+		given:
+		def input = writeInput()
+		def output = new File(temp.root, "output.jar")
+		def manifest = new File(temp.root, "output.properties")
+		new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL], "1", false)]).process(manifest, input, output)
+
+		def changed = new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL, "a/B": Opcodes.ACC_FINAL], "2", false)
+		def manager = new JarProcessorManager([changed])
+
+		expect:
+		manager.isInvalid(manifest, input, output)
+
+		when:
+		manager.process(manifest, input, output)
+
+		then:
+		changed.processed.sort() == ["a/A", "a/B"]
+		!manager.isInvalid(manifest, input, output)
+	}
+
+	def "a failed process leaves nothing which looks processed"() {
+		given:
+		def input = writeInput()
+		def output = new File(temp.root, "output.jar")
+		def manifest = new File(temp.root, "output.properties")
+		def manager = new JarProcessorManager([new AccessProcessor(Environment.BOTH, ["a/A": Opcodes.ACC_FINAL])])
+		manager.process(manifest, input, output)
+
+		when:
+		new JarProcessorManager([new FailingProcessor()]).process(manifest, input, output)
+
+		then:
+		thrown(RuntimeException)
+		!output.exists()
+		manager.isInvalid(manifest, input, output)
+	}
+
+	private File writeInput() {
+		File input = new File(temp.root, "input.jar")
+
+		new ZipOutputStream(new FileOutputStream(input)).withCloseable { zip ->
+			for (String name : CLASSES) {
+				ClassWriter writer = new ClassWriter(0)
+				writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null)
+				writer.visitEnd()
+
+				zip.putNextEntry(new ZipEntry(name + ".class"))
+				zip.write(writer.toByteArray())
+				zip.closeEntry()
+			}
+
+			zip.putNextEntry(new ZipEntry("resource.txt"))
+			zip.write("Not a class".bytes)
+			zip.closeEntry()
+		}
+
+		return input
+	}
+
+	private static List<String> names(File jar) {
+		return new ZipFile(jar).withCloseable { zip -> zip.entries().collect { it.name } }
+	}
+
+	private static byte[] read(File jar, String name) {
+		return new ZipFile(jar).withCloseable { zip -> zip.getInputStream(zip.getEntry(name)).bytes }
+	}
+
+	private static int access(File jar, String className) {
+		return new ClassReader(read(jar, className + ".class")).access
+	}
+
+	/**
+	 * Adds access flags to classes, standing in for the access widener.
+	 */
+	static class AccessProcessor implements JarProcessor {
+		final List<String> processed = Collections.synchronizedList([])
+		private final Environment environment
+		private final Map<String, Integer> access
+		private final String version
+		private final boolean incremental
+
+		AccessProcessor(Environment environment, Map<String, Integer> access, String version = "1", boolean incremental = true) {
+			this.environment = environment
+			this.access = access
+			this.version = version
+			this.incremental = incremental
+		}
+
+		@Override
+		Environment getEnvironment() {
+			return environment
+		}
+
+		@Override
+		void setup() {
+		}
+
+		@Override
+		boolean processesClass(String className) {
+			return access.containsKey(className)
+		}
+
+		@Override
+		ClassVisitor createClassVisitor(String className, ClassVisitor next) {
+			processed.add(className)
+			int extra = access[className]
+
+			return new ClassVisitor(Constants.ASM_VERSION, next) {
+				@Override
+				void visit(int version, int classAccess, String name, String signature, String superName, String[] interfaces) {
+					super.visit(version, classAccess | extra, name, signature, superName, interfaces)
+				}
+			}
+		}
+
+		@Override
+		void addToKey(ArtifactStore.Key key) {
+			key.put(version)
+
+			if (!incremental) {
+				new TreeMap<>(access).each { className, flags -> key.put(className).put(flags.toString()) }
+			}
+		}
+
+		@Override
+		Map<String, String> getClassKeys() {
+			if (!incremental) {
+				return null
+			}
+
+			Map<String, String> keys = new ConcurrentHashMap<>()
+			access.each { className, flags -> keys.put(className, flags.toString()) }
+			return keys
+		}
+	}
+
+	static class FailingProcessor implements JarProcessor {
+		@Override
+		Environment getEnvironment() {
+			return Environment.BOTH
+		}
+
+		@Override
+		void setup() {
+		}
+
+		@Override
+		boolean processesClass(String className) {
+			return true
+		}
+
+		@Override
+		ClassVisitor createClassVisitor(String className, ClassVisitor next) {
+			throw new IllegalStateException("Failed to process " + className)
+		}
+
+		@Override
+		void addToKey(ArtifactStore.Key key) {
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package net.fabricmc.loom.util
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class ArtifactStoreTest extends Specification {
+	@Rule
+	TemporaryFolder temp = new TemporaryFolder()
+
+	def "published artifacts can be retrieved elsewhere"() {
+		given:
+		def store = new ArtifactStore(temp.newFolder("store"))
+		def key = ArtifactStore.key("test").put("a").build()
+		def source = write(temp.newFolder("first").toPath().resolve("artifact.jar"), "contents")
+		def target = temp.newFolder("second").toPath().resolve("nested/artifact.jar")
+
+		when:
+		store.publish(key, "artifact.jar", source)
+
+		then:
+		store.contains(key, "artifact.jar")
+		read(store.getPath(key, "artifact.jar")) == "contents"
+		read(source) == "contents"
+
+		when:
+		def retrieved = store.retrieve(key, "artifact.jar", target)
+
+		then:
+		retrieved
+		read(target) == "contents"
+	}
+
+	def "retrieving something which was never published leaves the target alone"() {
+		given:
+		def store = new ArtifactStore(temp.newFolder("store"))
+		def key = ArtifactStore.key("test").put("missing").build()
+		def target = write(temp.newFile("artifact.jar").toPath(), "existing")
+
+		expect:
+		!store.contains(key, "artifact.jar")
+		!store.retrieve(key, "artifact.jar", target)
+		read(target) == "existing"
+	}
+
+	def "publishing an artifact which is already stored keeps the stored copy"() {
+		given:
+		def store = new ArtifactStore(temp.newFolder("store"))
+		def key = ArtifactStore.key("test").put("a").build()
+		def first = write(temp.newFolder("first").toPath().resolve("artifact.jar"), "first")
+		def second = write(temp.newFolder("second").toPath().resolve("artifact.jar"), "second")
+
+		when:
+		store.publish(key, "artifact.jar", first)
+		store.publish(key, "artifact.jar", second)
+
+		then:
+		read(store.getPath(key, "artifact.jar")) == "first"
+		read(second) == "first"
+	}
+
+	def "replacing a published file doesn't change the stored copy"() {
+		given:
+		def store = new ArtifactStore(temp.newFolder("store"))
+		def key = ArtifactStore.key("test").put("a").build()
+		def source = write(temp.newFile("artifact.jar").toPath(), "stored")
+		store.publish(key, "artifact.jar", source)
+
+		when:
+		def replacement = write(temp.newFile("replacement.jar").toPath(), "replaced")
+		Files.move(replacement, source, StandardCopyOption.REPLACE_EXISTING)
+
+		then:
+		read(source) == "replaced"
+		read(store.getPath(key, "artifact.jar")) == "stored"
+	}
+
+	def "artifacts are only produced once"() {
+		given:
+		def store = new ArtifactStore(temp.newFolder("store"))
+		def key = ArtifactStore.key("test").put("a").build()
+		int produced = 0
+		def producer = { Path output ->
+			produced++
+			write(output, "produced")
+		} as ArtifactStore.Producer
+
+		when:
+		def first = store.getOrCreate(key, "artifact.jar", producer)
+		def second = store.getOrCreate(key, "artifact.jar", producer)
+
+		then:
+		produced == 1
+		first == second
+		first == store.getPath(key, "artifact.jar")
+		read(first) == "produced"
+		!Files.exists(first.resolveSibling("artifact.jar.tmp"))
+	}
+
+	def "an artifact isn't stored if producing it fails"() {
+		given:
+		def store = new ArtifactStore(temp.newFolder("store"))
+		def key = ArtifactStore.key("test").put("a").build()
+
+		when:
+		store.getOrCreate(key, "artifact.jar", { Path output -> throw new IOException("Failed") } as ArtifactStore.Producer)
+
+		then:
+		thrown(IOException)
+		!store.contains(key, "artifact.jar")
+	}
+
+	def "keys depend on everything put into them"() {
+		given:
+		def file = write(temp.newFile("file").toPath(), "contents").toFile()
+		def directory = temp.newFolder("directory")
+		write(directory.toPath().resolve("a.txt"), "a")
+		write(directory.toPath().resolve("nested/b.txt"), "b")
+
+		expect:
+		ArtifactStore.key("test").put("a").put("b").build() == ArtifactStore.key("test").put("a").put("b").build()
+		ArtifactStore.key("test").put("a").put("b").build() != ArtifactStore.key("test").put("b").put("a").build()
+		ArtifactStore.key("test").put("ab").build() != ArtifactStore.key("test").put("a").put("b").build()
+		ArtifactStore.key("test").put("a").build() != ArtifactStore.key("other").put("a").build()
+		ArtifactStore.key("test").put(file).build() == ArtifactStore.key("test").put(file).build()
+
+		when:
+		def before = ArtifactStore.key("test").put(directory).build()
+		write(directory.toPath().resolve("nested/b.txt"), "changed")
+
+		then:
+		ArtifactStore.key("test").put(directory).build() != before
+	}
+
+	def "pruning deletes entries which haven't been used recently"() {
+		given:
+		def store = new ArtifactStore(temp.newFolder("store"))
+		def old = ArtifactStore.key("test").put("old").build()
+		def recent = ArtifactStore.key("test").put("recent").build()
+		store.getOrCreate(old, "artifact.jar", { Path output -> write(output, "old") } as ArtifactStore.Producer)
+		store.getOrCreate(recent, "artifact.jar", { Path output -> write(output, "recent") } as ArtifactStore.Producer)
+		age(store.getPath(old, "artifact.jar").parent, 10)
+
+		when:
+		def pruned = store.prune(Duration.ofDays(7))
+
+		then:
+		pruned == 1
+		!store.contains(old, "artifact.jar")
+		!Files.exists(store.getPath(old, "artifact.jar").parent)
+		store.contains(recent, "artifact.jar")
+	}
+
+	def "using an entry stops it being pruned"() {
+		given:
+		def store = new ArtifactStore(temp.newFolder("store"))
+		def key = ArtifactStore.key("test").put("a").build()
+		def stored = store.getOrCreate(key, "artifact.jar", { Path output -> write(output, "contents") } as ArtifactStore.Producer)
+		age(stored.parent, 10)
+
+		when:
+		ArtifactStore.markUsed(stored)
+
+		then:
+		store.prune(Duration.ofDays(7)) == 0
+		store.contains(key, "artifact.jar")
+	}
+
+	def "pruning finishes deleting entries left over from an interrupted prune"() {
+		given:
+		def root = temp.newFolder("store")
+		def store = new ArtifactStore(root)
+		def leftover = root.toPath().resolve("ab/abcdef.deleting-1234")
+		write(leftover.resolve("artifact.jar"), "leftover")
+
+		when:
+		store.prune(Duration.ofDays(7))
+
+		then:
+		!Files.exists(leftover)
+	}
+
+	def "pruning an empty or missing store does nothing"() {
+		expect:
+		new ArtifactStore(new File(temp.root, "missing")).prune(Duration.ZERO) == 0
+		new ArtifactStore(temp.newFolder("empty")).prune(Duration.ZERO) == 0
+	}
+
+	def "pruning is only done once per interval"() {
+		given:
+		def store = new ArtifactStore(temp.newFolder("store"))
+		def first = ArtifactStore.key("test").put("first").build()
+		def second = ArtifactStore.key("test").put("second").build()
+		store.getOrCreate(first, "artifact.jar", { Path output -> write(output, "first") } as ArtifactStore.Producer)
+		age(store.getPath(first, "artifact.jar").parent, 10)
+
+		when:
+		def pruned = store.pruneIfDue(Duration.ofDays(1), Duration.ofDays(7))
+
+		then:
+		pruned == 1
+
+		when:
+		store.getOrCreate(second, "artifact.jar", { Path output -> write(output, "second") } as ArtifactStore.Producer)
+		age(store.getPath(second, "artifact.jar").parent, 10)
+
+		then:
+		store.pruneIfDue(Duration.ofDays(1), Duration.ofDays(7)) == 0
+		Files.exists(store.getPath(second, "artifact.jar"))
+	}
+
+	private static Path write(Path path, String contents) {
+		Files.createDirectories(path.parent)
+		Files.write(path, contents.bytes)
+		return path
+	}
+
+	private static String read(Path path) {
+		return new String(Files.readAllBytes(path))
+	}
+
+	private static void age(Path entry, int days) {
+		Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days)))
+	}
+}
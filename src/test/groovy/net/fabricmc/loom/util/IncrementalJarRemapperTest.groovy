@@ -0,0 +1,233 @@
+package net.fabricmc.loom.util
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+import net.fabricmc.loom.util.zip.JarOutputConsumer
+import net.fabricmc.loom.util.zip.RawZipFile
+import net.fabricmc.mapping.tree.TinyMappingFactory
+import net.fabricmc.mapping.tree.TinyTree
+import net.fabricmc.tinyremapper.TinyRemapper
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Label
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class IncrementalJarRemapperTest extends Specification {
+	static final String MAPPINGS = [
+			'tiny\t2\t0\tofficial\tnamed',
+			'c\ta\tFoo',
+			'\tf\tI\ta\tcount',
+			'\tm\t()V\ta\trun',
+			'c\tb\tBar',
+			'\tm\t()V\ta\trun',
+			'c\tc\tBaz',
+			'c\td\tQux',
+			'\tf\tLa;\ta\tfoo',
+			'\tm\t()V\tb\tuse',
+			'c\th\tParams',
+			'\tm\t(I)V\ta\ttake',
+			'\t\tp\t1\t\tvalue',
+			''
+	].join('\n')
+	static final List<String> UNRELATED = ["e", "f", "g", "i", "j", "k", "l"]
+
+	@Rule
+	TemporaryFolder temp = new TemporaryFolder()
+
+	@Unroll
+	def "incrementally remapping gives the same jar as a full remap when #change"() {
+		given:
+		def input = writeInput()
+		def previous = temp.root.toPath().resolve("previous.jar")
+		def expected = temp.root.toPath().resolve("expected.jar")
+		def output = temp.root.toPath().resolve("output.jar")
+		TinyTree previousMappings = parse(MAPPINGS)
+		TinyTree mappings = parse(changed)
+		remapFully(previousMappings, input, previous)
+		remapFully(mappings, input, expected)
+
+		when:
+		def patched = new IncrementalJarRemapper(previousMappings, mappings, "official", "named", true)
+				.remap(createRemapper(mappings), input, new Path[0], previous, output, Logging.getLogger(IncrementalJarRemapperTest))
+
+		then:
+		patched
+		read(output) == read(expected)
+		rewritten(previous, output) == remapped as Set
+
+		where:
+		change                            | changed                                                                                | remapped
+		"nothing changed"                 | MAPPINGS                                                                               | []
+		"a class is renamed"              | MAPPINGS.replace('c\ta\tFoo\n', 'c\ta\tRenamed\n')                                     | ["Renamed.class", "Qux.class"]
+		"a field is renamed"              | MAPPINGS.replace('\tf\tI\ta\tcount\n', '\tf\tI\ta\tamount\n')                          | ["Foo.class", "Qux.class"]
+		"an overridden method is renamed" | MAPPINGS.replace('c\tb\tBar\n\tm\t()V\ta\trun\n', 'c\tb\tBar\n\tm\t()V\ta\texecute\n') | ["Foo.class", "Bar.class", "Baz.class"]
+		"a parameter is renamed"          | MAPPINGS.replace('\t\tp\t1\t\tvalue\n', '\t\tp\t1\t\tnumber\n')                        | ["Params.class"]
+		"a class gets a mapping"          | MAPPINGS + 'c\te\tAdded\n'                                                             | ["Added.class"]
+	}
+
+	def "nothing is written when too much changed"() {
+		given:
+		def input = writeInput()
+		def previous = temp.root.toPath().resolve("previous.jar")
+		def output = temp.root.toPath().resolve("output.jar")
+		TinyTree previousMappings = parse(MAPPINGS)
+		TinyTree mappings = parse(MAPPINGS + UNRELATED.collect { "c\t$it\tRenamed_$it\n" }.join(''))
+		remapFully(previousMappings, input, previous)
+
+		when:
+		def patched = new IncrementalJarRemapper(previousMappings, mappings, "official", "named", true)
+				.remap(createRemapper(mappings), input, new Path[0], previous, output, Logging.getLogger(IncrementalJarRemapperTest))
+
+		then:
+		!patched
+		!Files.exists(output)
+	}
+
+	private Path writeInput() {
+		Path input = temp.root.toPath().resolve("input.jar")
+
+		new ZipOutputStream(Files.newOutputStream(input)).withCloseable { zip ->
+			// a calls b's method, c overrides it, and d refers to a's type and field
+			write(zip, "a", "java/lang/Object") { ClassWriter writer ->
+				writer.visitField(Opcodes.ACC_PUBLIC, "a", "I", null, null).visitEnd()
+				code(writer, "a", "()V") { MethodVisitor method ->
+					method.visitTypeInsn(Opcodes.NEW, "b")
+					method.visitInsn(Opcodes.DUP)
+					method.visitMethodInsn(Opcodes.INVOKESPECIAL, "b", "<init>", "()V", false)
+					method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "b", "a", "()V", false)
+				}
+			}
+			write(zip, "b", "java/lang/Object") { ClassWriter writer ->
+				code(writer, "a", "()V") { }
+			}
+			write(zip, "c", "b") { ClassWriter writer ->
+				code(writer, "a", "()V") { }
+			}
+			write(zip, "d", "java/lang/Object") { ClassWriter writer ->
+				writer.visitField(Opcodes.ACC_PUBLIC, "a", "La;", null, null).visitEnd()
+				code(writer, "b", "()V") { MethodVisitor method ->
+					method.visitTypeInsn(Opcodes.NEW, "a")
+					method.visitInsn(Opcodes.DUP)
+					method.visitMethodInsn(Opcodes.INVOKESPECIAL, "a", "<init>", "()V", false)
+					method.visitFieldInsn(Opcodes.GETFIELD, "a", "a", "I")
+					method.visitInsn(Opcodes.POP)
+				}
+			}
+			write(zip, "h", "java/lang/Object") { ClassWriter writer ->
+				code(writer, "a", "(I)V") { }
+			}
+
+			for (String name : UNRELATED) {
+				write(zip, name, "java/lang/Object") { ClassWriter writer ->
+					code(writer, "a", "()V") { }
+				}
+			}
+
+			zip.putNextEntry(new ZipEntry("data.txt"))
+			zip.write("Not a class".bytes)
+			zip.closeEntry()
+		}
+
+		return input
+	}
+
+	private static void write(ZipOutputStream zip, String name, String superName, Closure members) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, null)
+
+		MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null)
+		init.visitCode()
+		init.visitVarInsn(Opcodes.ALOAD, 0)
+		init.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false)
+		init.visitInsn(Opcodes.RETURN)
+		init.visitMaxs(0, 0)
+		init.visitEnd()
+
+		members(writer)
+		writer.visitEnd()
+
+		zip.putNextEntry(new ZipEntry(name + ".class"))
+		zip.write(writer.toByteArray())
+		zip.closeEntry()
+	}
+
+	/**
+	 * Add a method with the given body, with a local variable table for an int parameter so it has something to be renamed in.
+	 */
+	private static void code(ClassWriter writer, String name, String descriptor, Closure body) {
+		MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, name, descriptor, null, null)
+		Label start = new Label()
+		Label end = new Label()
+
+		method.visitCode()
+		method.visitLabel(start)
+		body(method)
+		method.visitInsn(Opcodes.RETURN)
+		method.visitLabel(end)
+
+		if (descriptor == "(I)V") {
+			method.visitLocalVariable("x", "I", null, start, end, 1)
+		}
+
+		method.visitMaxs(0, 0)
+		method.visitEnd()
+	}
+
+	private static TinyTree parse(String mappings) {
+		return new BufferedReader(new StringReader(mappings)).withCloseable { TinyMappingFactory.loadWithDetection(it) }
+	}
+
+	private static TinyRemapper createRemapper(TinyTree mappings) {
+		return TinyRemapper.newRemapper()
+				.withMappings(TinyRemapperMappingsHelper.create(mappings, "official", "named", true))
+				.renameInvalidLocals(true)
+				.rebuildSourceFilenames(true)
+				.build()
+	}
+
+	/**
+	 * Remap the whole jar the way the mapped Minecraft jar is when it can't be done incrementally.
+	 */
+	private static void remapFully(TinyTree mappings, Path input, Path output) {
+		TinyRemapper remapper = createRemapper(mappings)
+
+		try {
+			new JarOutputConsumer(output).withCloseable { outputConsumer ->
+				outputConsumer.addNonClassFiles(input)
+				remapper.readInputs(input)
+				remapper.apply(outputConsumer)
+			}
+		} finally {
+			remapper.finish()
+		}
+	}
+
+	private static Map<String, List<Byte>> read(Path jar) {
+		return new ZipFile(jar.toFile()).withCloseable { zip ->
+			zip.entries().findAll { !it.directory }.collectEntries { [(it.name): zip.getInputStream(it).bytes as List] }
+		}
+	}
+
+	/**
+	 * Find the entries which were written again rather than carried over from the previous jar as they were.
+	 */
+	private static Set<String> rewritten(Path previous, Path output) {
+		return new RawZipFile(previous).withCloseable { previousZip ->
+			new RawZipFile(output).withCloseable { outputZip ->
+				outputZip.entries.findAll { entry ->
+					def previousEntry = previousZip.getEntry(entry.name)
+					previousEntry == null || previousEntry.dosTime != entry.dosTime
+				}.collect { it.name } as Set
+			}
+		}
+	}
+}
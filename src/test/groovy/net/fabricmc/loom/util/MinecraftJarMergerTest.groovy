@@ -0,0 +1,158 @@
+package net.fabricmc.loom.util
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+import net.fabricmc.loom.util.zip.RawZipFile
+import net.fabricmc.stitch.merge.JarMerger
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class MinecraftJarMergerTest extends Specification {
+	static final long TIME = 1500000000000L
+
+	@Rule
+	TemporaryFolder temp = new TemporaryFolder()
+
+	Path client
+	Path server
+
+	def setup() {
+		client = temp.root.toPath().resolve("client.jar")
+		server = temp.root.toPath().resolve("server.jar")
+
+		writeJar(client, [
+				"META-INF/MANIFEST.MF": "Manifest-Version: 1.0\nMain-Class: net.minecraft.client.main.Main\n".getBytes(StandardCharsets.UTF_8),
+				"a.class": createClass("a", ["common", "clientOnly"], ["clientField"]),
+				"b.class": createClass("b", ["render"], []),
+				"net/minecraft/client/main/Main.class": createClass("net/minecraft/client/main/Main", ["main"], []),
+				"assets/minecraft/lang/en_us.json": "{}".getBytes(StandardCharsets.UTF_8),
+				"shared.txt": "client".getBytes(StandardCharsets.UTF_8)
+		])
+		writeJar(server, [
+				"META-INF/MANIFEST.MF": "Manifest-Version: 1.0\nMain-Class: net.minecraft.server.MinecraftServer\n".getBytes(StandardCharsets.UTF_8),
+				"a.class": createClass("a", ["common", "serverOnly"], ["serverField"]),
+				"c.class": createClass("c", ["tick"], []),
+				"net/minecraft/server/MinecraftServer.class": createClass("net/minecraft/server/MinecraftServer", ["main"], []),
+				"com/google/common/base/Lib.class": createClass("com/google/common/base/Lib", ["bundled"], []),
+				"data/minecraft/recipes/stick.json": "{}".getBytes(StandardCharsets.UTF_8),
+				"shared.txt": "server".getBytes(StandardCharsets.UTF_8)
+		])
+	}
+
+	@Unroll
+	def "merged jar matches stitch's (synthetic params offset: #offset)"() {
+		given:
+		def expected = temp.root.toPath().resolve("expected.jar")
+		def actual = temp.root.toPath().resolve("actual.jar")
+
+		mergeWithStitch(expected, offset)
+
+		when:
+		new MinecraftJarMerger(client, server).withCloseable { merger ->
+			if (offset) {
+				merger.enableSyntheticParamsOffset()
+			}
+
+			merger.merge(actual)
+		}
+
+		then:
+		describe(actual, true) == describe(expected, true)
+
+		where:
+		offset << [false, true]
+	}
+
+	def "merged jar has the same entries as stitch's when left uncompressed"() {
+		given:
+		def expected = temp.root.toPath().resolve("expected.jar")
+		def actual = temp.root.toPath().resolve("actual.jar")
+
+		mergeWithStitch(expected, false)
+
+		when:
+		new MinecraftJarMerger(client, server).withCloseable { merger ->
+			merger.disableCompression()
+			merger.merge(actual)
+		}
+
+		then:
+		describe(actual, false).sort { it.name } == describe(expected, false).sort { it.name }
+		new ZipFile(actual.toFile()).withCloseable { zip -> zip.entries().findAll { it.name.endsWith(".class") }.every { it.method == ZipEntry.STORED } }
+	}
+
+	private void mergeWithStitch(Path output, boolean offset) {
+		def merger = new JarMerger(client.toFile(), server.toFile(), output.toFile())
+
+		try {
+			if (offset) {
+				merger.enableSyntheticParamsOffset()
+			}
+
+			merger.merge()
+		} finally {
+			merger.close()
+		}
+	}
+
+	private static byte[] createClass(String name, List<String> methods, List<String> fields) {
+		def writer = new ClassWriter(0)
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, null, "java/lang/Object", null)
+
+		fields.each { writer.visitField(Opcodes.ACC_PUBLIC, it, "I", null, null).visitEnd() }
+		methods.each { writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, it, "()V", null, null).visitEnd() }
+
+		writer.visitEnd()
+		return writer.toByteArray()
+	}
+
+	private static void writeJar(Path path, Map<String, byte[]> entries) {
+		new ZipOutputStream(new FileOutputStream(path.toFile())).withCloseable { zip ->
+			entries.each { name, contents ->
+				def entry = new ZipEntry(name)
+				entry.time = TIME
+				zip.putNextEntry(entry)
+				zip.write(contents)
+				zip.closeEntry()
+			}
+		}
+	}
+
+	/**
+	 * Describe the entries of the given jar down to the bytes stored for each file. Directories are only described by name,
+	 * as stitch's zip file system stamps them with the time they were created.
+	 */
+	private static List describe(Path jar, boolean compression) {
+		return new ZipFile(jar.toFile()).withCloseable { zip ->
+			new RawZipFile(jar).withCloseable { raw ->
+				zip.entries().collect { entry ->
+					def description = [name: entry.name]
+
+					if (!entry.directory) {
+						description.contents = zip.getInputStream(entry).bytes
+						description.time = entry.time
+
+						if (compression) {
+							def rawEntry = raw.getEntry(entry.name)
+							description.method = entry.method
+							description.crc = rawEntry.crc
+							description.compressedSize = rawEntry.compressedSize
+							description.stored = raw.readRaw(rawEntry)
+							description.extra = entry.extra
+						}
+					}
+
+					return description
+				}
+			}
+		}
+	}
+}
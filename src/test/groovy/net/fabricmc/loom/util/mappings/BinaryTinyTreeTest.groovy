@@ -0,0 +1,128 @@
+package net.fabricmc.loom.util.mappings
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
+import net.fabricmc.mapping.tree.ClassDef
+import net.fabricmc.mapping.tree.TinyMappingFactory
+import net.fabricmc.mapping.tree.TinyTree
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class BinaryTinyTreeTest extends Specification {
+	static final String MAPPINGS = [
+			'tiny\t2\t0\tofficial\tintermediary\tnamed',
+			'\tescaped-names',
+			'\tcustom\tvalue',
+			'c\ta\tnet/minecraft/class_1\tnet/minecraft/Foo',
+			'\tc\tA class\\nwith a comment over two lines',
+			'\tf\tLb;\ta\tfield_1\tbar',
+			'\t\tc\tA field comment',
+			'\tf\tI\tb\tfield_2\t',
+			'\tm\t(Lb;I)La;\ta\tmethod_1\tdoIt',
+			'\t\tc\tA method comment',
+			'\t\tp\t1\t\t\tthing',
+			'\t\t\tc\tA parameter comment',
+			'\t\tp\t2\t\t\tcount',
+			'\t\tv\t3\t5\t-1\t\t\tlocal',
+			'\t\tv\t4\t7\t2\t\tlocal_4\t',
+			'\tm\t()V\tb\tmethod_2\t',
+			'c\tb\tnet/minecraft/class_2\tnet/minecraft/Bar',
+			'c\tb$c\tnet/minecraft/class_2$class_3\tnet/minecraft/Bar$Inner',
+			'\tm\t(Lb$c;)Lb$c;\ta\tmethod_3\tself',
+			'c\td\tnet/minecraft/class_4\t',
+			''
+	].join('\n')
+
+	@Rule
+	TemporaryFolder temp = new TemporaryFolder()
+
+	TinyTree parsed
+	BinaryTinyTree binary
+
+	def setup() {
+		def tiny = temp.newFile("mappings.tiny").toPath()
+		Files.write(tiny, MAPPINGS.getBytes(StandardCharsets.UTF_8))
+		parsed = Files.newBufferedReader(tiny).withCloseable { TinyMappingFactory.loadWithDetection(it) }
+
+		def path = BinaryTinyTree.getPath(tiny)
+		BinaryTinyTree.write(parsed, Files.size(tiny), 1234L, path)
+		binary = BinaryTinyTree.open(path, Files.size(tiny), 1234L)
+	}
+
+	def "binary tree has the same metadata as the parsed tree"() {
+		expect:
+		binary != null
+		binary.metadata.majorVersion == parsed.metadata.majorVersion
+		binary.metadata.minorVersion == parsed.metadata.minorVersion
+		binary.metadata.namespaces == parsed.metadata.namespaces
+		binary.metadata.properties == parsed.metadata.properties
+		parsed.metadata.namespaces.every { binary.metadata.index(it) == parsed.metadata.index(it) }
+	}
+
+	def "binary tree has the same classes and members as the parsed tree"() {
+		expect:
+		describe(binary.classes, parsed.metadata.namespaces) == describe(parsed.classes, parsed.metadata.namespaces)
+		binary.defaultNamespaceClassMap.keySet() == parsed.defaultNamespaceClassMap.keySet()
+		parsed.defaultNamespaceClassMap.every { name, clazz -> describe([binary.defaultNamespaceClassMap[name]], parsed.metadata.namespaces) == describe([clazz], parsed.metadata.namespaces) }
+	}
+
+	@Unroll
+	def "classes can be looked up by their #namespace name"() {
+		expect:
+		parsed.classes.every { ClassDef clazz -> binary.getClassDef(namespace, clazz.getName(namespace))?.getName("official") == clazz.getName("official") }
+		binary.getClassDef(namespace, "missing/Class") == null
+
+		where:
+		namespace << ["official", "intermediary", "named"]
+	}
+
+	def "binary tree is only opened for the mappings it was compiled from"() {
+		given:
+		def tiny = temp.root.toPath().resolve("mappings.tiny")
+		def path = BinaryTinyTree.getPath(tiny)
+
+		expect:
+		BinaryTinyTree.open(path, Files.size(tiny), 1234L) != null
+		BinaryTinyTree.open(path, Files.size(tiny) + 1, 1234L) == null
+		BinaryTinyTree.open(path, Files.size(tiny), 1235L) == null
+		BinaryTinyTree.open(tiny, Files.size(tiny), 1234L) == null
+	}
+
+	private static List describe(Collection<ClassDef> classes, List<String> namespaces) {
+		return classes.collect { clazz ->
+			[
+					names: names(clazz, namespaces),
+					comment: clazz.comment,
+					fields: clazz.fields.collect { field ->
+						[names: names(field, namespaces), descriptors: namespaces.collect { field.getDescriptor(it) }, comment: field.comment]
+					},
+					methods: clazz.methods.collect { method ->
+						[
+								names: names(method, namespaces),
+								descriptors: namespaces.collect { method.getDescriptor(it) },
+								comment: method.comment,
+								parameters: method.parameters.collect { parameter ->
+									[index: parameter.localVariableIndex, names: names(parameter, namespaces), comment: parameter.comment]
+								},
+								locals: method.localVariables.collect { local ->
+									[
+											index: local.localVariableIndex,
+											start: local.localVariableStartOffset,
+											table: local.localVariableTableIndex,
+											names: names(local, namespaces),
+											comment: local.comment
+									]
+								}
+						]
+					}
+			]
+		}
+	}
+
+	private static List names(def mapped, List<String> namespaces) {
+		return namespaces.collect { [mapped.getName(it), mapped.getRawName(it)] }
+	}
+}
@@ -0,0 +1,64 @@
+package net.fabricmc.loom.util.zip
+
+import java.nio.file.Files
+import java.util.zip.ZipFile
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class JarOutputConsumerTest extends Specification {
+	@Rule
+	TemporaryFolder temp = new TemporaryFolder()
+
+	def "jar output is the same whatever order classes are given in"() {
+		given:
+		def input = temp.newFile("in.zip").toPath()
+		new RawZipOutput(input).withCloseable { output ->
+			output.write("META-INF/MANIFEST.MF", RawZipEntry.toDosTime(System.currentTimeMillis()), "Manifest-Version: 1.0\n".bytes)
+			output.write("a/Ignored.class", 0, new byte[1])
+		}
+
+		def first = temp.root.toPath().resolve("first.jar")
+		def second = temp.root.toPath().resolve("second.jar")
+
+		when:
+		new JarOutputConsumer(first).withCloseable { output ->
+			output.addNonClassFiles(input)
+			output.accept("a/b/C", [1, 2, 3] as byte[])
+			output.accept("a/A", [4, 5, 6] as byte[])
+		}
+		new JarOutputConsumer(second).withCloseable { output ->
+			output.addNonClassFiles(input)
+			output.accept("a/A", [4, 5, 6] as byte[])
+			output.accept("a/b/C", [1, 2, 3] as byte[])
+		}
+
+		then:
+		Files.readAllBytes(first) == Files.readAllBytes(second)
+		def read = new ZipFile(first.toFile())
+		read.entries().collect { it.name } == ["META-INF/", "META-INF/MANIFEST.MF", "a/", "a/A.class", "a/b/", "a/b/C.class"]
+		read.entries().findAll { it.name != "META-INF/MANIFEST.MF" }.every { RawZipEntry.toDosTime(it.time) == (2 << 21 | 1 << 16) }
+		read.getInputStream(read.getEntry("a/b/C.class")).bytes == [1, 2, 3] as byte[]
+
+		cleanup:
+		read?.close()
+	}
+
+	def "an output linked to a shared copy is replaced rather than written through"() {
+		given:
+		def shared = temp.newFile("shared.jar").toPath()
+		Files.write(shared, [1, 2, 3] as byte[])
+		def output = temp.root.toPath().resolve("output.jar")
+		Files.createLink(output, shared)
+
+		when:
+		new JarOutputConsumer(output).withCloseable { consumer ->
+			consumer.accept("A", [4, 5, 6] as byte[])
+		}
+
+		then:
+		Files.readAllBytes(shared) == [1, 2, 3] as byte[]
+		new ZipFile(output.toFile()).withCloseable { zip -> zip.entries().collect { it.name } } == ["A.class"]
+	}
+}
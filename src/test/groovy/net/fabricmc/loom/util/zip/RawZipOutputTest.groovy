@@ -0,0 +1,105 @@
+package net.fabricmc.loom.util.zip
+
+import java.nio.charset.StandardCharsets
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class RawZipOutputTest extends Specification {
+	@Rule
+	TemporaryFolder temp = new TemporaryFolder()
+
+	def "entries written raw read back through java.util.zip"() {
+		given:
+		def zip = temp.newFile("out.zip").toPath()
+		def dosTime = RawZipEntry.toDosTime(1500000000000L)
+		def text = ("Some text which compresses well. " * 100).getBytes(StandardCharsets.UTF_8)
+
+		when:
+		new RawZipOutput(zip).withCloseable { output ->
+			output.write("a/", dosTime, new byte[0])
+			output.write("a/compressed.txt", dosTime, text)
+			output.write(RawZipOutput.store("a/stored.txt", dosTime, text))
+			output.write(RawZipOutput.compress("a/empty.txt", dosTime, new byte[0]))
+			output.write(RawZipOutput.compress("ünïcödé.txt", dosTime, "ü".getBytes(StandardCharsets.UTF_8)))
+		}
+
+		then:
+		def read = new ZipFile(zip.toFile())
+		read.entries().collect { it.name } == ["a/", "a/compressed.txt", "a/stored.txt", "a/empty.txt", "ünïcödé.txt"]
+		read.getEntry("a/").directory
+		read.getEntry("a/compressed.txt").method == ZipEntry.DEFLATED
+		read.getEntry("a/compressed.txt").compressedSize < text.length
+		read.getEntry("a/stored.txt").method == ZipEntry.STORED
+		read.getInputStream(read.getEntry("a/compressed.txt")).bytes == text
+		read.getInputStream(read.getEntry("a/stored.txt")).bytes == text
+		read.getInputStream(read.getEntry("a/empty.txt")).bytes.length == 0
+		new String(read.getInputStream(read.getEntry("ünïcödé.txt")).bytes, StandardCharsets.UTF_8) == "ü"
+		RawZipEntry.toDosTime(read.getEntry("a/stored.txt").time) == dosTime
+
+		cleanup:
+		read?.close()
+	}
+
+	def "entries copied from a zip written by java.util.zip keep their contents and compression"() {
+		given:
+		def input = temp.newFile("in.zip").toPath()
+		def output = temp.newFile("out.zip").toPath()
+		def text = ("More text " * 200).getBytes(StandardCharsets.UTF_8)
+
+		new ZipOutputStream(new FileOutputStream(input.toFile())).withCloseable { zip ->
+			zip.putNextEntry(new ZipEntry("deflated.txt"))
+			zip.write(text)
+			def stored = new ZipEntry("stored.txt")
+			stored.method = ZipEntry.STORED
+			stored.size = text.length
+			def crc = new CRC32()
+			crc.update(text)
+			stored.crc = crc.value
+			zip.putNextEntry(stored)
+			zip.write(text)
+		}
+
+		when:
+		new RawZipFile(input).withCloseable { zip ->
+			assert zip.entries.collect { it.name } == ["deflated.txt", "stored.txt"]
+			assert zip.read(zip.getEntry("deflated.txt")) == text
+
+			new RawZipOutput(output).withCloseable { out ->
+				zip.entries.each { out.copy(zip, it) }
+			}
+		}
+
+		then:
+		def read = new ZipFile(output.toFile())
+		read.getEntry("deflated.txt").method == ZipEntry.DEFLATED
+		read.getEntry("stored.txt").method == ZipEntry.STORED
+		read.getInputStream(read.getEntry("deflated.txt")).bytes == text
+		read.getInputStream(read.getEntry("stored.txt")).bytes == text
+
+		cleanup:
+		read?.close()
+	}
+
+	def "writing the same name twice fails"() {
+		given:
+		def zip = temp.newFile("out.zip").toPath()
+		def output = new RawZipOutput(zip)
+		output.write("a.txt", 0, new byte[1])
+
+		when:
+		output.write("a.txt", 0, new byte[1])
+
+		then:
+		thrown(ZipException)
+
+		cleanup:
+		output.close()
+	}
+}